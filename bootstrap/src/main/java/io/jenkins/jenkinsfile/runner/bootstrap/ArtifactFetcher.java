@@ -0,0 +1,348 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads Jenkins WARs and plugins into the local cache.
+ *
+ * <ul>
+ *     <li>A single {@link HttpClient} is shared, so connections are reused and redirects across protocols are followed.</li>
+ *     <li>Cached files are revalidated with conditional requests ({@code ETag}/{@code Last-Modified}) when requested.</li>
+ *     <li>Interrupted downloads are resumed from the {@code .part} file with a {@code Range} request.</li>
+ *     <li>Files are verified against an expected SHA-256 digest, or against the {@code .sha256} file published next to them if any.</li>
+ *     <li>{@link #fetchAll(List)} downloads with a bounded number of threads.</li>
+ * </ul>
+ *
+ * Validators of each file are kept in a {@code <file>.meta} properties file.
+ */
+public class ArtifactFetcher implements Closeable {
+
+    /**
+     * System property to override the number of concurrent downloads.
+     */
+    public static final String THREADS_PROPERTY = "jfr.download.threads";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final HttpClient client;
+    private final ExecutorService pool;
+
+    public ArtifactFetcher() {
+        this(Integer.getInteger(THREADS_PROPERTY, 8));
+    }
+
+    public ArtifactFetcher(int threads) {
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "Artifact fetcher");
+            t.setDaemon(true);
+            return t;
+        });
+        this.client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    /**
+     * Downloads all requests concurrently.
+     * @throws IOException the first failure, once all other downloads are completed
+     */
+    public List<File> fetchAll(List<Request> requests) throws IOException, InterruptedException {
+        List<Future<File>> futures = new ArrayList<>(requests.size());
+        for (Request r : requests) {
+            futures.add(pool.submit(() -> fetch(r)));
+        }
+        List<File> files = new ArrayList<>(requests.size());
+        IOException failure = null;
+        for (Future<File> f : futures) {
+            try {
+                files.add(f.get());
+            } catch (ExecutionException e) {
+                IOException x = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                if (failure == null) {
+                    failure = x;
+                } else {
+                    failure.addSuppressed(x);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return files;
+    }
+
+    /**
+     * Downloads a single file, unless it is already cached and still valid.
+     * @return the target file
+     */
+    public File fetch(Request request) throws IOException, InterruptedException {
+        final File target = request.target;
+        final File part = new File(target.getPath() + ".part");
+        final Properties meta = loadMeta(target);
+        if (target.isFile() && !request.revalidate) {
+            if (request.sha256 == null || request.sha256.equalsIgnoreCase(getDigest(target, meta))) {
+                return target;
+            }
+            // The cached file is not the expected one, download it again
+            Files.delete(target.toPath());
+            meta.clear();
+        }
+        Files.createDirectories(target.getAbsoluteFile().getParentFile().toPath());
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.uri).GET();
+        long offset = 0;
+        if (target.isFile()) {
+            // Conditional request for the cached file
+            setIfPresent(builder, "If-None-Match", meta.getProperty("etag"));
+            setIfPresent(builder, "If-Modified-Since", meta.getProperty("last-modified"));
+        } else if (part.isFile() && (meta.getProperty("part.etag") != null || meta.getProperty("part.last-modified") != null)) {
+            // Resume the partial download if it did not change on the server side
+            offset = part.length();
+            builder.header("Range", "bytes=" + offset + "-");
+            String validator = meta.getProperty("part.etag", meta.getProperty("part.last-modified"));
+            builder.header("If-Range", validator);
+        }
+
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException e) {
+            if (target.isFile()) {
+                // Keep working offline with the cached file
+                System.err.printf("WARNING: Could not check %s for updates, using the cached file: %s%n", request.uri, e);
+                return target;
+            }
+            throw e;
+        }
+        try (InputStream body = response.body()) {
+            int status = response.statusCode();
+            if (status == 304 && target.isFile()) {
+                return target;
+            }
+            if (status == 404) {
+                throw new FileNotFoundException("Not found: " + request.uri);
+            }
+            if (status != 200 && status != 206) {
+                throw new IOException("Failed to download " + request.uri + ": HTTP " + status);
+            }
+            if (status == 200) {
+                offset = 0;
+            }
+
+            String etag = response.headers().firstValue("ETag").orElse(null);
+            String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+            meta.remove("part.etag");
+            meta.remove("part.last-modified");
+            putIfPresent(meta, "part.etag", etag);
+            putIfPresent(meta, "part.last-modified", lastModified);
+            saveMeta(target, meta);
+
+            MessageDigest digest = newDigest();
+            if (offset > 0) {
+                update(digest, part);
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (OutputStream os = Files.newOutputStream(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    offset > 0 ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    os.write(buffer, 0, read);
+                    digest.update(buffer, 0, read);
+                }
+            }
+
+            String actual = toHex(digest.digest());
+            String expected = request.sha256 != null ? request.sha256 : fetchPublishedDigest(response.uri());
+            if (expected != null && !expected.equalsIgnoreCase(actual)) {
+                Files.deleteIfExists(part.toPath());
+                throw new IOException(String.format("Checksum mismatch for %s: expected SHA-256 %s, got %s", request.uri, expected, actual));
+            }
+
+            Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            meta.clear();
+            putIfPresent(meta, "etag", etag);
+            putIfPresent(meta, "last-modified", lastModified);
+            meta.setProperty("sha256", actual);
+            saveMeta(target, meta);
+            return target;
+        }
+    }
+
+    /**
+     * Reads the {@code .sha256} file published next to the artifact by the Jenkins download mirrors, if any.
+     * @param uri Final location of the artifact, after redirects
+     */
+    @CheckForNull
+    private String fetchPublishedDigest(URI uri) throws InterruptedException {
+        try {
+            HttpResponse<InputStream> r = client.send(HttpRequest.newBuilder(URI.create(uri + ".sha256")).GET().build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream is = r.body()) {
+                if (r.statusCode() == 200) {
+                    // Only the beginning is needed, never read a large file served by mistake
+                    String token = new String(is.readNBytes(256), StandardCharsets.US_ASCII).trim().split("\\s+")[0].toLowerCase(Locale.ENGLISH);
+                    if (token.matches("[0-9a-f]{64}")) {
+                        return token;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // The published digest is optional
+        }
+        return null;
+    }
+
+    /**
+     * SHA-256 digest of a downloaded file, as recorded when it was fetched.
+     */
+    @CheckForNull
+    public static String getRecordedDigest(File target) throws IOException {
+        return loadMeta(target).getProperty("sha256");
+    }
+
+    /**
+     * SHA-256 digest of a file in hex.
+     */
+    public static String digest(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, file);
+        return toHex(digest.digest());
+    }
+
+    private static String getDigest(File target, Properties meta) throws IOException {
+        String sha256 = meta.getProperty("sha256");
+        if (sha256 == null) {
+            // Downloaded before the digests were recorded
+            sha256 = digest(target);
+            meta.setProperty("sha256", sha256);
+            saveMeta(target, meta);
+        }
+        return sha256;
+    }
+
+    private static Properties loadMeta(File target) throws IOException {
+        Properties p = new Properties();
+        File meta = new File(target.getPath() + ".meta");
+        if (meta.isFile()) {
+            try (Reader r = Files.newBufferedReader(meta.toPath(), StandardCharsets.UTF_8)) {
+                p.load(r);
+            }
+        }
+        return p;
+    }
+
+    private static void saveMeta(File target, Properties p) throws IOException {
+        File meta = new File(target.getPath() + ".meta");
+        File tmp = new File(meta.getPath() + ".tmp" + Thread.currentThread().getId());
+        try (Writer w = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            p.store(w, null);
+        }
+        Files.move(tmp.toPath(), meta.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void setIfPresent(HttpRequest.Builder builder, String header, @CheckForNull String value) {
+        if (value != null) {
+            builder.header(header, value);
+        }
+    }
+
+    private static void putIfPresent(Properties p, String key, @CheckForNull String value) {
+        if (value != null) {
+            p.setProperty(key, value);
+        }
+    }
+
+    private static void update(MessageDigest digest, File file) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream is = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by the JVM", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        try {
+            pool.shutdownNow();
+        } finally {
+            // Closes the pooled connections
+            client.close();
+        }
+    }
+
+    /**
+     * A file to download.
+     */
+    public static final class Request {
+        final URI uri;
+        final File target;
+        @CheckForNull
+        final String sha256;
+        final boolean revalidate;
+
+        /**
+         * @param uri Source
+         * @param target Target file in the cache
+         * @param sha256 Expected SHA-256 digest in hex, {@code null} to use the published one if any
+         * @param revalidate Whether a cached file should be checked for updates, e.g. for {@code latest} versions
+         */
+        public Request(URI uri, File target, @CheckForNull String sha256, boolean revalidate) {
+            this.uri = uri;
+            this.target = target;
+            this.sha256 = sha256;
+            this.revalidate = revalidate;
+        }
+
+        @Override
+        public String toString() {
+            return uri.toString();
+        }
+    }
+}
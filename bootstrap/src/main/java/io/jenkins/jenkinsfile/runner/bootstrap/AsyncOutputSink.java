@@ -0,0 +1,219 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Stream writing to its targets from a dedicated thread, through a bounded pool of large buffers.
+ *
+ * <ul>
+ *     <li>The writer fills a buffer which is handed over when full or on {@link #flush()}, there is no flush per line.</li>
+ *     <li>When all the buffers are waiting for a slow target, e.g. the consumer of the container logs, the writer blocks.
+ *         It is the thread forwarding the log, the Pipeline keeps writing its log to the storage meanwhile.</li>
+ *     <li>Each buffer is written to the target and to an optional tee file, without copying it again.</li>
+ *     <li>Files, including the standard output when redirected, are written through their {@link FileChannel}.</li>
+ * </ul>
+ * Errors of the targets are thrown by the next call.
+ */
+public class AsyncOutputSink extends OutputStream {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final int BUFFER_COUNT = 16;
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    /** {@link System#out} when {@link Bootstrap#main} started, see {@link #stdout()}. */
+    @CheckForNull
+    private static volatile PrintStream processStdout;
+
+    private final WritableByteChannel target;
+    /** Target to flush after each buffer, unless it is a file. */
+    @CheckForNull
+    private final OutputStream stream;
+    @CheckForNull
+    private final FileChannel tee;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> pending;
+    private final Thread thread;
+    private ByteBuffer current;
+    private volatile IOException failure;
+    private boolean closed;
+
+    public AsyncOutputSink(OutputStream target, @CheckForNull File tee) throws IOException {
+        this(target, tee, BUFFER_SIZE, BUFFER_COUNT);
+    }
+
+    AsyncOutputSink(OutputStream target, @CheckForNull File tee, int bufferSize, int bufferCount) throws IOException {
+        this.stream = target instanceof FileOutputStream ? null : target;
+        this.target = stream == null ? ((FileOutputStream) target).getChannel() : Channels.newChannel(target);
+        this.tee = tee == null ? null : FileChannel.open(tee.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.free = new ArrayBlockingQueue<>(bufferCount);
+        // One more slot for END
+        this.pending = new ArrayBlockingQueue<>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+        this.thread = new Thread(this::drain, "Jenkinsfile Runner log writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static void captureStdout() {
+        processStdout = System.out;
+    }
+
+    /**
+     * Standard output of the process, written through its channel unless {@link System#out} was replaced,
+     * e.g. by tests capturing it.
+     */
+    public static OutputStream stdout() {
+        if (System.out != processStdout) {
+            return System.out;
+        }
+        System.out.flush();
+        return new FileOutputStream(FileDescriptor.out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCurrent().put((byte) b);
+        if (!current.hasRemaining()) {
+            handOver();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ByteBuffer buffer = ensureCurrent();
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+            if (!buffer.hasRemaining()) {
+                handOver();
+            }
+        }
+    }
+
+    /**
+     * Hands the buffered bytes over to the writing thread, without waiting for them to be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        checkFailure();
+        if (current != null && current.position() > 0) {
+            handOver();
+        }
+    }
+
+    /**
+     * Writes everything, then closes the tee file. The target is flushed but stays open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            pending.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            thread.interrupt();
+            throw new InterruptedIOException("Interrupted while writing the log");
+        } finally {
+            if (tee != null) {
+                tee.close();
+            }
+        }
+        checkFailure();
+    }
+
+    private ByteBuffer ensureCurrent() throws IOException {
+        checkFailure();
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (current == null) {
+            try {
+                // Blocks while the target is slower than the log
+                current = free.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the log to be written");
+            }
+        }
+        return current;
+    }
+
+    private void handOver() throws IOException {
+        current.flip();
+        try {
+            pending.put(current);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the log to be written");
+        } finally {
+            current = null;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw new IOException("Could not write the log", e);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                ByteBuffer buffer = pending.take();
+                if (buffer == END) {
+                    break;
+                }
+                if (failure == null) {
+                    try {
+                        writeFully(target, buffer.duplicate());
+                        if (stream != null) {
+                            stream.flush();
+                        }
+                        if (tee != null) {
+                            writeFully(tee, buffer);
+                        }
+                    } catch (IOException e) {
+                        // Thrown to the writer, the buffers keep being recycled so that it never blocks forever
+                        failure = e;
+                    }
+                }
+                buffer.clear();
+                free.add(buffer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
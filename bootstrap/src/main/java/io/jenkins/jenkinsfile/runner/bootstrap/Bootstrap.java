@@ -6,7 +6,13 @@ import io.jenkins.jenkinsfile.runner.bootstrap.commands.LintJenkinsfileCommand;
 import io.jenkins.jenkinsfile.runner.bootstrap.commands.PipelineRunOptions;
 import io.jenkins.jenkinsfile.runner.bootstrap.commands.RunCLICommand;
 import io.jenkins.jenkinsfile.runner.bootstrap.commands.RunJenkinsfileCommand;
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.RunManyCommand;
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.ServeCommand;
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.TrainCacheCommand;
 import io.jenkins.jenkinsfile.runner.bootstrap.commands.VersionCommand;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Callable;
 import picocli.AutoComplete;
 import picocli.CommandLine;
@@ -20,7 +26,7 @@ import picocli.CommandLine.Command;
  */
 @Command(name = "jenkinsfile-runner", versionProvider = Util.VersionProviderImpl.class, sortOptions = false, mixinStandardHelpOptions = true,
         subcommands = {RunJenkinsfileCommand.class, RunCLICommand.class, AutoComplete.GenerateCompletion.class, VersionCommand.class, CommandLine.HelpCommand.class,
-            LintJenkinsfileCommand.class})
+            LintJenkinsfileCommand.class, TrainCacheCommand.class, ServeCommand.class, RunManyCommand.class})
 public class Bootstrap implements Callable<Integer> {
 
     @CommandLine.Mixin
@@ -38,15 +44,53 @@ public class Bootstrap implements Callable<Integer> {
     public boolean cliMode;
 
     public static void main(String[] args) throws Throwable {
+        StartupReport.get().mark("Bootstrap.main", "milestone");
+        AsyncOutputSink.captureStdout();
         // break for attaching profiler
         if (Boolean.getBoolean("start.pause")) {
             System.console().readLine();
         }
 
+        Integer forwarded = forwardToDaemon(args);
+        if (forwarded != null) {
+            System.exit(forwarded);
+        }
+
         int exitCode = new CommandLine(new Bootstrap()).execute(args);
         System.exit(exitCode);
     }
 
+    /**
+     * Sends the {@code run} command to the daemon started by {@link ServeCommand} when asked to,
+     * with {@code --daemon} or {@link DaemonProtocol#SOCKET_ENV}, and if one is listening.
+     * @return Exit code of the run, {@code null} if it has to run in this process
+     */
+    private static Integer forwardToDaemon(String[] args) {
+        if (args.length == 0 || !args[0].equals("run")) {
+            return null;
+        }
+        List<String> runArgs = Arrays.asList(args).subList(1, args.length);
+        boolean daemon = System.getenv(DaemonProtocol.SOCKET_ENV) != null;
+        for (String arg : runArgs) {
+            if (arg.equals("--no-daemon") || arg.equals("-h") || arg.equals("--help") || arg.equals("-V") || arg.equals("--version")) {
+                return null;
+            }
+            if (arg.equals("--daemon")) {
+                daemon = true;
+            }
+        }
+        if (!daemon) {
+            return null;
+        }
+        try {
+            return DaemonProtocol.forward(DaemonProtocol.getDefaultSocket(), runArgs, System.out, System.err);
+        } catch (IOException e) {
+            // The run may have started already, running it again in this process is not safe
+            System.err.printf("Error communicating with the daemon: %s. Use --no-daemon to run in this process%n", e);
+            return -1;
+        }
+    }
+
     /**
      * Executes {@link RunJenkinsfileCommand} by default
      */
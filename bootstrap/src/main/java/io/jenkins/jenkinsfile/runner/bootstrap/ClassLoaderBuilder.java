@@ -1,5 +1,7 @@
 package io.jenkins.jenkinsfile.runner.bootstrap;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
@@ -8,14 +10,19 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
 /**
  * @author Kohsuke Kawaguchi
  */
 public class ClassLoaderBuilder {
     private final ClassLoader parent;
-    private final HashSet<URL> jars = new HashSet<>(48);
+    private final LinkedHashSet<File> jars = new LinkedHashSet<>(48);
+    private NestedJarIndex nestedJars;
+    @CheckForNull
+    private File indexCache;
 
     public ClassLoaderBuilder(ClassLoader parent) {
         this.parent = parent;
@@ -32,6 +39,8 @@ public class ClassLoaderBuilder {
 
         File[] children = dirOrFile.listFiles();
         if (children!=null) {
+            // Stable classpath order, listFiles() gives no guarantee
+            Arrays.sort(children);
             for (File child : children) {
                 if (child.isDirectory()) {
                     processJars(child, filter, handler);
@@ -46,16 +55,68 @@ public class ClassLoaderBuilder {
     }
 
     public ClassLoaderBuilder collectJars(File dir) throws IOException {
-        return processJars(dir, (File)->true, (jar) -> jars.add(jar.toURI().toURL()));
+        return processJars(dir, (File)->true, (jar) -> jars.add(jar.getAbsoluteFile()));
     }
 
     public ClassLoaderBuilder excludeJars(File dir) throws IOException {
-        return processJars(dir, (File)->true, (jar) -> jars.remove(jar.toURI().toURL()));
+        return processJars(dir, (File)->true, (jar) -> jars.remove(jar.getAbsoluteFile()));
+    }
+
+    /**
+     * Collects jars nested in a WAR file, which will be loaded without extracting them.
+     * Only a single WAR file is supported.
+     *
+     * @param prefixes Prefixes of the nested jar paths, e.g. {@code WEB-INF/lib/}
+     */
+    public ClassLoaderBuilder collectNestedJars(File war, String... prefixes) throws IOException {
+        if (nestedJars != null) {
+            throw new IllegalStateException("Nested jars are already collected from " + nestedJars.getWar());
+        }
+        nestedJars = NestedJarIndex.open(war, name -> {
+            for (String prefix : prefixes) {
+                if (name.startsWith(prefix) && name.endsWith(".jar")) {
+                    return true;
+                }
+            }
+            return false;
+        });
+        return this;
     }
 
+    /**
+     * Persists the package index of the collected jars in this directory, so that the jars are not read on the next start.
+     * @see PackageIndexClassLoader
+     */
+    public ClassLoaderBuilder withIndexCache(File dir) {
+        this.indexCache = dir;
+        return this;
+    }
+
+    /**
+     * Creates the classloader.
+     * If the jars cannot be indexed, e.g. one of them is not a valid ZIP file, they are loaded by a plain
+     * {@link URLClassLoader}, which only fails when the invalid jar is read.
+     */
     public ClassLoader make() {
-        return AccessController.doPrivileged((PrivilegedAction<URLClassLoader>) () -> new URLClassLoader(jars.toArray(
-                new URL[jars.size()]), parent));
+        final File[] files = jars.toArray(new File[0]);
+        final URL[] urls;
+        try {
+            urls = PackageIndexClassLoader.toURLs(files);
+        } catch (MalformedURLException e) {
+            // Not expected for file URLs
+            throw new IllegalStateException(e);
+        }
+        if (nestedJars != null) {
+            return AccessController.doPrivileged((PrivilegedAction<URLClassLoader>) () -> new NestedJarClassLoader(urls, parent, nestedJars));
+        }
+        final Map<String, int[]> index;
+        try {
+            index = PackageIndexClassLoader.index(files, indexCache);
+        } catch (IOException e) {
+            System.err.println("WARNING: Could not index the classpath, loading it without the index: " + e);
+            return AccessController.doPrivileged((PrivilegedAction<URLClassLoader>) () -> new URLClassLoader(urls, parent));
+        }
+        return AccessController.doPrivileged((PrivilegedAction<URLClassLoader>) () -> new PackageIndexClassLoader(files, urls, parent, index));
     }
 
     public interface JarHandler {
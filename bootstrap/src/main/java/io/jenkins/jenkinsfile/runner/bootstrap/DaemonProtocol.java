@@ -0,0 +1,328 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import jdk.net.ExtendedSocketOptions;
+import jdk.net.UnixDomainPrincipal;
+
+/**
+ * Protocol between the {@code run} command and a daemon started by the {@code serve} command,
+ * over a Unix domain socket.
+ *
+ * <ul>
+ *     <li>The client sends the protocol version, its working directory and the arguments of the {@code run} command.</li>
+ *     <li>The daemon answers with frames of standard output and standard error, then the exit code.</li>
+ * </ul>
+ * One run is processed per connection.
+ */
+public final class DaemonProtocol {
+
+    /**
+     * Environment variable to override the {@link #getDefaultSocket() default socket}.
+     */
+    public static final String SOCKET_ENV = "JFR_DAEMON_SOCKET";
+
+    static final int VERSION = 1;
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte EXIT = 3;
+
+    private DaemonProtocol() {
+    }
+
+    public static File getDefaultSocket() {
+        String env = System.getenv(SOCKET_ENV);
+        return env != null && !env.isEmpty() ? new File(env) : new File(System.getProperty("user.home"), ".jenkinsfile-runner/daemon.sock");
+    }
+
+    /**
+     * Arguments of a run sent to the daemon.
+     */
+    public static final class Request {
+        public final File workingDirectory;
+        public final List<String> args;
+
+        Request(File workingDirectory, List<String> args) {
+            this.workingDirectory = workingDirectory;
+            this.args = Collections.unmodifiableList(args);
+        }
+    }
+
+    /**
+     * Connection accepted by the daemon.
+     */
+    public static final class Connection implements AutoCloseable {
+        private final SocketChannel channel;
+        private final DataOutputStream out;
+        private final Request request;
+        private volatile boolean closed;
+
+        private Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported protocol version " + version + ", the client and the daemon must be the same Jenkinsfile Runner version");
+            }
+            File cwd = new File(in.readUTF());
+            int count = in.readInt();
+            List<String> args = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                args.add(in.readUTF());
+            }
+            this.request = new Request(cwd, args);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+        }
+
+        public Request getRequest() {
+            return request;
+        }
+
+        /**
+         * Standard output of the client, each write is sent immediately.
+         */
+        public OutputStream getStdout() {
+            return new FrameOutputStream(out, STDOUT);
+        }
+
+        /**
+         * Standard error of the client, each write is sent immediately.
+         */
+        public OutputStream getStderr() {
+            return new FrameOutputStream(out, STDERR);
+        }
+
+        /**
+         * Calls the listener on a background thread once the client closed the connection before the end of the run,
+         * e.g. when it is interrupted.
+         */
+        public void onDisconnect(Runnable listener) {
+            Thread t = new Thread(() -> {
+                // Nothing is sent by the client after the request, read on the channel to not block the writes
+                ByteBuffer buffer = ByteBuffer.allocate(1);
+                try {
+                    while (channel.read(buffer) >= 0) {
+                        buffer.clear();
+                    }
+                } catch (IOException e) {
+                    // Reset by the client, or closed by the daemon
+                }
+                if (!closed) {
+                    listener.run();
+                }
+            }, "Jenkinsfile Runner daemon client " + channel);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        public void exit(int code) throws IOException {
+            synchronized (out) {
+                out.writeByte(EXIT);
+                out.writeInt(code);
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    /**
+     * Listening socket of the daemon.
+     */
+    public static final class Server implements AutoCloseable {
+        private final File socket;
+        private final ServerSocketChannel channel;
+
+        private Server(File socket, ServerSocketChannel channel) {
+            this.socket = socket;
+            this.channel = channel;
+        }
+
+        /**
+         * Accepts the next run.
+         * @throws IOException if the request is invalid or the client is not the user of the daemon
+         */
+        public Connection accept() throws IOException {
+            SocketChannel client = channel.accept();
+            try {
+                checkPeer(client);
+                return new Connection(client);
+            } catch (IOException | RuntimeException e) {
+                client.close();
+                throw e;
+            }
+        }
+
+        private void checkPeer(SocketChannel client) throws IOException {
+            UnixDomainPrincipal peer;
+            try {
+                peer = client.getOption(ExtendedSocketOptions.SO_PEERCRED);
+            } catch (UnsupportedOperationException e) {
+                // Only the permissions of the socket then
+                return;
+            }
+            UserPrincipal owner = Files.getOwner(socket.toPath());
+            if (!peer.user().getName().equals(owner.getName())) {
+                throw new IOException("Rejected a connection from " + peer.user().getName() + ", only " + owner.getName() + " may send runs");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                Files.deleteIfExists(socket.toPath());
+            }
+        }
+    }
+
+    /**
+     * Starts listening on the socket, only accessible to the current user.
+     * Its directory is created with the same permissions if missing.
+     * @throws IOException if another daemon is already listening
+     */
+    public static Server listen(File socket) throws IOException {
+        if (socket.exists()) {
+            SocketChannel existing = connect(socket);
+            if (existing != null) {
+                existing.close();
+                throw new IOException("A daemon is already listening on " + socket);
+            }
+            // Left behind by a daemon which was killed
+            Files.delete(socket.toPath());
+        }
+        Path parent = socket.getAbsoluteFile().getParentFile().toPath();
+        boolean posix = parent.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (posix && !Files.isDirectory(parent)) {
+            Files.createDirectories(parent, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } else {
+            Files.createDirectories(parent);
+        }
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.bind(UnixDomainSocketAddress.of(socket.toPath()));
+            if (posix) {
+                // Connections accepted in between are checked by Server#accept
+                Files.setPosixFilePermissions(socket.toPath(), PosixFilePermissions.fromString("rw-------"));
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        socket.deleteOnExit();
+        return new Server(socket, channel);
+    }
+
+    @CheckForNull
+    private static SocketChannel connect(File socket) {
+        if (!socket.exists()) {
+            return null;
+        }
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sends a run to the daemon listening on the socket, if any, and forwards its output.
+     * @return Exit code of the run, {@code null} if no daemon is listening
+     */
+    @CheckForNull
+    public static Integer forward(File socket, List<String> args, OutputStream stdout, OutputStream stderr) throws IOException {
+        SocketChannel channel = connect(socket);
+        if (channel == null) {
+            return null;
+        }
+        try (SocketChannel c = channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(c)));
+            out.writeInt(VERSION);
+            out.writeUTF(new File("").getAbsolutePath());
+            out.writeInt(args.size());
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(c), 64 * 1024));
+            byte[] buffer = new byte[64 * 1024];
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    throw new IOException("The daemon closed the connection before the end of the run", e);
+                }
+                if (type == EXIT) {
+                    return in.readInt();
+                }
+                OutputStream target = type == STDERR ? stderr : stdout;
+                int length = in.readInt();
+                while (length > 0) {
+                    int read = in.read(buffer, 0, Math.min(buffer.length, length));
+                    if (read == -1) {
+                        throw new EOFException("Truncated frame from the daemon");
+                    }
+                    target.write(buffer, 0, read);
+                    length -= read;
+                }
+                target.flush();
+            }
+        }
+    }
+
+    private static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+
+        FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Manifest;
+
+/**
+ * {@link URLClassLoader} which also loads classes and resources from jars nested in a WAR file,
+ * without extracting them.
+ * Nested jars are looked up first, then the regular URLs.
+ *
+ * @see NestedJarIndex
+ */
+public class NestedJarClassLoader extends URLClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final NestedJarIndex index;
+    private final ConcurrentMap<URL, CodeSource> codeSources = new ConcurrentHashMap<>();
+
+    NestedJarClassLoader(URL[] urls, ClassLoader parent, NestedJarIndex index) {
+        super(urls, parent);
+        this.index = index;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        NestedJarIndex.Entry e = index.get(name.replace('.', '/').concat(".class"));
+        if (e == null) {
+            return super.findClass(name);
+        }
+        try {
+            byte[] bytes = index.read(e);
+            int dot = name.lastIndexOf('.');
+            if (dot != -1) {
+                definePackageIfNeeded(name.substring(0, dot), e.jar);
+            }
+            return defineClass(name, bytes, 0, bytes.length,
+                    codeSources.computeIfAbsent(e.jar.url, url -> new CodeSource(url, (CodeSigner[]) null)));
+        } catch (IOException ex) {
+            throw new ClassNotFoundException(name, ex);
+        }
+    }
+
+    private void definePackageIfNeeded(String packageName, NestedJarIndex.NestedJar jar) throws IOException {
+        if (getDefinedPackage(packageName) != null) {
+            return;
+        }
+        Manifest manifest = index.getManifest(jar);
+        try {
+            if (manifest != null) {
+                definePackage(packageName, manifest, jar.url);
+            } else {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            }
+        } catch (IllegalArgumentException ex) {
+            // Defined concurrently by another thread
+        }
+    }
+
+    @Override
+    public URL findResource(String name) {
+        NestedJarIndex.Entry e = index.get(name);
+        return e != null ? index.toURL(e) : super.findResource(name);
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        List<URL> urls = new ArrayList<>();
+        for (NestedJarIndex.Entry e : index.getAll(name)) {
+            urls.add(index.toURL(e));
+        }
+        urls.addAll(Collections.list(super.findResources(name)));
+        return Collections.enumeration(urls);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            index.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + index.getWar() + ", " + index.getJarCount() + " nested jars]";
+    }
+}
@@ -0,0 +1,432 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Index of all entries of the jars nested in a WAR file, e.g. {@code WEB-INF/lib/*.jar}.
+ *
+ * The WAR is memory-mapped and its central directory is read once.
+ * Nested jars stored without compression are used in place, compressed ones are inflated once off-heap.
+ * Entries of the nested jars are then read straight from these buffers, nothing is written to disk.
+ * In multi-release jars, the versioned entries for the running Java version replace the base ones, like in {@link JarFile}.
+ * ZIP64 archives are not supported, {@link #open(File, Predicate)} fails so that the caller can explode the WAR instead.
+ */
+final class NestedJarIndex implements Closeable {
+
+    /**
+     * Protocol of the resource URLs, they can only be opened through this index.
+     */
+    static final String PROTOCOL = "jfrwar";
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+
+    private static final String VERSIONS = "META-INF/versions/";
+
+    private final File war;
+    private final FileChannel channel;
+    private final Map<String, NestedJar> jars = new LinkedHashMap<>();
+    /** First entry for each name, in the order of the jars in the WAR. */
+    private final Map<String, Entry> entries = new HashMap<>(16384);
+    /** All entries for names present in more than one jar. */
+    private final Map<String, List<Entry>> duplicates = new HashMap<>();
+    private final URLStreamHandler handler = new Handler();
+
+    private NestedJarIndex(File war, FileChannel channel) {
+        this.war = war;
+        this.channel = channel;
+    }
+
+    /**
+     * Indexes the nested jars whose names are accepted by the filter.
+     */
+    static NestedJarIndex open(File war, Predicate<String> jarFilter) throws IOException {
+        FileChannel channel = FileChannel.open(war.toPath(), StandardOpenOption.READ);
+        NestedJarIndex index = new NestedJarIndex(war, channel);
+        try {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            for (RawEntry e : readCentralDirectory(mapped)) {
+                if (e.name.endsWith("/") || !jarFilter.test(e.name)) {
+                    continue;
+                }
+                NestedJar jar = new NestedJar(e.name, new URL("jar:" + war.toURI() + "!/" + e.name), index.readJar(mapped, e));
+                index.jars.put(jar.name, jar);
+                List<RawEntry> nested = readCentralDirectory(jar.data);
+                for (RawEntry ne : nested) {
+                    if (!ne.name.endsWith("/")) {
+                        index.add(new Entry(jar, ne.name, ne));
+                    }
+                }
+                index.addVersionedEntries(jar, nested);
+            }
+        } catch (IOException | RuntimeException e) {
+            index.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Failed to index " + war, e);
+        }
+        return index;
+    }
+
+    private void add(Entry e) {
+        Entry first = entries.putIfAbsent(e.name, e);
+        if (first != null) {
+            duplicates.computeIfAbsent(e.name, k -> new ArrayList<>(Collections.singletonList(first))).add(e);
+        }
+    }
+
+    /**
+     * Makes the entries of a multi-release jar for the running Java version replace its base entries.
+     */
+    private void addVersionedEntries(NestedJar jar, List<RawEntry> nested) throws IOException {
+        int feature = Runtime.version().feature();
+        List<RawEntry> versioned = new ArrayList<>();
+        for (RawEntry ne : nested) {
+            if (ne.name.startsWith(VERSIONS) && !ne.name.endsWith("/") && version(ne.name) <= feature) {
+                versioned.add(ne);
+            }
+        }
+        if (versioned.isEmpty()) {
+            return;
+        }
+        Manifest manifest = getManifest(jar);
+        if (manifest == null || !"true".equalsIgnoreCase(manifest.getMainAttributes().getValue("Multi-Release"))) {
+            return;
+        }
+        // Highest version last, so that it wins
+        versioned.sort(Comparator.comparingInt(ne -> version(ne.name)));
+        for (RawEntry ne : versioned) {
+            String name = ne.name.substring(ne.name.indexOf('/', VERSIONS.length()) + 1);
+            replace(new Entry(jar, name, ne));
+        }
+    }
+
+    /**
+     * Version of an entry in {@code META-INF/versions/<version>/}, {@link Integer#MAX_VALUE} if it is not a number.
+     */
+    private static int version(String name) {
+        int slash = name.indexOf('/', VERSIONS.length());
+        try {
+            return slash == -1 ? Integer.MAX_VALUE : Integer.parseInt(name.substring(VERSIONS.length(), slash));
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Replaces the entry of the same jar, keeping the order of the jars.
+     */
+    private void replace(Entry e) {
+        Entry first = entries.get(e.name);
+        if (first == null) {
+            entries.put(e.name, e);
+            return;
+        }
+        if (first.jar == e.jar) {
+            entries.put(e.name, e);
+        }
+        List<Entry> all = duplicates.get(e.name);
+        if (all == null) {
+            if (first.jar != e.jar) {
+                duplicates.put(e.name, new ArrayList<>(Arrays.asList(first, e)));
+            }
+            return;
+        }
+        for (ListIterator<Entry> it = all.listIterator(); it.hasNext(); ) {
+            if (it.next().jar == e.jar) {
+                it.set(e);
+                return;
+            }
+        }
+        // The jars are indexed in order, so the entries of this jar come last
+        all.add(e);
+    }
+
+    File getWar() {
+        return war;
+    }
+
+    int getJarCount() {
+        return jars.size();
+    }
+
+    @CheckForNull
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    List<Entry> getAll(String name) {
+        List<Entry> all = duplicates.get(name);
+        if (all != null) {
+            return all;
+        }
+        Entry e = entries.get(name);
+        return e == null ? Collections.emptyList() : Collections.singletonList(e);
+    }
+
+    byte[] read(Entry e) throws IOException {
+        ByteBuffer src = slice(e.jar.data, e.dataOffset, e.compressedSize);
+        byte[] out = new byte[e.size];
+        if (e.method == ZipEntry.STORED) {
+            src.get(out);
+            return out;
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(src);
+            int n = 0;
+            while (n < out.length) {
+                int read = inflater.inflate(out, n, out.length - n);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != out.length) {
+                throw new IOException("Truncated entry " + e.name + " in " + e.jar.name);
+            }
+            return out;
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupted entry " + e.name + " in " + e.jar.name, ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    URL toURL(Entry e) {
+        try {
+            return new URL(PROTOCOL, null, -1, e.jar.name + "!/" + e.name, handler);
+        } catch (MalformedURLException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads a nested jar from the WAR.
+     * Stored jars are sliced from the mapping, deflated ones are inflated into a direct buffer.
+     */
+    private ByteBuffer readJar(ByteBuffer war, RawEntry e) throws IOException {
+        ByteBuffer src = slice(war, dataOffset(war, e), e.compressedSize);
+        if (e.method == ZipEntry.STORED) {
+            return src;
+        }
+        ByteBuffer out = ByteBuffer.allocateDirect(e.size);
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(src);
+            while (out.hasRemaining()) {
+                int read = inflater.inflate(out);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupted entry " + e.name + " in " + this.war, ex);
+        } finally {
+            inflater.end();
+        }
+        if (out.hasRemaining()) {
+            throw new IOException("Truncated entry " + e.name + " in " + this.war);
+        }
+        out.flip();
+        return out;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset).limit(offset + length);
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int dataOffset(ByteBuffer zip, RawEntry e) throws IOException {
+        ByteBuffer b = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (b.getInt(e.localHeaderOffset) != LOC_SIGNATURE) {
+            throw new IOException("Invalid local header for " + e.name);
+        }
+        return e.localHeaderOffset + 30 + Short.toUnsignedInt(b.getShort(e.localHeaderOffset + 26))
+                + Short.toUnsignedInt(b.getShort(e.localHeaderOffset + 28));
+    }
+
+    private static List<RawEntry> readCentralDirectory(ByteBuffer zip) throws IOException {
+        ByteBuffer b = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int eocd = -1;
+        for (int i = b.limit() - 22, min = Math.max(0, b.limit() - 22 - 0xFFFF); i >= min; i--) {
+            if (b.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd == -1) {
+            throw new IOException("Not a ZIP archive: no end of central directory record");
+        }
+        int count = Short.toUnsignedInt(b.getShort(eocd + 10));
+        long offset = Integer.toUnsignedLong(b.getInt(eocd + 16));
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+            throw new IOException("ZIP64 archives are not supported");
+        }
+
+        List<RawEntry> result = new ArrayList<>(count);
+        int pos = (int) offset;
+        for (int i = 0; i < count; i++) {
+            if (b.getInt(pos) != CEN_SIGNATURE) {
+                throw new IOException("Invalid central directory header at " + pos);
+            }
+            int nameLength = Short.toUnsignedInt(b.getShort(pos + 28));
+            int extraLength = Short.toUnsignedInt(b.getShort(pos + 30));
+            int commentLength = Short.toUnsignedInt(b.getShort(pos + 32));
+            byte[] name = new byte[nameLength];
+            b.position(pos + 46);
+            b.get(name);
+            long compressedSize = Integer.toUnsignedLong(b.getInt(pos + 20));
+            long size = Integer.toUnsignedLong(b.getInt(pos + 24));
+            if (compressedSize > Integer.MAX_VALUE || size > Integer.MAX_VALUE) {
+                throw new IOException("ZIP64 archives are not supported");
+            }
+            // Names are UTF-8 in all archives produced by Maven and the JDK
+            result.add(new RawEntry(new String(name, StandardCharsets.UTF_8),
+                    Short.toUnsignedInt(b.getShort(pos + 10)), (int) compressedSize, (int) size, b.getInt(pos + 42)));
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    private static final class RawEntry {
+        final String name;
+        final int method;
+        final int compressedSize;
+        final int size;
+        final int localHeaderOffset;
+
+        RawEntry(String name, int method, int compressedSize, int size, int localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    /**
+     * Jar nested in the WAR.
+     */
+    static final class NestedJar {
+        final String name;
+        /** {@code jar:} URL of the nested jar within the WAR, used as the code source. */
+        final URL url;
+        final ByteBuffer data;
+        private Manifest manifest;
+        private boolean manifestRead;
+
+        NestedJar(String name, URL url, ByteBuffer data) {
+            this.name = name;
+            this.url = url;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Entry of a nested jar.
+     */
+    static final class Entry {
+        final NestedJar jar;
+        final String name;
+        final int method;
+        final int compressedSize;
+        final int size;
+        final int dataOffset;
+
+        Entry(NestedJar jar, String name, RawEntry e) throws IOException {
+            this.jar = jar;
+            this.name = name;
+            this.method = e.method;
+            this.compressedSize = e.compressedSize;
+            this.size = e.size;
+            this.dataOffset = dataOffset(jar.data, e);
+        }
+    }
+
+    @CheckForNull
+    Manifest getManifest(NestedJar jar) throws IOException {
+        synchronized (jar) {
+            if (!jar.manifestRead) {
+                Entry e = getAll(JarFile.MANIFEST_NAME).stream().filter(m -> m.jar == jar).findFirst().orElse(null);
+                jar.manifest = e == null ? null : new Manifest(new ByteArrayInputStream(read(e)));
+                jar.manifestRead = true;
+            }
+            return jar.manifest;
+        }
+    }
+
+    private final class Handler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(URL u) throws IOException {
+            String path = u.getFile();
+            int sep = path.indexOf("!/");
+            if (sep == -1) {
+                throw new MalformedURLException("Not a nested jar entry: " + u);
+            }
+            String jarName = path.substring(0, sep);
+            String entryName = path.substring(sep + 2);
+            Entry entry = getAll(entryName).stream().filter(e -> e.jar.name.equals(jarName)).findFirst().orElse(null);
+            if (entry == null) {
+                throw new FileNotFoundException(u.toString());
+            }
+            return new URLConnection(u) {
+                @Override
+                public void connect() {
+                    connected = true;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return new ByteArrayInputStream(read(entry));
+                }
+
+                @Override
+                public long getContentLengthLong() {
+                    return entry.size;
+                }
+
+                @Override
+                public long getLastModified() {
+                    return war.lastModified();
+                }
+            };
+        }
+    }
+}
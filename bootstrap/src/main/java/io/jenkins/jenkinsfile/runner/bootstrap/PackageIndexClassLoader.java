@@ -0,0 +1,325 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * {@link URLClassLoader} over a list of jars, which knows in advance which jars contain which packages.
+ *
+ * A lookup only opens the jars containing the package of the class or resource,
+ * and a miss, e.g. for every class of the parent classloaders when child-first lookups happen, costs a single map lookup
+ * instead of a scan of all jars.
+ *
+ * The index of the package directories of each jar can be persisted to avoid reading all the jars on the next start,
+ * it is keyed by the paths, sizes and timestamps of the jars.
+ * {@link #getURLs()} still returns all jars for the code which inspects the classpath.
+ */
+public class PackageIndexClassLoader extends URLClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+    private final File[] files;
+    private final URL[] urls;
+    /** Jars containing each package directory, e.g. {@code org/jenkinsci/}, in classpath order. */
+    private final Map<String, int[]> index;
+    private final JarFile[] jarFiles;
+    private final CodeSource[] codeSources;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    PackageIndexClassLoader(File[] files, URL[] urls, ClassLoader parent, Map<String, int[]> index) {
+        super(urls, parent);
+        this.files = files;
+        this.urls = urls;
+        this.index = index;
+        this.jarFiles = new JarFile[files.length];
+        this.codeSources = new CodeSource[files.length];
+        for (int i = 0; i < urls.length; i++) {
+            codeSources[i] = new CodeSource(urls[i], (CodeSigner[]) null);
+        }
+    }
+
+    /**
+     * Number of classes and resources found in the jars.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of classes and resources looked up in the jars but not found.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String path = name.replace('.', '/').concat(".class");
+        for (int i : candidates(path)) {
+            try {
+                JarFile jar = getJarFile(i);
+                JarEntry entry = jar.getJarEntry(path);
+                if (entry == null) {
+                    continue;
+                }
+                byte[] bytes;
+                try (InputStream is = jar.getInputStream(entry)) {
+                    bytes = is.readAllBytes();
+                }
+                int dot = name.lastIndexOf('.');
+                if (dot != -1) {
+                    definePackageIfNeeded(name.substring(0, dot), jar, i);
+                }
+                CodeSigner[] signers = entry.getCodeSigners();
+                hits.incrementAndGet();
+                return defineClass(name, bytes, 0, bytes.length,
+                        signers == null ? codeSources[i] : new CodeSource(urls[i], signers));
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+        misses.incrementAndGet();
+        throw new ClassNotFoundException(name);
+    }
+
+    private void definePackageIfNeeded(String packageName, JarFile jar, int i) throws IOException {
+        if (getDefinedPackage(packageName) != null) {
+            return;
+        }
+        Manifest manifest = jar.getManifest();
+        try {
+            if (manifest != null) {
+                definePackage(packageName, manifest, urls[i]);
+            } else {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            }
+        } catch (IllegalArgumentException e) {
+            // Defined concurrently by another thread
+        }
+    }
+
+    @Override
+    public URL findResource(String name) {
+        if (name.endsWith("/")) {
+            // Directory lookups are not indexed
+            return super.findResource(name);
+        }
+        for (int i : candidates(name)) {
+            URL url = findResource(i, name);
+            if (url != null) {
+                hits.incrementAndGet();
+                return url;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        if (name.endsWith("/")) {
+            return super.findResources(name);
+        }
+        List<URL> result = new ArrayList<>();
+        for (int i : candidates(name)) {
+            URL url = findResource(i, name);
+            if (url != null) {
+                result.add(url);
+            }
+        }
+        (result.isEmpty() ? misses : hits).incrementAndGet();
+        return Collections.enumeration(result);
+    }
+
+    @CheckForNull
+    private URL findResource(int i, String name) {
+        try {
+            if (getJarFile(i).getJarEntry(name) == null) {
+                return null;
+            }
+            return new URL("jar:" + urls[i] + "!/" + name);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private int[] candidates(String path) {
+        int[] jars = index.get(directoryOf(path));
+        return jars != null ? jars : new int[0];
+    }
+
+    private JarFile getJarFile(int i) throws IOException {
+        synchronized (jarFiles) {
+            if (jarFiles[i] == null) {
+                jarFiles[i] = new JarFile(files[i], true, ZipFile.OPEN_READ, JarFile.runtimeVersion());
+            }
+            return jarFiles[i];
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            synchronized (jarFiles) {
+                for (int i = 0; i < jarFiles.length; i++) {
+                    if (jarFiles[i] != null) {
+                        jarFiles[i].close();
+                        jarFiles[i] = null;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + files.length + " jars, " + index.size() + " packages, "
+                + hits.get() + " hits, " + misses.get() + " misses]";
+    }
+
+    private static String directoryOf(String path) {
+        return path.substring(0, path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Indexes the package directories of the jars.
+     * @param cacheDir Directory to persist the index into, {@code null} to always compute it
+     */
+    static Map<String, int[]> index(File[] jars, @CheckForNull File cacheDir) throws IOException {
+        File cached = null;
+        if (cacheDir != null) {
+            MessageDigest digest = ArtifactFetcher.newDigest();
+            for (File jar : jars) {
+                digest.update((jar.getAbsolutePath() + "\n" + jar.length() + "\n" + jar.lastModified() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            cached = new File(cacheDir, ArtifactFetcher.toHex(digest.digest()) + ".idx");
+            if (cached.isFile()) {
+                try {
+                    return toIndex(read(cached, jars.length));
+                } catch (IOException e) {
+                    // Corrupted, computed again
+                }
+            }
+        }
+
+        List<Set<String>> packages = new ArrayList<>(jars.length);
+        for (File jar : jars) {
+            Set<String> dirs = new LinkedHashSet<>();
+            try (ZipFile zip = new ZipFile(jar)) {
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                    String name = e.nextElement().getName();
+                    dirs.add(directoryOf(name));
+                    if (name.startsWith(VERSIONS_PREFIX)) {
+                        // Multi-release jar, the versioned entries are looked up with their base names
+                        int slash = name.indexOf('/', VERSIONS_PREFIX.length());
+                        if (slash != -1) {
+                            dirs.add(directoryOf(name.substring(slash + 1)));
+                        }
+                    }
+                }
+            }
+            packages.add(dirs);
+        }
+
+        if (cached != null) {
+            try {
+                write(cached, packages);
+            } catch (IOException e) {
+                // Read-only cache, computed again next time
+            }
+        }
+        return toIndex(packages);
+    }
+
+    private static Map<String, int[]> toIndex(List<Set<String>> packages) {
+        Map<String, List<Integer>> lists = new HashMap<>(8192);
+        for (int i = 0; i < packages.size(); i++) {
+            for (String dir : packages.get(i)) {
+                lists.computeIfAbsent(dir, k -> new ArrayList<>(1)).add(i);
+            }
+        }
+        Map<String, int[]> index = new HashMap<>(lists.size() * 2);
+        for (Map.Entry<String, List<Integer>> e : lists.entrySet()) {
+            index.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        return index;
+    }
+
+    private static List<Set<String>> read(File file, int jarCount) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != jarCount) {
+                throw new IOException("Index of another classpath: " + file);
+            }
+            List<Set<String>> packages = new ArrayList<>(jarCount);
+            for (int i = 0; i < jarCount; i++) {
+                int count = in.readInt();
+                Set<String> dirs = new LinkedHashSet<>(count * 2);
+                for (int j = 0; j < count; j++) {
+                    dirs.add(in.readUTF());
+                }
+                packages.add(dirs);
+            }
+            return packages;
+        }
+    }
+
+    private static void write(File file, List<Set<String>> packages) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        File tmp = new File(file.getPath() + "." + ProcessHandle.current().pid() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+            out.writeInt(packages.size());
+            for (Set<String> dirs : packages) {
+                out.writeInt(dirs.size());
+                for (String dir : dirs) {
+                    out.writeUTF(dir);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static URL[] toURLs(File[] files) throws MalformedURLException {
+        URL[] urls = new URL[files.length];
+        for (int i = 0; i < files.length; i++) {
+            urls[i] = files[i].toURI().toURL();
+        }
+        return urls;
+    }
+}
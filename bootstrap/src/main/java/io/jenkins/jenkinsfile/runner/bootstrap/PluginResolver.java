@@ -0,0 +1,355 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.util.VersionNumber;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.UnaryOperator;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Resolves the transitive dependencies of the plugins listed in {@code plugins.txt}
+ * and pins the result in a {@value #LOCK_FILE_NAME} file.
+ *
+ * Dependencies are read from the {@code Plugin-Dependencies} manifest attribute of the {@code .hpi} files in the
+ * plugin cache, or from a local update center JSON file. Plugins which are in neither are downloaded once.
+ * The highest version required by any plugin wins, optional dependencies are only honored for plugins which are
+ * part of the set anyway.
+ *
+ * The lock file uses the {@code plugins.txt} syntax with an additional SHA-256 column and records the digest of the
+ * {@code plugins.txt} file it was generated from, so later runs can install from it without any resolution work.
+ */
+public class PluginResolver {
+
+    public static final String LOCK_FILE_NAME = "plugins.lock";
+
+    private static final String LATEST = "latest";
+    private static final String SOURCE_HEADER = "# Source sha256: ";
+
+    private final File cache;
+    private final ArtifactFetcher fetcher;
+    private final UnaryOperator<String> mirror;
+    /** Plugin entries of the update center JSON, by name. */
+    private final Map<String, Map<String, Object>> updateCenter = new HashMap<>();
+
+    /**
+     * @param cache Plugin cache directory, e.g. {@code ~/.jenkinsfile-runner/plugins}
+     * @param mirror Rewrites the {@code https://updates.jenkins.io/download} URLs to a mirror
+     */
+    public PluginResolver(File cache, ArtifactFetcher fetcher, UnaryOperator<String> mirror) {
+        this.cache = cache;
+        this.fetcher = fetcher;
+        this.mirror = mirror;
+    }
+
+    /**
+     * Uses a local update center JSON file, e.g. a downloaded {@code update-center.json}, as a source of metadata.
+     */
+    @SuppressWarnings("unchecked")
+    public PluginResolver withUpdateCenter(File json) throws IOException {
+        String text = FileUtils.readFileToString(json, StandardCharsets.UTF_8);
+        // update-center.json is wrapped in a JSONP callback
+        int start = text.indexOf('{');
+        int end = text.lastIndexOf('}');
+        if (start == -1 || end < start) {
+            throw new IOException("Not an update center JSON file: " + json);
+        }
+        Object plugins = ((Map<String, Object>) Json.parse(text.substring(start, end + 1))).get("plugins");
+        if (!(plugins instanceof Map)) {
+            throw new IOException("No plugins in the update center JSON file: " + json);
+        }
+        for (Map.Entry<String, Object> e : ((Map<String, Object>) plugins).entrySet()) {
+            updateCenter.put(e.getKey(), (Map<String, Object>) e.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Computes the full set of plugins needed by the requested ones.
+     * @return Plugins with exact versions and SHA-256 digests, sorted by name
+     */
+    public List<Plugin> resolve(List<Plugin> requested) throws IOException, InterruptedException {
+        Map<String, String> versions = new TreeMap<>();
+        Set<String> pinned = new LinkedHashSet<>();
+        List<Plugin> latest = new ArrayList<>();
+        for (Plugin p : requested) {
+            if (LATEST.equals(p.version)) {
+                latest.add(p);
+            } else {
+                versions.put(p.name, p.version);
+                pinned.add(p.name);
+            }
+        }
+        for (Info info : load(latest)) {
+            if (!versions.containsKey(info.name)) {
+                versions.put(info.name, info.version);
+            }
+        }
+
+        Map<String, Info> infos = new HashMap<>();
+        while (true) {
+            List<Plugin> missing = new ArrayList<>();
+            for (Map.Entry<String, String> e : versions.entrySet()) {
+                Info info = infos.get(e.getKey());
+                if (info == null || !info.version.equals(e.getValue())) {
+                    missing.add(new Plugin(e.getKey(), e.getValue(), null));
+                }
+            }
+            for (Info info : load(missing)) {
+                infos.put(info.name, info);
+            }
+
+            boolean changed = false;
+            for (Info info : new ArrayList<>(infos.values())) {
+                for (Dependency d : info.dependencies) {
+                    String current = versions.get(d.name);
+                    if (current == null && d.optional) {
+                        continue;
+                    }
+                    if (current == null || new VersionNumber(current).isOlderThan(new VersionNumber(d.version))) {
+                        if (pinned.contains(d.name)) {
+                            System.err.printf("WARNING: %s requires %s:%s, plugins.txt pins %s%n", info.name, d.name, d.version, current);
+                            pinned.remove(d.name);
+                        }
+                        versions.put(d.name, d.version);
+                        changed = true;
+                    }
+                }
+            }
+            if (!changed && missing.isEmpty()) {
+                break;
+            }
+        }
+
+        List<Plugin> result = new ArrayList<>(versions.size());
+        for (String name : versions.keySet()) {
+            result.add(new Plugin(name, infos.get(name).version, infos.get(name).sha256));
+        }
+        return result;
+    }
+
+    /**
+     * Reads the dependencies of the given plugin versions, downloading the plugins found neither in the update center
+     * nor in the cache.
+     */
+    private List<Info> load(List<Plugin> plugins) throws IOException, InterruptedException {
+        List<Info> result = new ArrayList<>();
+        List<Plugin> toFetch = new ArrayList<>();
+        for (Plugin p : plugins) {
+            Info info = fromUpdateCenter(p);
+            if (info != null) {
+                result.add(info);
+            } else if (!LATEST.equals(p.version) && getCacheFile(p.name, p.version).isFile()) {
+                result.add(fromManifest(p, getCacheFile(p.name, p.version)));
+            } else {
+                toFetch.add(p);
+            }
+        }
+        List<ArtifactFetcher.Request> requests = new ArrayList<>();
+        for (Plugin p : toFetch) {
+            System.out.printf("Downloading jenkins plugin %s (%s)...%n", p.name, p.version);
+            requests.add(getRequest(p));
+        }
+        List<File> fetched = fetcher.fetchAll(requests);
+        for (int i = 0; i < fetched.size(); i++) {
+            File hpi = fetched.get(i);
+            Info info = fromManifest(toFetch.get(i), hpi);
+            if (LATEST.equals(toFetch.get(i).version)) {
+                // Keep the exact version in the cache, the lock refers to it
+                File exact = getCacheFile(info.name, info.version);
+                if (!exact.isFile()) {
+                    Files.copy(hpi.toPath(), exact.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            result.add(info);
+        }
+        return result;
+    }
+
+    @CheckForNull
+    private Info fromUpdateCenter(Plugin p) {
+        Map<String, Object> json = updateCenter.get(p.name);
+        if (json == null || !(LATEST.equals(p.version) || p.version.equals(json.get("version")))) {
+            return null;
+        }
+        List<Dependency> dependencies = new ArrayList<>();
+        Object deps = json.get("dependencies");
+        if (deps instanceof List) {
+            for (Object o : (List<?>) deps) {
+                Map<?, ?> d = (Map<?, ?>) o;
+                dependencies.add(new Dependency((String) d.get("name"), (String) d.get("version"), Boolean.TRUE.equals(d.get("optional"))));
+            }
+        }
+        String sha256 = json.get("sha256") instanceof String ? ArtifactFetcher.toHex(Base64.getDecoder().decode((String) json.get("sha256"))) : null;
+        return new Info(p.name, (String) json.get("version"), sha256, dependencies);
+    }
+
+    /**
+     * Reads the plugin metadata from its manifest.
+     * The version is the requested one unless it is {@code latest}, as the manifest version may differ,
+     * e.g. {@code 1.2 (private-...)} for a locally built plugin.
+     */
+    private static Info fromManifest(Plugin requested, File hpi) throws IOException {
+        Manifest manifest;
+        try (JarFile jar = new JarFile(hpi)) {
+            manifest = jar.getManifest();
+        }
+        Attributes attributes = manifest != null ? manifest.getMainAttributes() : new Attributes();
+        String version = attributes.getValue("Plugin-Version");
+        if (version == null) {
+            throw new IOException("Not a Jenkins plugin: " + hpi);
+        }
+        List<Dependency> dependencies = new ArrayList<>();
+        String deps = attributes.getValue("Plugin-Dependencies");
+        if (deps != null) {
+            // e.g. "workflow-api:1.0,credentials:2.1;resolution:=optional"
+            for (String d : deps.split(",")) {
+                d = d.trim();
+                if (d.isEmpty()) {
+                    continue;
+                }
+                boolean optional = d.endsWith(";resolution:=optional");
+                if (optional) {
+                    d = d.substring(0, d.indexOf(';'));
+                }
+                int i = d.indexOf(':');
+                if (i == -1) {
+                    throw new IOException("Invalid dependency '" + d + "' in " + hpi);
+                }
+                dependencies.add(new Dependency(d.substring(0, i), d.substring(i + 1), optional));
+            }
+        }
+        if (!LATEST.equals(requested.version)) {
+            version = requested.version;
+        }
+        String sha256 = ArtifactFetcher.getRecordedDigest(hpi);
+        return new Info(requested.name, version, sha256 != null ? sha256 : ArtifactFetcher.digest(hpi), dependencies);
+    }
+
+    public File getCacheFile(String name, String version) {
+        return new File(cache, String.format("%s/%s-%s.hpi", name, name, version));
+    }
+
+    /**
+     * Download request of a plugin into the cache, verified against its digest if known.
+     */
+    public ArtifactFetcher.Request getRequest(Plugin p) {
+        URI uri = URI.create(mirror.apply(String.format("https://updates.jenkins.io/download/plugins/%s/%s/%s.hpi", p.name, p.version, p.name)));
+        // Released versions never change, only "latest" needs to be checked for updates
+        return new ArtifactFetcher.Request(uri, getCacheFile(p.name, p.version), p.sha256, LATEST.equals(p.version));
+    }
+
+    /**
+     * Parses a {@code plugins.txt} or lock file, blank lines and comments are ignored.
+     */
+    public static List<Plugin> read(File file) throws IOException {
+        List<Plugin> plugins = new ArrayList<>();
+        for (String line : FileUtils.readLines(file, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                plugins.add(Plugin.parse(line));
+            }
+        }
+        return plugins;
+    }
+
+    /**
+     * Reads the lock file, if it was generated from the current content of {@code pluginsTxt}.
+     * @return Locked plugins, {@code null} if the lock file is missing or outdated
+     */
+    @CheckForNull
+    public static List<Plugin> readLock(File lock, File pluginsTxt) throws IOException {
+        if (!lock.isFile()) {
+            return null;
+        }
+        String expected = SOURCE_HEADER + ArtifactFetcher.digest(pluginsTxt);
+        for (String line : FileUtils.readLines(lock, StandardCharsets.UTF_8)) {
+            if (line.startsWith(SOURCE_HEADER)) {
+                return line.equals(expected) ? read(lock) : null;
+            }
+        }
+        return null;
+    }
+
+    public static void writeLock(File lock, File pluginsTxt, List<Plugin> plugins) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Generated by Jenkinsfile Runner from ").append(pluginsTxt.getName()).append(", do not edit\n");
+        sb.append(SOURCE_HEADER).append(ArtifactFetcher.digest(pluginsTxt)).append('\n');
+        for (Plugin p : plugins) {
+            sb.append(p).append('\n');
+        }
+        File tmp = new File(lock.getPath() + ".tmp");
+        Files.write(tmp.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), lock.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Plugin entry of {@code plugins.txt} or of the lock file: {@code name[:version[:sha256]]}.
+     */
+    public static final class Plugin {
+        public final String name;
+        public final String version;
+        @CheckForNull
+        public final String sha256;
+
+        public Plugin(String name, String version, @CheckForNull String sha256) {
+            this.name = name;
+            this.version = version;
+            this.sha256 = sha256;
+        }
+
+        public static Plugin parse(String line) {
+            String[] parts = line.split(":", 3);
+            return new Plugin(parts[0].trim(), parts.length > 1 ? parts[1].trim() : LATEST, parts.length > 2 ? parts[2].trim() : null);
+        }
+
+        @Override
+        public String toString() {
+            return name + ":" + version + (sha256 != null ? ":" + sha256 : "");
+        }
+    }
+
+    private static final class Dependency {
+        final String name;
+        final String version;
+        final boolean optional;
+
+        Dependency(String name, String version, boolean optional) {
+            this.name = name;
+            this.version = version;
+            this.optional = optional;
+        }
+    }
+
+    private static final class Info {
+        final String name;
+        final String version;
+        @CheckForNull
+        final String sha256;
+        final List<Dependency> dependencies;
+
+        Info(String name, String version, @CheckForNull String sha256, List<Dependency> dependencies) {
+            this.name = name;
+            this.version = version;
+            this.sha256 = sha256;
+            this.dependencies = Collections.unmodifiableList(dependencies);
+        }
+    }
+}
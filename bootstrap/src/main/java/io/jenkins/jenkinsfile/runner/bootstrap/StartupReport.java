@@ -0,0 +1,279 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Timeline of the startup phases of Jenkinsfile Runner, written as JSON by {@code --startup-report}.
+ *
+ * Bootstrap classes are visible from all the classloaders, so the setup and payload code record their phases
+ * into the same {@link #get() instance}.
+ * Phases are always recorded, it only costs a few MXBean reads per phase, the report is written on demand.
+ *
+ * Each entry has its start time relative to the JVM start, its wall time, the CPU time of the recording thread
+ * and of the whole process, and the number of classes loaded by the JVM meanwhile.
+ * A long-lived process, e.g. {@code serve} or {@code run-many}, records phases for each run:
+ * only the first {@link #MAX_ENTRIES} entries are kept, the others are counted as dropped.
+ */
+public final class StartupReport {
+
+    /**
+     * Maximum number of entries kept.
+     */
+    static final int MAX_ENTRIES = 10_000;
+
+    private static final StartupReport INSTANCE = new StartupReport(MAX_ENTRIES);
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final long jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+    /** {@link System#nanoTime()} at the JVM start. */
+    private final long origin = System.nanoTime() - ManagementFactory.getRuntimeMXBean().getUptime() * 1_000_000L;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Supplier<?>> counters = new LinkedHashMap<>();
+    private final Set<String> marked = ConcurrentHashMap.newKeySet();
+    private final int maxEntries;
+    /** Number of entries not kept once {@link #maxEntries} was reached. */
+    private long dropped;
+
+    StartupReport(int maxEntries) {
+        this.maxEntries = maxEntries;
+        // Everything from the JVM start to the first phase, e.g. Bootstrap.main
+        Entry jvm = new Entry("jvm", "jvm", Thread.currentThread().getName(), 0, System.nanoTime() - origin);
+        jvm.threadCpu = threadCpuTime();
+        jvm.processCpu = processCpuTime();
+        jvm.classesLoaded = classLoading.getTotalLoadedClassCount();
+        add(jvm);
+    }
+
+    public static StartupReport get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts a phase, which ends when the returned object is closed.
+     */
+    public Phase phase(String name) {
+        return phase(name, "phase");
+    }
+
+    public Phase phase(String name, String category) {
+        return new Phase(name, category);
+    }
+
+    /**
+     * Records a point in time, e.g. a milestone.
+     * CPU times and class counts are the totals at that time.
+     */
+    public void mark(String name, String category) {
+        Entry e = new Entry(name, category, Thread.currentThread().getName(), System.nanoTime() - origin, 0);
+        e.threadCpu = threadCpuTime();
+        e.processCpu = processCpuTime();
+        e.classesLoaded = classLoading.getTotalLoadedClassCount();
+        add(e);
+    }
+
+    /**
+     * Records a point in time only the first time it is reached.
+     */
+    public void markOnce(String name, String category) {
+        if (marked.add(name)) {
+            mark(name, category);
+        }
+    }
+
+    /**
+     * Wraps a stream to record a point in time when the first byte is written to it.
+     */
+    public OutputStream markOnFirstWrite(OutputStream out, String name) {
+        return new FilterOutputStream(out) {
+            private boolean written;
+
+            @Override
+            public void write(int b) throws IOException {
+                onWrite(1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                onWrite(len);
+                out.write(b, off, len);
+            }
+
+            private void onWrite(int len) {
+                if (!written && len > 0) {
+                    written = true;
+                    markOnce(name, "milestone");
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds a value computed when the report is written, e.g. the statistics of a classloader.
+     */
+    public synchronized void addCounter(String name, Supplier<?> value) {
+        counters.put(name, value);
+    }
+
+    private synchronized void add(Entry e) {
+        if (entries.size() < maxEntries) {
+            entries.add(e);
+        } else {
+            dropped++;
+        }
+    }
+
+    private long threadCpuTime() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    private long processCpuTime() {
+        return os instanceof com.sun.management.OperatingSystemMXBean
+                ? ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() : -1;
+    }
+
+    /**
+     * Writes the report as JSON.
+     */
+    public void write(File file) throws IOException {
+        List<Entry> sorted;
+        Map<String, Supplier<?>> values;
+        long droppedEntries;
+        synchronized (this) {
+            sorted = new ArrayList<>(entries);
+            values = new LinkedHashMap<>(counters);
+            droppedEntries = dropped;
+        }
+        sorted.sort(Comparator.comparingLong(e -> e.start));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"jvmStartTime\": ").append(quote(Instant.ofEpochMilli(jvmStartTime).toString())).append(",\n");
+        sb.append("  \"uptimeMs\": ").append(millis(System.nanoTime() - origin)).append(",\n");
+        sb.append("  \"processCpuMs\": ").append(millis(processCpuTime())).append(",\n");
+        sb.append("  \"classesLoaded\": ").append(classLoading.getTotalLoadedClassCount()).append(",\n");
+        sb.append("  \"entries\": [");
+        for (int i = 0; i < sorted.size(); i++) {
+            Entry e = sorted.get(i);
+            sb.append(i == 0 ? "\n" : ",\n").append("    {");
+            sb.append("\"name\": ").append(quote(e.name));
+            sb.append(", \"category\": ").append(quote(e.category));
+            sb.append(", \"thread\": ").append(quote(e.thread));
+            sb.append(", \"startMs\": ").append(millis(e.start));
+            sb.append(", \"wallMs\": ").append(millis(e.duration));
+            sb.append(", \"threadCpuMs\": ").append(millis(e.threadCpu));
+            sb.append(", \"processCpuMs\": ").append(millis(e.processCpu));
+            sb.append(", \"classesLoaded\": ").append(e.classesLoaded);
+            sb.append('}');
+        }
+        sb.append("\n  ],\n");
+        sb.append("  \"droppedEntries\": ").append(droppedEntries).append(",\n");
+        sb.append("  \"counters\": {");
+        int i = 0;
+        for (Map.Entry<String, Supplier<?>> c : values.entrySet()) {
+            Object value;
+            try {
+                value = c.getValue().get();
+            } catch (RuntimeException ex) {
+                value = ex.toString();
+            }
+            sb.append(i++ == 0 ? "\n" : ",\n").append("    ").append(quote(c.getKey())).append(": ")
+                    .append(value instanceof Number ? value.toString() : quote(String.valueOf(value)));
+        }
+        sb.append("\n  }\n}\n");
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "-1" : String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static final class Entry {
+        final String name;
+        final String category;
+        final String thread;
+        final long start;
+        long duration;
+        long threadCpu;
+        long processCpu;
+        long classesLoaded;
+
+        Entry(String name, String category, String thread, long start, long duration) {
+            this.name = name;
+            this.category = category;
+            this.thread = thread;
+            this.start = start;
+            this.duration = duration;
+        }
+    }
+
+    /**
+     * Phase being measured, recorded when closed.
+     * It must be closed by the thread which started it for the thread CPU time to be meaningful.
+     */
+    public final class Phase implements AutoCloseable {
+        private final Entry entry;
+        private final long threadCpu = threadCpuTime();
+        private final long processCpu = processCpuTime();
+        private final long classes = classLoading.getTotalLoadedClassCount();
+
+        private Phase(String name, String category) {
+            entry = new Entry(name, category, Thread.currentThread().getName(), System.nanoTime() - origin, 0);
+        }
+
+        @Override
+        public void close() {
+            entry.duration = System.nanoTime() - origin - entry.start;
+            entry.threadCpu = threadCpu < 0 ? -1 : threadCpuTime() - threadCpu;
+            entry.processCpu = processCpu < 0 ? -1 : processCpuTime() - processCpu;
+            entry.classesLoaded = classLoading.getTotalLoadedClassCount() - classes;
+            add(entry);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of exploded WAR files, keyed by the SHA-256 digest of the WAR.
+ *
+ * A WAR is extracted into a staging directory and then atomically renamed to {@code <root>/<sha256>},
+ * under a {@link FileLock} so that several Jenkinsfile Runner processes on the same host share a single copy.
+ * Once published, a cached directory is never modified again: its files are made read-only,
+ * so that a run cannot alter the WAR seen by the next ones.
+ *
+ * The modification time of a cached directory is the last time a process started using it.
+ * A process holds a shared lock on {@code <root>/<sha256>.lock} as long as it runs, e.g. a long-lived {@code serve} daemon.
+ * When a new WAR is extracted, the directories not used for {@link #MAX_AGE_DAYS_PROPERTY} days are deleted,
+ * unless a process still holds their lock.
+ * The whole cache can be purged by deleting its root directory while no Jenkinsfile Runner is running.
+ */
+public class WarCache {
+
+    /**
+     * Marker written into a staging directory once the extraction has completed.
+     */
+    static final String COMPLETE_MARKER = ".jfr-complete";
+
+    /**
+     * System property to override the number of days after which an unused exploded WAR is deleted.
+     */
+    public static final String MAX_AGE_DAYS_PROPERTY = "jfr.warCache.maxAgeDays";
+
+    private static final Pattern DIGEST = Pattern.compile("[0-9a-f]{64}");
+
+    /**
+     * Serializes access from threads of the current JVM, {@link FileLock}s are held per process.
+     */
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Shared locks of the exploded WARs used by this JVM, by lock file, held until it exits.
+     * Their channels are never closed: closing any channel of a lock file releases all the locks of the process on it,
+     * so the eviction does not open the lock files listed here either. Guarded by itself.
+     */
+    private static final Map<File, FileLock> HELD = new HashMap<>();
+
+    private final File root;
+
+    public WarCache(File root) {
+        this.root = root;
+    }
+
+    /**
+     * Default cache location in the user home directory.
+     */
+    public static WarCache getDefault() {
+        return new WarCache(new File(System.getProperty("user.home"), ".jenkinsfile-runner/exploded-war"));
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the exploded directory for the WAR, extracting it only if it is not cached yet.
+     */
+    public File explode(File war) throws IOException {
+        Files.createDirectories(root.toPath());
+        final String digest = digest(war);
+        final File target = new File(root, digest);
+
+        synchronized (LOCKS.computeIfAbsent(digest, k -> new Object())) {
+            File lockFile = new File(root, digest + ".lock").getAbsoluteFile();
+            FileLock shared = hold(lockFile);
+            if (isComplete(target)) {
+                markUsed(target);
+                return target;
+            }
+            // Upgraded on the same channel, see HELD
+            FileChannel channel = shared.channel();
+            shared.release();
+            try (FileLock ignored = channel.lock()) {
+                // Another process may have populated the cache while we were waiting
+                if (isComplete(target)) {
+                    markUsed(target);
+                    return target;
+                }
+                cleanUp(digest, target);
+                evict(digest);
+
+                Path staging = Files.createTempDirectory(root.toPath(), digest + ".staging");
+                WarExtractor.Result result = new WarExtractor(war).extractTo(staging.toFile());
+                Files.createFile(staging.resolve(COMPLETE_MARKER));
+                makeReadOnly(staging);
+                try {
+                    Files.move(staging, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(staging, target.toPath());
+                }
+                System.out.println("Exploded " + result + " into the WAR cache " + target);
+                return target;
+            } finally {
+                FileLock downgraded = channel.lock(0, Long.MAX_VALUE, true);
+                synchronized (HELD) {
+                    HELD.put(lockFile, downgraded);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the shared lock of an exploded WAR for the lifetime of the JVM, waiting while another process extracts it.
+     */
+    private static FileLock hold(File lockFile) throws IOException {
+        FileChannel channel;
+        synchronized (HELD) {
+            if (HELD.containsKey(lockFile)) {
+                return HELD.get(lockFile);
+            }
+            // Registered before the lock is taken, so that the eviction of this JVM skips it from now on
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            HELD.put(lockFile, null);
+        }
+        FileLock lock = null;
+        try {
+            lock = channel.lock(0, Long.MAX_VALUE, true);
+            return lock;
+        } finally {
+            synchronized (HELD) {
+                if (lock != null) {
+                    HELD.put(lockFile, lock);
+                } else {
+                    HELD.remove(lockFile);
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    private static boolean isComplete(File dir) {
+        return new File(dir, COMPLETE_MARKER).isFile();
+    }
+
+    private static void markUsed(File dir) {
+        // Best effort, e.g. a cache shared read-only between users
+        dir.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Removes leftovers of crashed extractions. Must be called with the lock held.
+     */
+    private void cleanUp(String digest, File target) throws IOException {
+        if (target.exists()) {
+            FileUtils.deleteDirectory(target);
+        }
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(root.toPath(), digest + ".staging*")) {
+            for (Path p : stale) {
+                FileUtils.deleteDirectory(p.toFile());
+            }
+        }
+    }
+
+    /**
+     * Deletes the exploded WARs and the memoized digests not used for {@link #MAX_AGE_DAYS_PROPERTY} days.
+     * An exploded WAR is only deleted if no process holds its lock, i.e. uses it or is extracting it.
+     */
+    private void evict(String current) throws IOException {
+        long maxAge = TimeUnit.DAYS.toMillis(Integer.getInteger(MAX_AGE_DAYS_PROPERTY, 30));
+        FileTime limit = FileTime.fromMillis(System.currentTimeMillis() - maxAge);
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root.toPath(),
+                p -> DIGEST.matcher(p.getFileName().toString()).matches() && Files.isDirectory(p))) {
+            for (Path dir : dirs) {
+                String digest = dir.getFileName().toString();
+                if (digest.equals(current) || Files.getLastModifiedTime(dir).compareTo(limit) >= 0) {
+                    continue;
+                }
+                File lockFile = new File(root, digest + ".lock").getAbsoluteFile();
+                // Under the monitor, so that no thread of this JVM starts using it meanwhile
+                synchronized (HELD) {
+                    if (HELD.containsKey(lockFile)) {
+                        continue;
+                    }
+                    try (FileChannel channel = FileChannel.open(lockFile.toPath(),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                         FileLock lock = channel.tryLock()) {
+                        // Not locked by any process using it
+                        if (lock != null && Files.getLastModifiedTime(dir).compareTo(limit) < 0) {
+                            FileUtils.deleteDirectory(dir.toFile());
+                        }
+                    } catch (OverlappingFileLockException e) {
+                        // Locked by this JVM through another cache instance
+                    } catch (IOException e) {
+                        System.err.println("WARNING: Could not delete the unused exploded WAR " + dir + ": " + e);
+                    }
+                }
+            }
+        }
+        File[] digests = new File(root, "digests").listFiles();
+        if (digests != null) {
+            for (File memo : digests) {
+                if (memo.lastModified() < limit.toMillis()) {
+                    memo.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the files of an extracted WAR read-only.
+     * The directories are left writable, so that the cache can still be deleted with {@code rm -rf}.
+     */
+    private static void makeReadOnly(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                file.toFile().setWritable(false, false);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Computes the SHA-256 digest of the WAR.
+     * The result is memoized by path, size and modification time, so repeated starts do not read the WAR at all.
+     */
+    String digest(File war) throws IOException {
+        final File memo = new File(root, "digests/" + sha256(
+                (war.getAbsolutePath() + '\n' + war.length() + '\n' + war.lastModified()).getBytes(StandardCharsets.UTF_8)));
+        if (memo.isFile()) {
+            String cached = FileUtils.readFileToString(memo, StandardCharsets.US_ASCII).trim();
+            if (cached.length() == 64) {
+                return cached;
+            }
+        }
+
+        final String digest;
+        try (InputStream is = Files.newInputStream(war.toPath())) {
+            MessageDigest md = newDigest();
+            byte[] buffer = new byte[1024 * 1024];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                md.update(buffer, 0, read);
+            }
+            digest = toHex(md.digest());
+        }
+
+        Files.createDirectories(memo.getParentFile().toPath());
+        Path tmp = Files.createTempFile(memo.getParentFile().toPath(), memo.getName(), ".tmp");
+        Files.write(tmp, digest.getBytes(StandardCharsets.US_ASCII));
+        Files.move(tmp, memo.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return digest;
+    }
+
+    private static String sha256(byte[] data) {
+        return toHex(newDigest().digest(data));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by the JVM", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,187 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts a WAR (or any other ZIP archive) into a directory.
+ *
+ * All directories are created up front, then file entries are copied through large per-thread buffers
+ * by a bounded pool of workers, biggest entries first.
+ * It is used both by {@link Util#explodeWar(File)} and by the {@code WarExploder} of the setup module.
+ */
+public class WarExtractor {
+
+    /**
+     * System property to override the number of extraction threads.
+     */
+    public static final String THREADS_PROPERTY = "jfr.war.extractThreads";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private final File archive;
+    private int threads = Integer.getInteger(THREADS_PROPERTY, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    public WarExtractor(File archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Sets the maximum number of threads used for extraction.
+     */
+    public WarExtractor withThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Extracts all entries into the destination directory, which is created if needed.
+     * @return Extraction statistics
+     * @throws IOException Extraction failure, including entries which would escape the destination directory
+     */
+    public Result extractTo(File destDir) throws IOException {
+        final long start = System.nanoTime();
+        final Path dest = destDir.toPath().toAbsolutePath().normalize();
+
+        try (ZipFile zip = new ZipFile(archive)) {
+            final TreeSet<Path> dirs = new TreeSet<>();
+            final List<ZipEntry> files = new ArrayList<>(zip.size());
+            dirs.add(dest);
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry e = entries.nextElement();
+                Path target = resolve(dest, e);
+                if (e.isDirectory()) {
+                    dirs.add(target);
+                } else {
+                    dirs.add(target.getParent());
+                    files.add(e);
+                }
+            }
+            // Parents sort before their children, so each call creates at most one directory
+            for (Path dir : dirs) {
+                Files.createDirectories(dir);
+            }
+            // Largest entries first to keep the workers evenly loaded
+            files.sort(Comparator.comparingLong(ZipEntry::getSize).reversed());
+
+            final AtomicInteger count = new AtomicInteger();
+            final AtomicLong bytes = new AtomicLong();
+            final int poolSize = Math.max(1, Math.min(threads, files.size()));
+            ExecutorService pool = Executors.newFixedThreadPool(poolSize, r -> {
+                Thread t = new Thread(r, "WAR extractor for " + archive.getName());
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                List<Future<?>> futures = new ArrayList<>(files.size());
+                for (ZipEntry e : files) {
+                    futures.add(pool.submit(() -> {
+                        bytes.addAndGet(copy(zip, e, resolve(dest, e)));
+                        count.incrementAndGet();
+                        return null;
+                    }));
+                }
+                for (Future<?> f : futures) {
+                    f.get();
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException
+                        ? (IOException) cause
+                        : new IOException("Failed to extract " + archive, cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Extraction of " + archive + " was interrupted", e);
+            } finally {
+                pool.shutdownNow();
+            }
+            return new Result(destDir, count.get(), dirs.size(), bytes.get(), (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    private static Path resolve(Path dest, ZipEntry entry) throws IOException {
+        Path target = dest.resolve(entry.getName()).normalize();
+        if (!target.startsWith(dest)) {
+            throw new IOException("Entry is outside of the target directory: " + entry.getName());
+        }
+        return target;
+    }
+
+    private static long copy(ZipFile zip, ZipEntry entry, Path target) throws IOException {
+        final byte[] buffer = BUFFERS.get();
+        long total = 0;
+        try (InputStream is = zip.getInputStream(entry); OutputStream os = Files.newOutputStream(target)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                os.write(buffer, 0, read);
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Statistics of a completed extraction.
+     */
+    public static final class Result {
+        private final File destination;
+        private final int files;
+        private final int directories;
+        private final long bytes;
+        private final long millis;
+
+        Result(File destination, int files, int directories, long bytes, long millis) {
+            this.destination = destination;
+            this.files = files;
+            this.directories = directories;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        public File getDestination() {
+            return destination;
+        }
+
+        public int getFiles() {
+            return files;
+        }
+
+        public int getDirectories() {
+            return directories;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files in %d directories (%.1f MB) in %d ms",
+                    files, directories, bytes / (1024.0 * 1024.0), millis);
+        }
+    }
+}
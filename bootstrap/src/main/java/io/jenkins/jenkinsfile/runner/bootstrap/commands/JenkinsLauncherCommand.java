@@ -3,29 +3,33 @@ package io.jenkins.jenkinsfile.runner.bootstrap.commands;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.jenkins.jenkinsfile.runner.bootstrap.ArtifactFetcher;
 import io.jenkins.jenkinsfile.runner.bootstrap.ClassLoaderBuilder;
 import io.jenkins.jenkinsfile.runner.bootstrap.IApp;
+import io.jenkins.jenkinsfile.runner.bootstrap.PackageIndexClassLoader;
+import io.jenkins.jenkinsfile.runner.bootstrap.PluginResolver;
 import io.jenkins.jenkinsfile.runner.bootstrap.SideClassLoader;
+import io.jenkins.jenkinsfile.runner.bootstrap.StartupReport;
 import io.jenkins.jenkinsfile.runner.bootstrap.Util;
+import io.jenkins.jenkinsfile.runner.bootstrap.WarCache;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import picocli.CommandLine;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.lang.reflect.InvocationTargetException;
-import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -36,16 +40,12 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  */
 public abstract class JenkinsLauncherCommand implements Callable<Integer> {
 
+    /**
+     * @deprecated Cached artifacts are now revalidated with conditional requests, see {@link ArtifactFetcher}.
+     */
+    @Deprecated
     public static final long CACHE_EXPIRE = System.currentTimeMillis() - 24 * 3600 * 1000;
 
-    private static final Collection<Integer> REDIRECT_STATUSES = Arrays.asList(
-        301, // Moved permanently
-        302, // Found (HTTP 1.1) / Moved temporarily (HTTP 1.0)
-        303, // See other
-        307, // Temporarily Redirect
-        308  // Permanent Redirect
-    );
-
     @CommandLine.Mixin
     public JenkinsLauncherOptions launcherOptions;
 
@@ -63,10 +63,25 @@ public abstract class JenkinsLauncherCommand implements Callable<Integer> {
     @SuppressFBWarnings("DM_EXIT")
     public Integer call() throws IllegalStateException {
         try {
-            postConstruct();
+            try (StartupReport.Phase p = StartupReport.get().phase("postConstruct")) {
+                postConstruct();
+            }
             return runJenkinsfileRunnerApp();
         } catch (Throwable ex) {
             throw new RuntimeException("Unhandled exception", ex);
+        } finally {
+            writeStartupReport();
+        }
+    }
+
+    private void writeStartupReport() {
+        File report = getLauncherOptions().startupReport;
+        if (report != null) {
+            try {
+                StartupReport.get().write(report);
+            } catch (IOException e) {
+                System.err.printf("WARNING: Could not write the startup report to %s: %s%n", report, e);
+            }
         }
     }
 
@@ -92,13 +107,25 @@ public abstract class JenkinsLauncherCommand implements Callable<Integer> {
         }
         if (settings.warDir == null) {
             // TODO: avoid modifying the option
-            settings.warDir = getJenkinsWar(settings.version);
+            // Single client, so that the WAR is downloaded through the connection used for the latest version
+            try (ArtifactFetcher fetcher = new ArtifactFetcher(1);
+                 StartupReport.Phase p = StartupReport.get().phase("postConstruct.fetchWar")) {
+                settings.warDir = getJenkinsWar(fetcher, settings.version);
+            }
         }
         // Explode war if necessary
         String warPath = settings.warDir.getAbsolutePath();
         if(FilenameUtils.getExtension(warPath).equals("war") && new File(warPath).isFile()) {
-            System.out.println("Exploding " + warPath +  ", this might take some time.");
-            settings.warDir = Util.explodeWar(warPath);
+            try (StartupReport.Phase p = StartupReport.get().phase("postConstruct.explodeWar")) {
+                if (settings.noWarExtraction) {
+                    System.out.println("Loading Jenkins directly from " + warPath + " without exploding it");
+                } else if (settings.noWarCache) {
+                    System.out.println("Exploding " + warPath +  ", this might take some time.");
+                    settings.warDir = Util.explodeWar(warPath);
+                } else {
+                    settings.warDir = new WarCache(new File(cache, "exploded-war")).explode(new File(warPath));
+                }
+            }
         }
 
         if (settings.pluginsDir == null) {
@@ -113,51 +140,48 @@ public abstract class JenkinsLauncherCommand implements Callable<Integer> {
             File plugins_txt = settings.pluginsDir;
             // This is a plugin list file
             settings.pluginsDir = Files.createTempDirectory("plugins").toFile();
-            for (String line : FileUtils.readLines(plugins_txt, UTF_8)) {
-                String shortname = line;
-                String version = "latest";
-
-                int i = line.indexOf(':');
-                if (i != -1) {
-                    shortname = line.substring(0,i);
-                    version = line.substring(i+1);
+            File lock = settings.pluginsLock != null ? settings.pluginsLock
+                    : new File(plugins_txt.getAbsoluteFile().getParentFile(), PluginResolver.LOCK_FILE_NAME);
+            try (ArtifactFetcher fetcher = new ArtifactFetcher();
+                 StartupReport.Phase p = StartupReport.get().phase("postConstruct.installPlugins")) {
+                PluginResolver resolver = new PluginResolver(new File(cache, "plugins"), fetcher, settings::getMirrorURL);
+                List<PluginResolver.Plugin> plugins = PluginResolver.readLock(lock, plugins_txt);
+                if (plugins == null) {
+                    if (settings.updateCenterJson != null) {
+                        resolver.withUpdateCenter(settings.updateCenterJson);
+                    }
+                    plugins = resolver.resolve(PluginResolver.read(plugins_txt));
+                    try {
+                        PluginResolver.writeLock(lock, plugins_txt, plugins);
+                        System.out.printf("Resolved %d plugins, written to %s%n", plugins.size(), lock);
+                    } catch (IOException e) {
+                        System.err.printf("WARNING: Could not write the plugins lock file %s: %s%n", lock, e);
+                    }
                 }
-
-                installPlugin(settings.pluginsDir, shortname, version);
+                List<ArtifactFetcher.Request> requests = new ArrayList<>();
+                for (PluginResolver.Plugin plugin : plugins) {
+                    if (!resolver.getCacheFile(plugin.name, plugin.version).exists()) {
+                        System.out.printf("Downloading jenkins plugin %s (%s)...%n", plugin.name, plugin.version);
+                    }
+                    requests.add(resolver.getRequest(plugin));
+                }
+                installPlugins(settings.pluginsDir, fetcher.fetchAll(requests));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while installing plugins");
             }
         }
     }
 
-    private void copyURLToFile(URL url, File file) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setInstanceFollowRedirects(true);
-        int status = connection.getResponseCode();
-
-        // Connections won't automatically redirect across different protocols, i.e. going
-        // from http to https. We have to handle that ourselves.
-        if (REDIRECT_STATUSES.contains(status)) {
-            String newUrl = connection.getHeaderField("Location");
-            System.out.println("Following redirect...");
-            connection = (HttpURLConnection) new URL(newUrl).openConnection();
-        }
-
-        try (InputStream stream = connection.getInputStream()) {
-            FileUtils.copyInputStreamToFile(stream, file);
-        }
-    }
-
-    private File getJenkinsWar(final @CheckForNull String requiredVersion) throws IOException {
+    private File getJenkinsWar(ArtifactFetcher fetcher, final @CheckForNull String requiredVersion) throws IOException {
         final String versionToUse;
         if (requiredVersion == null) {
             System.out.println("No explicit version has been selected, using latest LTS");
 
-            File latestCore = new File(cache, "war/latest.txt");
-            latestCore.getParentFile().mkdirs();
-            // Check once a day
-            if (!latestCore.exists() || latestCore.lastModified() < CACHE_EXPIRE) {
-                copyURLToFile(URI.create("http://updates.jenkins.io/stable/latestCore.txt").toURL(), latestCore);
-            }
-            versionToUse = FileUtils.readFileToString(latestCore, StandardCharsets.US_ASCII);
+            // Revalidated with a conditional request, nothing is downloaded if it did not change
+            File latestCore = fetch(fetcher, new ArtifactFetcher.Request(URI.create("http://updates.jenkins.io/stable/latestCore.txt"),
+                    new File(cache, "war/latest.txt"), null, true));
+            versionToUse = FileUtils.readFileToString(latestCore, StandardCharsets.US_ASCII).trim();
         } else {
             versionToUse = requiredVersion;
         }
@@ -166,36 +190,62 @@ public abstract class JenkinsLauncherCommand implements Callable<Integer> {
 
         File war = new File(cache, String.format("war/%s/jenkins-war-%s.war", versionToUse, versionToUse));
         if (!war.exists()) {
-            war.getParentFile().mkdirs();
-            final URL url = new URL(getLauncherOptions().getMirrorURL(String.format("http://updates.jenkins.io/download/war/%s/jenkins.war", versionToUse)));
+            final URI uri = URI.create(getLauncherOptions().getMirrorURL(String.format("http://updates.jenkins.io/download/war/%s/jenkins.war", versionToUse)));
             System.out.printf("Downloading jenkins %s...%n", versionToUse);
-            copyURLToFile(url, war);
+            fetch(fetcher, new ArtifactFetcher.Request(uri, war, null, false));
         }
 
         return war;
     }
 
-    private void installPlugin(File pluginsDir, String shortname, String version) throws IOException {
-        final File install = new File(pluginsDir, shortname + ".jpi");
-        File plugin = new File(cache, String.format("plugins/%s/%s-%s.hpi", shortname, shortname, version));
-        if (!plugin.exists() || ("latest".equals(version) && plugin.lastModified() < CACHE_EXPIRE) ) {
-            plugin.getParentFile().mkdirs();
-            final URL url = new URL(getLauncherOptions().getMirrorURL(String.format("https://updates.jenkins.io/download/plugins/%s/%s/%s.hpi", shortname, version, shortname)));
-            System.out.printf("Downloading jenkins plugin %s (%s)...%n", shortname, version);
-            FileUtils.copyURLToFile(url, plugin);
+    private static File fetch(ArtifactFetcher fetcher, ArtifactFetcher.Request request) throws IOException {
+        try {
+            return fetcher.fetch(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading " + request);
         }
+    }
 
-        Files.createSymbolicLink(install.toPath(), plugin.toPath());
+    /**
+     * Links the downloaded plugins into the plugins directory.
+     */
+    private static void installPlugins(File pluginsDir, List<File> plugins) throws IOException {
+        for (File plugin : plugins) {
+            String shortname = plugin.getParentFile().getName();
+            final File install = new File(pluginsDir, shortname + ".jpi");
+            Files.createSymbolicLink(install.toPath(), plugin.toPath());
+        }
     }
 
     public ClassLoader createJenkinsWarClassLoader() throws PrivilegedActionException {
-        return AccessController.doPrivileged((PrivilegedExceptionAction<ClassLoader>) () -> new ClassLoaderBuilder(new SideClassLoader(getPlatformClassloader()))
-                .collectJars(new File(getLauncherOptions().warDir, "WEB-INF/lib"))
-                // In this mode we also take Jetty from the Jenkins core
-                .collectJars(new File(getLauncherOptions().warDir, "executable/winstone.jar"))
-                // servlet API needs to be visible to jenkins.war
-                .collectJars(new File(getAppRepo(), "javax/servlet"))
-                .make());
+        return AccessController.doPrivileged((PrivilegedExceptionAction<ClassLoader>) () -> {
+            final JenkinsLauncherOptions settings = getLauncherOptions();
+            ClassLoaderBuilder builder = new ClassLoaderBuilder(new SideClassLoader(getPlatformClassloader()));
+            if (settings.warDir.isFile()) {
+                // --noWarExtraction: the jars are loaded straight from the WAR file
+                try {
+                    builder.collectNestedJars(settings.warDir, "WEB-INF/lib/", "executable/winstone.jar");
+                } catch (IOException e) {
+                    // E.g. a ZIP64 WAR, the exploded WAR is used instead, by Jetty too
+                    System.err.printf("WARNING: Cannot load Jenkins from %s without exploding it: %s%n", settings.warDir, e);
+                    settings.warDir = settings.noWarCache
+                            ? Util.explodeWar(settings.warDir)
+                            : new WarCache(new File(cache, "exploded-war")).explode(settings.warDir);
+                }
+            }
+            final File warDir = settings.warDir;
+            if (!warDir.isFile()) {
+                builder.collectJars(new File(warDir, "WEB-INF/lib"))
+                        // In this mode we also take Jetty from the Jenkins core
+                        .collectJars(new File(warDir, "executable/winstone.jar"));
+            }
+            return builder
+                    // servlet API needs to be visible to jenkins.war
+                    .collectJars(new File(getAppRepo(), "javax/servlet"))
+                    .withIndexCache(new File(cache, "classloader-index"))
+                    .make();
+        });
     }
 
     public ClassLoader createSetupClassLoader(ClassLoader jenkins) throws IOException {
@@ -205,6 +255,7 @@ public abstract class JenkinsLauncherCommand implements Callable<Integer> {
                 // Payload should be skipped, otherwise it will be loaded with a wrong classloader when no bundled plugin jars
                 // NOTE: Not relevant for slim JARs
                 .excludeJars(new File(getAppRepo(), "io/jenkins/jenkinsfile-runner/payload"))
+                .withIndexCache(new File(cache, "classloader-index"))
                 .make();
     }
 
@@ -216,8 +267,16 @@ public abstract class JenkinsLauncherCommand implements Callable<Integer> {
         }
 
         // Slim packaging (no bundled WAR or plugins)
-        ClassLoader jenkins = createJenkinsWarClassLoader();
-        ClassLoader setup = createSetupClassLoader(jenkins);
+        ClassLoader jenkins;
+        try (StartupReport.Phase p = StartupReport.get().phase("classloader.jenkins")) {
+            jenkins = createJenkinsWarClassLoader();
+        }
+        ClassLoader setup;
+        try (StartupReport.Phase p = StartupReport.get().phase("classloader.setup")) {
+            setup = createSetupClassLoader(jenkins);
+        }
+        addCounters("classloader.jenkins", jenkins);
+        addCounters("classloader.setup", setup);
 
         Thread.currentThread().setContextClassLoader(setup);    // or should this be 'jenkins'?
 
@@ -235,6 +294,14 @@ public abstract class JenkinsLauncherCommand implements Callable<Integer> {
         }
     }
 
+    private static void addCounters(String name, ClassLoader cl) {
+        if (cl instanceof PackageIndexClassLoader) {
+            PackageIndexClassLoader indexed = (PackageIndexClassLoader) cl;
+            StartupReport.get().addCounter(name + ".hits", indexed::getHitCount);
+            StartupReport.get().addCounter(name + ".misses", indexed::getMissCount);
+        }
+    }
+
     /**
      * In JDK 11, platform classes are not accessible by default but through the platform classloader.
      */
@@ -4,6 +4,7 @@ import edu.umd.cs.findbugs.annotations.CheckForNull;
 import picocli.CommandLine;
 
 import java.io.File;
+import java.util.Locale;
 
 /**
  * Arguments needed to launch a Jenkins instance.
@@ -21,6 +22,16 @@ public class JenkinsLauncherOptions {
     @CheckForNull
     public File warDir;
 
+    @CommandLine.Option(names = "--noWarCache",
+            description = "Explode the WAR file passed by --jenkins-war into a new temporary directory " +
+                    "instead of reusing the shared exploded WAR cache in ~/.jenkinsfile-runner")
+    public boolean noWarCache;
+
+    @CommandLine.Option(names = "--noWarExtraction",
+            description = "Experimental: load Jenkins core classes and web resources directly from the WAR file passed by --jenkins-war, " +
+                    "without exploding it to the disk")
+    public boolean noWarExtraction;
+
     /**
      * Where to load plugins from?
      */
@@ -28,6 +39,17 @@ public class JenkinsLauncherOptions {
             description = "Plugins required to run pipeline. Either a plugins.txt file or a /plugins installation directory. Defaults to plugins.txt")
     public File pluginsDir;
 
+    @CheckForNull
+    @CommandLine.Option(names = "--pluginsLock",
+            description = "Lock file with the exact versions and checksums of the plugins resolved from the plugins.txt file, " +
+                    "created if missing or outdated. Defaults to plugins.lock next to the plugins.txt file")
+    public File pluginsLock;
+
+    @CheckForNull
+    @CommandLine.Option(names = "--updateCenterJson",
+            description = "Local update center JSON file used to resolve the plugin dependencies when generating the plugins lock file")
+    public File updateCenterJson;
+
     @CommandLine.Option(names = { "-jv", "--jenkins-version"},
             description = "Jenkins version to use if Jenkins WAR is not specified by --jenkins-war. Defaults to the latest LTS")
     @CheckForNull
@@ -80,6 +102,35 @@ public class JenkinsLauncherOptions {
             description = "Keep Jenkinsfile Runner running upon job completion without various sleep() hacks in the Pipeline")
     public boolean waitOnExit;
 
+    @CheckForNull
+    @CommandLine.Option(names = "--startup-report",
+            description = "Write a JSON timeline of the startup phases with their wall time, CPU time and loaded classes to this file")
+    public File startupReport;
+
+    @CommandLine.Option(names = "--tmpfs",
+            description = "RAM-backed directory for the temporary Jenkins home and workspaces: 'auto' for /dev/shm " +
+                    "if it is a tmpfs, 'none' (default) to always use java.io.tmpdir, or a directory")
+    public String tmpfs = "none";
+
+    /**
+     * Size in bytes.
+     */
+    @CheckForNull
+    @CommandLine.Option(names = "--tmpfsBudget", converter = SizeConverter.class,
+            description = "Size the temporary directories may take on the RAM-backed directory, e.g. 512m or 2g. " +
+                    "Defaults to half of its free space, the directories which would not fit are created on disk")
+    public Long tmpfsBudget;
+
+    @CommandLine.Option(names = "--deferCleanup",
+            description = "Move the temporary directories to a trash directory on exit and delete them in the background, " +
+                    "so that the exit code is returned right away")
+    public boolean deferCleanup;
+
+    @CommandLine.Option(names = "--noPersist",
+            description = "Keep the configuration of the temporary Jenkins home in memory instead of writing it to XML files. " +
+                    "Ignored with --runHome")
+    public boolean noPersist;
+
     @CheckForNull
     @CommandLine.Option(names = "--agentPort",
             description = "Port for connecting inbound Jenkins agents (over JNLP or WebSockets). Disabled by default")
@@ -92,4 +143,34 @@ public class JenkinsLauncherOptions {
 
         return url.replace("https://updates.jenkins.io/download", this.mirror);
     }
+
+    /**
+     * Parses a size such as {@code 512m} or {@code 2g} into bytes.
+     */
+    public static class SizeConverter implements CommandLine.ITypeConverter<Long> {
+        @Override
+        public Long convert(String value) {
+            String s = value.trim().toLowerCase(Locale.ROOT);
+            long unit = 1;
+            if (s.endsWith("k")) {
+                unit = 1024;
+            } else if (s.endsWith("m")) {
+                unit = 1024 * 1024;
+            } else if (s.endsWith("g")) {
+                unit = 1024 * 1024 * 1024;
+            }
+            if (unit != 1) {
+                s = s.substring(0, s.length() - 1);
+            }
+            try {
+                long size = Math.multiplyExact(Long.parseLong(s), unit);
+                if (size >= 0) {
+                    return size;
+                }
+            } catch (NumberFormatException | ArithmeticException e) {
+                // Reported below
+            }
+            throw new CommandLine.TypeConversionException("'" + value + "' is not a size such as 512m or 2g");
+        }
+    }
 }
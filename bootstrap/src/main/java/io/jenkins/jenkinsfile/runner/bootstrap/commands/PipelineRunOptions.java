@@ -2,6 +2,8 @@ package io.jenkins.jenkinsfile.runner.bootstrap.commands;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import picocli.CommandLine;
 
@@ -76,9 +78,53 @@ public class PipelineRunOptions extends PipelineOptions {
                     "Plugins that handle build logs will process them as usual")
     public boolean noBuildLogs = false;
 
-    @CommandLine.Option(names = { "-wlit", "--write-log-init-timeout" },
-            description = "Initializing build log forwarding to stdout may fail if the build log has not been created yet. " +
-                    " This option defines the maximum time (in seconds) to wait for build log creation." +
-                    " Defaults to 1 second.")
+    @CheckForNull
+    @CommandLine.Option(names = "--log-file",
+            description = "Also write the build log to this file")
+    public File logFile;
+
+    @CommandLine.Option(names = "--log-format",
+            description = "Format of the build log: 'text', or 'ndjson' for one JSON record per line " +
+                    "with the timestamp, flow node, stage, parallel branch and step of the line")
+    public String logFormat = "text";
+
+    @CommandLine.Option(names = "--log-storage",
+            description = "Storage of the build log: 'file' (default) in JENKINS_HOME, or 'memory' for a bounded " +
+                    "off-heap buffer streamed to stdout, spilled to disk only when the web UI is served")
+    public String logStorage = "file";
+
+    @CommandLine.Option(names = "--durability",
+            description = "Durability of the run: 'performance' (default) to persist the flow graph when the run completes, " +
+                    "or 'ephemeral' to keep it in memory only")
+    public String durability = "performance";
+
+    @CommandLine.Option(names = "--timing-report",
+            description = "Write the wall times of the stages, parallel branches and steps, and the critical path of the run " +
+                    "to this file, as JUnit XML if its name ends with .xml, as JSON otherwise. Can be repeated")
+    public List<File> timingReports = new ArrayList<>();
+
+    @CommandLine.Option(names = "--checkout-strategy",
+            description = "How the directory of the Jenkinsfile is checked out into the workspace: 'auto' (default) " +
+                    "for a reflink clone if the filesystem supports it and a parallel copy otherwise, 'reflink', " +
+                    "'hardlink' for hard links to the sources, which the Pipeline must not modify in place, or 'copy'")
+    public String checkoutStrategy = "auto";
+
+    @CommandLine.Option(names = "--workspace-mode",
+            description = "Workspace of the run on the built-in node: 'copy' (default) for a workspace the directory of " +
+                    "the Jenkinsfile is checked out into, or 'in-place' to run in the directory of the Jenkinsfile, " +
+                    "which must be writable")
+    public String workspaceMode = "copy";
+
+    @CommandLine.Option(names = "--no-workspace-prefetch",
+            description = "Do not check the directory of the Jenkinsfile out while Jenkins starts, " +
+                    "but when the Pipeline checks it out")
+    public boolean noWorkspacePrefetch;
+
+    /**
+     * @deprecated The log is forwarded as soon as it is created, there is nothing to wait for anymore.
+     */
+    @Deprecated
+    @CommandLine.Option(names = { "-wlit", "--write-log-init-timeout" }, hidden = true,
+            description = "Ignored, the build log is forwarded to stdout as soon as it is created")
     public int writeLogInitTimeoutSeconds = 1;
 }
@@ -1,6 +1,14 @@
 package io.jenkins.jenkinsfile.runner.bootstrap.commands;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import io.jenkins.jenkinsfile.runner.bootstrap.DaemonProtocol;
+import io.jenkins.jenkinsfile.runner.bootstrap.util.RamStore;
+import io.jenkins.jenkinsfile.runner.bootstrap.workspace.WorkspaceCopy;
+import io.jenkins.jenkinsfile.runner.bootstrap.workspace.WorkspacePrefetch;
+
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Map;
 import picocli.CommandLine;
@@ -15,6 +23,15 @@ public class RunJenkinsfileCommand extends JenkinsfileCommand {
     @CommandLine.Mixin
     public PipelineRunOptions pipelineRunOptions;
 
+    @CommandLine.Option(names = "--daemon",
+            description = "Send the run to the daemon started by the 'serve' command if one is listening. " +
+                    "Implied when $" + DaemonProtocol.SOCKET_ENV + " is set")
+    public boolean daemon;
+
+    @CommandLine.Option(names = "--no-daemon",
+            description = "Run in this process even if $" + DaemonProtocol.SOCKET_ENV + " is set")
+    public boolean noDaemon;
+
     private static final String WORKSPACES_DIR_SYSTEM_PROPERTY = "jenkins.model.Jenkins.workspacesDir";
 
     @Override
@@ -40,6 +57,79 @@ public class RunJenkinsfileCommand extends JenkinsfileCommand {
             }
         }
 
+        preparePipelineRunOptions();
+        prefetchWorkspace();
+
+        super.postConstruct();
+    }
+
+    /**
+     * Starts checking the directory of the Jenkinsfile out for the default SCM, while Jenkins starts.
+     */
+    private void prefetchWorkspace() {
+        PipelineRunOptions options = pipelineRunOptions;
+        if (options.noWorkspacePrefetch || options.scm != null || options.jenkinsfile == null
+                || !"copy".equals(options.workspaceMode) || !WorkspaceCopy.STRATEGIES.contains(options.checkoutStrategy)) {
+            return;
+        }
+        File sourceDir = options.jenkinsfile.getAbsoluteFile().getParentFile();
+        String workspacesDir = System.getProperty(WORKSPACES_DIR_SYSTEM_PROPERTY);
+        // Without variables, it is the workspace of every job
+        File workspace = workspacesDir != null && !workspacesDir.contains("${") ? new File(workspacesDir) : null;
+        try {
+            File stagingBase = null;
+            if (workspace == null) {
+                stagingBase = getStagingBase(sourceDir);
+                if (stagingBase == null) {
+                    // The staging directory could not be moved into the workspace
+                    return;
+                }
+            }
+            WorkspacePrefetch.start(sourceDir, workspace, stagingBase, options.checkoutStrategy);
+        } catch (IOException e) {
+            System.err.printf("WARNING: could not prefetch the workspace: %s%n", e);
+        }
+    }
+
+    /**
+     * Where the launcher is expected to allocate the workspaces, so that the staging directory can be moved there.
+     * Follows the choice of the launcher: the workspaces go to the RAM-backed filesystem if they fit in its budget
+     * next to the temporary Jenkins home, otherwise to the Jenkins home.
+     * @param sourceDir Directory copied into the workspace, to estimate its size like the launcher does
+     * @return {@code null} if the workspaces are expected on another filesystem than the temporary directories
+     */
+    @CheckForNull
+    private File getStagingBase(File sourceDir) throws IOException {
+        File disk = new File(System.getProperty("java.io.tmpdir"), "jenkinsfileRunner.tmp");
+        if (!"none".equals(launcherOptions.tmpfs)) {
+            File ram = new File("auto".equals(launcherOptions.tmpfs) ? RamStore.DEFAULT_DIR : launcherOptions.tmpfs);
+            if (RamStore.isRamBacked(ram)) {
+                long budget = RamStore.budget(ram, launcherOptions.tmpfsBudget == null ? -1 : launcherOptions.tmpfsBudget);
+                // The temporary Jenkins home is allocated first
+                long home = launcherOptions.jenkinsHome == null && RamStore.DEFAULT_EXPECTED_SIZE <= budget
+                        && ram.getUsableSpace() >= RamStore.DEFAULT_EXPECTED_SIZE ? RamStore.DEFAULT_EXPECTED_SIZE : 0;
+                long size = RamStore.sizeOf(sourceDir, budget);
+                if (home + size <= budget && ram.getUsableSpace() >= size) {
+                    return new File(ram, disk.getName());
+                }
+            }
+        }
+        if (launcherOptions.jenkinsHome != null) {
+            // The workspaces are in the given Jenkins home, which must stay empty until the launcher checks it
+            Files.createDirectories(disk.toPath());
+            File home = launcherOptions.jenkinsHome.getAbsoluteFile();
+            if (!home.isDirectory() || !Files.getFileStore(home.toPath()).equals(Files.getFileStore(disk.toPath()))) {
+                return null;
+            }
+        }
+        return disk;
+    }
+
+    /**
+     * Fills in the defaults of the Pipeline options once parsed.
+     * Also used for the runs sent to the {@link ServeCommand daemon}.
+     */
+    public void preparePipelineRunOptions() {
         if (pipelineRunOptions.workflowParameters == null){
             pipelineRunOptions.workflowParameters = new HashMap<>();
         }
@@ -59,12 +149,6 @@ public class RunJenkinsfileCommand extends JenkinsfileCommand {
         if (pipelineRunOptions.jobName.isEmpty()) {
             pipelineRunOptions.jobName = PipelineRunOptions.DEFAULT_JOBNAME;
         }
-
-        if (pipelineRunOptions.keepUndefinedParameters) {
-            System.setProperty("hudson.model.ParametersAction.keepUndefinedParameters", "true");
-        }
-
-        super.postConstruct();
     }
 
 }
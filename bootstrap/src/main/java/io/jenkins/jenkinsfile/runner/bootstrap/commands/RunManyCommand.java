@@ -0,0 +1,222 @@
+package io.jenkins.jenkinsfile.runner.bootstrap.commands;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs many Jenkinsfiles concurrently in a single Jenkins instance, e.g. all the Pipelines of a monorepo,
+ * so that the Jenkins startup is paid only once.
+ * Each Jenkinsfile gets its own job, the exit code is the worst result of all the runs.
+ */
+@CommandLine.Command(name = "run-many", mixinStandardHelpOptions = true,
+        description = "Runs many Jenkinsfiles concurrently in a single Jenkins instance")
+public class RunManyCommand extends JenkinsfileCommand {
+
+    /**
+     * Name of the Jenkinsfiles found when scanning directories.
+     */
+    public static final String JENKINSFILE = "Jenkinsfile";
+
+    @CommandLine.Parameters(paramLabel = "PATH",
+            description = "Jenkinsfiles, or directories scanned for files named Jenkinsfile")
+    public List<File> paths = new ArrayList<>();
+
+    @CommandLine.Option(names = "--manifest",
+            description = "File listing the Jenkinsfiles to run, one [job-name=]path per line, relative to the manifest")
+    @CheckForNull
+    public File manifest;
+
+    @CommandLine.Option(names = "--executors",
+            description = "Number of executors of the built-in node, i.e. of node {} blocks running at the same time. " +
+                    "Defaults to the number of processors")
+    public int executors = Runtime.getRuntime().availableProcessors();
+
+    @CommandLine.Option(names = "--log-dir",
+            description = "Directory to write the log of each run into, as <job-name>.log. " +
+                    "By default the logs are written to stdout with each line prefixed by the job name")
+    @CheckForNull
+    public File logDir;
+
+    /**
+     * Options applied to all the runs, except the Jenkinsfile and the job name.
+     */
+    @CommandLine.Mixin
+    public PipelineRunOptions pipelineRunOptions;
+
+    /**
+     * Options of each run, computed by {@link #postConstruct()}.
+     */
+    public List<PipelineRunOptions> runs = Collections.emptyList();
+
+    @Override
+    public String getAppClassName() {
+        return "io.jenkins.jenkinsfile.runner.App";
+    }
+
+    @Override
+    @SuppressFBWarnings("DM_EXIT")
+    public void postConstruct() throws IOException {
+        runs = collectRuns();
+        if (runs.isEmpty()) {
+            System.err.println("no Jenkinsfile to run.");
+            System.exit(-1);
+        }
+        if (executors < 1) {
+            System.err.println("--executors must be at least 1.");
+            System.exit(-1);
+        }
+        PipelineRunOptions template = pipelineRunOptions;
+        if (template.jenkinsfile != null || !template.jobName.equals(PipelineRunOptions.DEFAULT_JOBNAME)
+                || template.runWorkspace != null || template.logFile != null || !template.timingReports.isEmpty()) {
+            System.err.println("-f, -n, --runWorkspace, --log-file and --timing-report apply to a single run, use the paths, --manifest and --log-dir instead.");
+            System.exit(-1);
+        }
+        super.postConstruct();
+    }
+
+    /**
+     * Lists the runs from the manifest and the paths, each with a unique job name.
+     */
+    public List<PipelineRunOptions> collectRuns() throws IOException {
+        Map<File, String> jenkinsfiles = new LinkedHashMap<>();
+        if (manifest != null) {
+            File base = manifest.getAbsoluteFile().getParentFile();
+            for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int eq = line.indexOf('=');
+                String name = eq == -1 ? null : line.substring(0, eq).trim();
+                File file = new File(eq == -1 ? line : line.substring(eq + 1).trim());
+                file = file.isAbsolute() ? file : new File(base, file.getPath());
+                if (file.isDirectory()) {
+                    file = new File(file, JENKINSFILE);
+                }
+                if (!file.isFile()) {
+                    throw new IOException("No Jenkinsfile at " + file + ", listed in " + manifest);
+                }
+                jenkinsfiles.put(file, name != null ? name : getDefaultName(file, null));
+            }
+        }
+        for (File path : paths) {
+            if (path.isDirectory()) {
+                for (File file : scan(path)) {
+                    jenkinsfiles.putIfAbsent(file, getDefaultName(file, path));
+                }
+            } else if (path.isFile()) {
+                jenkinsfiles.putIfAbsent(path, getDefaultName(path, null));
+            } else {
+                throw new IOException("No such Jenkinsfile or directory: " + path);
+            }
+        }
+
+        // A job cannot have the name of a folder created for another job
+        Set<String> names = new HashSet<>();
+        for (String name : jenkinsfiles.values()) {
+            for (int slash = name.indexOf('/'); slash != -1; slash = name.indexOf('/', slash + 1)) {
+                names.add(name.substring(0, slash));
+            }
+        }
+        List<PipelineRunOptions> result = new ArrayList<>(jenkinsfiles.size());
+        for (Map.Entry<File, String> e : jenkinsfiles.entrySet()) {
+            String name = e.getValue();
+            for (int i = 2; !names.add(name); i++) {
+                name = e.getValue() + "-" + i;
+            }
+            PipelineRunOptions options = copyOf(pipelineRunOptions);
+            options.jenkinsfile = e.getKey();
+            options.jobName = name;
+            result.add(options);
+        }
+        return result;
+    }
+
+    /**
+     * Copies the options passed on the command line, with the defaults filled in like {@link RunJenkinsfileCommand} does.
+     */
+    private static PipelineRunOptions copyOf(PipelineRunOptions template) {
+        PipelineRunOptions options = new PipelineRunOptions();
+        CommandLine.Model.CommandSpec target = CommandLine.Model.CommandSpec.forAnnotatedObject(options);
+        for (CommandLine.Model.OptionSpec option : CommandLine.Model.CommandSpec.forAnnotatedObject(template).options()) {
+            target.findOption(option.longestName()).setValue(option.getValue());
+        }
+        options.workflowParameters = new HashMap<>();
+        if (template.workflowParameters != null) {
+            for (Map.Entry<String, String> p : template.workflowParameters.entrySet()) {
+                options.workflowParameters.put(p.getKey(), p.getValue() == null ? "" : p.getValue());
+            }
+        }
+        options.timingReports = new ArrayList<>();
+        options.cause = template.cause == null || template.cause.trim().isEmpty() ? null : template.cause.trim();
+        return options;
+    }
+
+    /**
+     * Finds the files named {@link #JENKINSFILE} in the directory, skipping the hidden directories, e.g. {@code .git}.
+     */
+    private static List<File> scan(File dir) throws IOException {
+        List<File> found = new ArrayList<>();
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                String name = d.getFileName() == null ? "" : d.getFileName().toString();
+                return !d.equals(dir.toPath()) && name.startsWith(".") ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && file.getFileName().toString().equals(JENKINSFILE)) {
+                    found.add(file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(found);
+        return found;
+    }
+
+    /**
+     * Job name of a Jenkinsfile: its directory relative to the scanned one, which creates folders,
+     * or the name of its directory, or its own name if it is not called {@link #JENKINSFILE}.
+     */
+    private static String getDefaultName(File file, @CheckForNull File root) {
+        File abs = file.getAbsoluteFile();
+        File dir = abs.getParentFile();
+        String name;
+        if (!abs.getName().equals(JENKINSFILE)) {
+            name = abs.getName().replaceFirst("\\.[^.]*$", "");
+        } else if (root != null && !dir.equals(root.getAbsoluteFile())) {
+            name = root.getAbsoluteFile().toPath().relativize(dir.toPath()).toString().replace(File.separatorChar, '/');
+        } else {
+            name = dir.getName();
+        }
+        List<String> segments = new ArrayList<>();
+        for (String segment : name.split("/")) {
+            // Characters rejected by Jenkins.checkGoodName
+            String safe = segment.replaceAll("[?*\\\\%!@#$^&|<>\\[\\]:;]", "_").trim();
+            if (!safe.isEmpty() && !safe.equals(".") && !safe.equals("..")) {
+                segments.add(safe);
+            }
+        }
+        return segments.isEmpty() ? PipelineRunOptions.DEFAULT_JOBNAME : String.join("/", segments);
+    }
+}
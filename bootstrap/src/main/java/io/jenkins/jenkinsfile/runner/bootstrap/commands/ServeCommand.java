@@ -0,0 +1,119 @@
+package io.jenkins.jenkinsfile.runner.bootstrap.commands;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import io.jenkins.jenkinsfile.runner.bootstrap.DaemonProtocol;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Starts Jenkins once and runs the Jenkinsfiles sent by the {@code run} command over a Unix domain socket,
+ * so that only the first run pays for the startup.
+ *
+ * Launcher options, e.g. the WAR and the plugins, are the ones of this command,
+ * runs passing different ones are rejected.
+ * Runs are processed one at a time.
+ */
+@CommandLine.Command(name = "serve", mixinStandardHelpOptions = true,
+        description = "Starts Jenkins once and runs the Jenkinsfiles sent by the 'run' command until stopped")
+public class ServeCommand extends JenkinsLauncherCommand {
+
+    @CommandLine.Option(names = "--socket",
+            description = "Unix domain socket to listen on. Defaults to $" + DaemonProtocol.SOCKET_ENV + " or ~/.jenkinsfile-runner/daemon.sock")
+    public File socket = DaemonProtocol.getDefaultSocket();
+
+    private static final String WORKSPACES_DIR_SYSTEM_PROPERTY = "jenkins.model.Jenkins.workspacesDir";
+
+    @Override
+    public String getAppClassName() {
+        return "io.jenkins.jenkinsfile.runner.ServeApp";
+    }
+
+    /**
+     * Parses the arguments of a run sent to the daemon, relative to the working directory of the client.
+     * Picocli is not visible from the Jenkins classloaders, so it has to happen here.
+     * @param err Standard error of the client
+     * @return Options of the run, {@code null} if they are invalid
+     */
+    @CheckForNull
+    public PipelineRunOptions parseRun(DaemonProtocol.Request request, PrintStream err) {
+        RunJenkinsfileCommand run = new RunJenkinsfileCommand();
+        CommandLine.ParseResult parsed;
+        try {
+            parsed = new CommandLine(run).parseArgs(request.args.toArray(new String[0]));
+        } catch (CommandLine.ParameterException e) {
+            err.println(e.getMessage());
+            return null;
+        }
+
+        PipelineRunOptions options = run.pipelineRunOptions;
+        File cwd = request.workingDirectory;
+        for (CommandLine.Model.OptionSpec option : parsed.matchedOptions()) {
+            if (isLauncherOption(option) && !Objects.equals(launcherValue(option, run.launcherOptions, cwd), launcherValue(option, launcherOptions, null))) {
+                err.printf("The %s argument differs from the one of the 'serve' command, use --no-daemon to run with it%n", option.longestName());
+                return null;
+            }
+        }
+        if (options.runWorkspace != null) {
+            String workspacesDir = System.getProperty(WORKSPACES_DIR_SYSTEM_PROPERTY);
+            if (workspacesDir == null || !normalize(resolve(cwd, options.runWorkspace)).equals(normalize(new File(workspacesDir)))) {
+                err.println("The --runWorkspace argument differs from the workspaces of the daemon, use --no-daemon to run with it");
+                return null;
+            }
+        }
+        options.jenkinsfile = resolve(cwd, options.jenkinsfile == null ? new File("Jenkinsfile") : options.jenkinsfile);
+        if (!options.jenkinsfile.exists()) {
+            err.println("no Jenkinsfile in current directory.");
+            return null;
+        }
+        if (options.jenkinsfile.isDirectory()) {
+            options.jenkinsfile = new File(options.jenkinsfile, "Jenkinsfile");
+        }
+        if (options.scm != null) {
+            options.scm = resolve(cwd, options.scm);
+        }
+        if (options.pipelineConfiguration != null) {
+            options.pipelineConfiguration = resolve(cwd, options.pipelineConfiguration);
+        }
+        if (options.logFile != null) {
+            options.logFile = resolve(cwd, options.logFile);
+        }
+        options.timingReports.replaceAll(f -> resolve(cwd, f));
+        run.preparePipelineRunOptions();
+        return options;
+    }
+
+    private static boolean isLauncherOption(CommandLine.Model.OptionSpec option) {
+        return option.userObject() instanceof Field && ((Field) option.userObject()).getDeclaringClass() == JenkinsLauncherOptions.class;
+    }
+
+    /**
+     * Value of a launcher option, with the files made absolute and normalized.
+     * @param cwd Directory the files are relative to, {@code null} for the one of this process
+     */
+    @CheckForNull
+    private static Object launcherValue(CommandLine.Model.OptionSpec option, JenkinsLauncherOptions launcherOptions, @CheckForNull File cwd) {
+        Object value;
+        try {
+            value = ((Field) option.userObject()).get(launcherOptions);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        if (value instanceof File) {
+            return normalize(cwd == null ? (File) value : resolve(cwd, (File) value));
+        }
+        return value;
+    }
+
+    private static Path normalize(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private static File resolve(File cwd, File file) {
+        return file.isAbsolute() ? file : new File(cwd, file.getPath());
+    }
+}
@@ -0,0 +1,95 @@
+package io.jenkins.jenkinsfile.runner.bootstrap.commands;
+
+import io.jenkins.jenkinsfile.runner.bootstrap.Bootstrap;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs a sample Pipeline in a child JVM to create a class data sharing archive for the full runner classpath,
+ * including the classes loaded by the Jenkins core and plugin classloaders where the JDK allows it.
+ *
+ * On JDK 25 and above a JDK AOT cache is created, on older versions a dynamic AppCDS archive.
+ * The JVM arguments needed to use the archive are written to {@link #ARGS_FILE_NAME}, which can be passed to
+ * {@code java} as an {@code @argfile}. The Docker launcher does it automatically.
+ */
+@CommandLine.Command(name = "train-cache", mixinStandardHelpOptions = true,
+        description = "Runs a sample Jenkinsfile to create a class data sharing archive used to speed up later launches")
+public class TrainCacheCommand implements Callable<Integer> {
+
+    /**
+     * Name of the file with the JVM arguments using the archive.
+     */
+    public static final String ARGS_FILE_NAME = "jvm.args";
+
+    private static final String SAMPLE_JENKINSFILE = "echo 'Jenkinsfile Runner class data sharing training run'\n";
+
+    @CommandLine.Option(names = "--cache-dir",
+            description = "Directory to store the archive in. Defaults to ~/.jenkinsfile-runner/cds")
+    public File cacheDir = new File(System.getProperty("user.home"), ".jenkinsfile-runner/cds");
+
+    @CommandLine.Parameters(paramLabel = "RUN_ARGS",
+            description = "Arguments of the training run, passed to the 'run' command, e.g. '-- -w jenkins.war -p plugins.txt -f Jenkinsfile'. " +
+                    "A trivial Pipeline is used if no Jenkinsfile is specified")
+    public List<String> runArgs = new ArrayList<>();
+
+    @Override
+    public Integer call() throws IOException, InterruptedException {
+        Files.createDirectories(cacheDir.toPath());
+        final boolean aot = Runtime.version().feature() >= 25;
+        final File archive = new File(cacheDir, aot ? "jenkinsfile-runner.aot" : "jenkinsfile-runner.jsa");
+        final File argsFile = new File(cacheDir, ARGS_FILE_NAME);
+        // Never train with an outdated archive
+        Files.deleteIfExists(argsFile.toPath());
+        Files.deleteIfExists(archive.toPath());
+
+        List<String> run = new ArrayList<>(runArgs);
+        if (!run.contains("-f") && !run.contains("--file") && run.stream().noneMatch(a -> a.startsWith("--file="))) {
+            File jenkinsfile = new File(cacheDir, "Jenkinsfile");
+            Files.write(jenkinsfile.toPath(), SAMPLE_JENKINSFILE.getBytes(StandardCharsets.UTF_8));
+            Collections.addAll(run, "--file", jenkinsfile.getAbsolutePath());
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse(
+                new File(System.getProperty("java.home"), "bin/java").getPath()));
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!isArchiveArgument(arg) && !arg.startsWith("-agentlib:jdwp")) {
+                command.add(arg);
+            }
+        }
+        command.add(aot ? "-XX:AOTCacheOutput=" + archive.getAbsolutePath() : "-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath());
+        Collections.addAll(command, "-cp", System.getProperty("java.class.path"), Bootstrap.class.getName(), "run");
+        command.addAll(run);
+
+        System.out.printf("Training the %s with: %s%n", aot ? "AOT cache" : "CDS archive", String.join(" ", run));
+        long start = System.currentTimeMillis();
+        int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (!archive.isFile()) {
+            System.err.printf("The training run exited with code %d and did not create %s%n", exitCode, archive);
+            return exitCode != 0 ? exitCode : 1;
+        }
+        if (exitCode != 0) {
+            System.err.printf("WARNING: The training run exited with code %d, the archive may be incomplete%n", exitCode);
+        }
+
+        String useArchive = (aot ? "-XX:AOTCache=" : "-XX:SharedArchiveFile=") + archive.getAbsolutePath();
+        Files.write(argsFile.toPath(), (useArchive + "\n").getBytes(StandardCharsets.UTF_8));
+        System.out.printf("Created %s (%d KB) in %d ms.%nAdd @%s to the JVM arguments (e.g. JAVA_OPTS) to use it%n",
+                archive, archive.length() / 1024, System.currentTimeMillis() - start, argsFile.getAbsolutePath());
+        return 0;
+    }
+
+    private static boolean isArchiveArgument(String arg) {
+        return arg.startsWith("-XX:SharedArchiveFile") || arg.startsWith("-XX:ArchiveClassesAtExit")
+                || arg.startsWith("-XX:AOT") || arg.startsWith("-Xshare");
+    }
+}
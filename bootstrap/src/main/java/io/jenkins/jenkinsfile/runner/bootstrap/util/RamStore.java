@@ -0,0 +1,77 @@
+package io.jenkins.jenkinsfile.runner.bootstrap.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * RAM-backed filesystem the temporary directories are preferably allocated on.
+ * Shared by the launcher, which allocates them, and the bootstrap, which needs to know where they will be
+ * before Jenkins is started.
+ */
+public final class RamStore {
+
+    /**
+     * Directory used by {@code --tmpfs=auto}.
+     */
+    public static final String DEFAULT_DIR = "/dev/shm";
+
+    /**
+     * Expected size of a temporary directory whose content is not known in advance, e.g. the Jenkins home.
+     */
+    public static final long DEFAULT_EXPECTED_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Types of the filesystems keeping their files in memory.
+     */
+    private static final List<String> RAM_TYPES = Arrays.asList("tmpfs", "ramfs");
+
+    private RamStore() {}
+
+    /**
+     * Whether the directory exists, is writable and keeps its files in memory.
+     */
+    public static boolean isRamBacked(File dir) {
+        try {
+            return dir.isDirectory() && Files.isWritable(dir.toPath())
+                    && RAM_TYPES.contains(Files.getFileStore(dir.toPath()).type().toLowerCase(Locale.ROOT));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Size the temporary directories may take on the RAM-backed directory.
+     * @param budget Budget given by {@code --tmpfsBudget}, negative for half of the free space
+     */
+    public static long budget(File dir, long budget) {
+        return budget >= 0 ? budget : dir.getUsableSpace() / 2;
+    }
+
+    /**
+     * Size of the files in the directory, counted up to the limit.
+     */
+    public static long sizeOf(File dir, long limit) throws IOException {
+        long[] size = {0};
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                size[0] += attrs.size();
+                return size[0] > limit ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size[0];
+    }
+}
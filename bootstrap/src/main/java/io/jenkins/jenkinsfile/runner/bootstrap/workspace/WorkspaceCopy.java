@@ -0,0 +1,317 @@
+package io.jenkins.jenkinsfile.runner.bootstrap.workspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copies the directory of the Jenkinsfile into a local workspace with the cheapest strategy the filesystem supports.
+ *
+ * <ul>
+ *     <li>{@code reflink}: {@code cp} clones the files, sharing their blocks until either copy is written,
+ *         on Btrfs, XFS, APFS...</li>
+ *     <li>{@code hardlink}: the files are hard links to the sources, so the run must not modify them in place,
+ *         e.g. tools replacing files or deleting them are fine. Files which cannot be linked, e.g. on another
+ *         filesystem, are copied.</li>
+ *     <li>{@code copy}: the files are copied by a pool of threads, a directory per task.</li>
+ * </ul>
+ * {@code auto} tries {@code reflink}, then {@code copy}. {@code reflink} and {@code hardlink} fall back to
+ * {@code copy} if the filesystem does not support them.
+ * A {@link Filter filtered} checkout walks the tree, as {@code cp} cannot skip the excluded files.
+ * So does a checkout into a workspace with a {@link WorkspaceManifest}, which only copies the changed files.
+ *
+ * It only depends on the JDK, so that the {@link WorkspacePrefetch prefetch} can run before Jenkins is started.
+ */
+public final class WorkspaceCopy {
+
+    public static final List<String> STRATEGIES = Arrays.asList("auto", "reflink", "hardlink", "copy");
+
+    /**
+     * Selects the files of the whole tree.
+     */
+    public static final Filter ALL = new Filter() {
+        @Override
+        public boolean isAll() {
+            return true;
+        }
+
+        @Override
+        public Directory root(Path dir) {
+            return new Directory() {
+                @Override
+                public boolean acceptsDirectory(String name) {
+                    return true;
+                }
+
+                @Override
+                public boolean acceptsFile(String name) {
+                    return true;
+                }
+
+                @Override
+                public Directory enter(Path dir, String name) {
+                    return this;
+                }
+            };
+        }
+    };
+
+    private final Path from;
+    private final Path to;
+    private final Filter filter;
+    private final WorkspaceManifest manifest;
+    private String strategy;
+    private final LongAdder files = new LongAdder();
+    private final LongAdder linked = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    /** Number of files and directories skipped by the filter. */
+    private final LongAdder excluded = new LongAdder();
+    /** Number of files already up to date in the workspace. */
+    private final LongAdder unchanged = new LongAdder();
+    private int deleted;
+
+    private WorkspaceCopy(Path from, Path to, Filter filter, WorkspaceManifest manifest) {
+        this.from = from;
+        this.to = to;
+        this.filter = filter;
+        this.manifest = manifest;
+    }
+
+    /**
+     * Copies the content of a directory into another one, overwriting the existing files.
+     * @param strategy One of {@link #STRATEGIES}
+     * @param filter Files to copy
+     */
+    public static WorkspaceCopy copy(Path from, Path to, String strategy, Filter filter) throws IOException, InterruptedException {
+        if (!STRATEGIES.contains(strategy)) {
+            throw new IllegalArgumentException("Unknown checkout strategy: " + strategy + ", expected one of " + STRATEGIES);
+        }
+        Files.createDirectories(to);
+        WorkspaceManifest manifest = WorkspaceManifest.load(to);
+        WorkspaceCopy copy = new WorkspaceCopy(from, to, filter, manifest);
+        if ((strategy.equals("auto") || strategy.equals("reflink")) && filter.isAll() && !manifest.isIncremental() && copy.reflink()) {
+            copy.strategy = "reflink";
+            copy.recordReflinked();
+        } else {
+            copy.strategy = strategy.equals("hardlink") ? "hardlink" : "copy";
+            copy.walk(strategy.equals("hardlink"));
+        }
+        copy.deleted = manifest.finish();
+        return copy;
+    }
+
+    /**
+     * Strategy actually used.
+     */
+    public String getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Number of bytes copied, excluding the hard links and the reflinked files.
+     */
+    public long getBytesCopied() {
+        return bytes.sum();
+    }
+
+    /**
+     * Files changed since the previous checkout into the workspace, see {@link WorkspaceManifest#getChanges()}.
+     */
+    public List<String> getChanges() {
+        return manifest.getChanges();
+    }
+
+    @Override
+    public String toString() {
+        if (strategy.equals("reflink")) {
+            return "Checked out " + from + " with reflink, 0 bytes copied";
+        }
+        return "Checked out " + from + " with " + strategy + ", " + files.sum() + " files, "
+                + (manifest.isIncremental() ? unchanged.sum() + " unchanged, " + deleted + " deleted, " : "")
+                + (strategy.equals("hardlink") ? linked.sum() + " linked, " : "")
+                + (filter.isAll() ? "" : excluded.sum() + " excluded, ") + bytes.sum() + " bytes copied";
+    }
+
+    /**
+     * Clones the tree with {@code cp}, sharing the blocks of the files.
+     * @return Whether the filesystem supports it
+     */
+    private boolean reflink() throws IOException, InterruptedException {
+        if (File.pathSeparatorChar == ';') {
+            // Windows
+            return false;
+        }
+        List<String> command = new ArrayList<>(Arrays.asList("cp", "-R", "-p"));
+        // GNU cp fails instead of copying if cloning is not supported, cp -c of macOS too
+        command.add(System.getProperty("os.name").startsWith("Mac") ? "-c" : "--reflink=always");
+        command.add(from.toAbsolutePath() + "/.");
+        command.add(to.toAbsolutePath() + "/");
+        Process p;
+        try {
+            p = new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+        } catch (IOException e) {
+            // No cp
+            return false;
+        }
+        return p.waitFor() == 0;
+    }
+
+    /**
+     * Records the files cloned by {@code cp} in the manifest.
+     */
+    private void recordReflinked() throws IOException {
+        Files.walkFileTree(from, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path relative = from.relativize(file);
+                manifest.copied(relative.toString().replace('\\', '/'), attrs, to.resolve(relative.toString()));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void walk(boolean link) throws IOException, InterruptedException {
+        // Copying is I/O bound, so more threads than processors
+        ForkJoinPool pool = new ForkJoinPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+        try {
+            pool.submit(new CopyDirectory(from, to, "", filter.root(from), link)).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("Failed to copy " + from + " to " + to, cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Files to copy.
+     */
+    public interface Filter {
+        /**
+         * Whether every file is selected, so that the tree can be copied as a whole.
+         */
+        boolean isAll();
+
+        /**
+         * Selection in the checked out directory.
+         */
+        Directory root(Path dir) throws IOException;
+    }
+
+    /**
+     * Files to copy in a directory.
+     */
+    public interface Directory {
+        /**
+         * Whether the subdirectory should be walked.
+         */
+        boolean acceptsDirectory(String name);
+
+        /**
+         * Whether the file, or symbolic link, should be copied.
+         */
+        boolean acceptsFile(String name);
+
+        /**
+         * Selection in a subdirectory which is {@link #acceptsDirectory accepted}.
+         */
+        Directory enter(Path dir, String name) throws IOException;
+    }
+
+    private final class CopyDirectory extends RecursiveAction {
+        private final Path source;
+        private final Path target;
+        /** Path of the directory relative to the checked out directory, ending with a slash unless empty. */
+        private final String path;
+        private final Directory scope;
+        private final boolean link;
+
+        CopyDirectory(Path source, Path target, String path, Directory scope, boolean link) {
+            this.source = source;
+            this.target = target;
+            this.path = path;
+            this.scope = scope;
+            this.link = link;
+        }
+
+        @Override
+        protected void compute() {
+            List<CopyDirectory> subdirectories = new ArrayList<>();
+            try {
+                Files.createDirectories(target);
+                try (DirectoryStream<Path> children = Files.newDirectoryStream(source)) {
+                    for (Path child : children) {
+                        String name = child.getFileName().toString();
+                        Path copy = target.resolve(name);
+                        BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (path.isEmpty() && name.equals(WorkspaceManifest.NAME)) {
+                            // The sources are a workspace themselves
+                            continue;
+                        }
+                        if (attributes.isDirectory() ? !scope.acceptsDirectory(name) : !scope.acceptsFile(name)) {
+                            excluded.increment();
+                        } else if (attributes.isDirectory()) {
+                            CopyDirectory task = new CopyDirectory(child, copy, path + name + "/", scope.enter(child, name), link);
+                            task.fork();
+                            subdirectories.add(task);
+                        } else {
+                            copyFile(child, copy, attributes);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (CopyDirectory task : subdirectories) {
+                task.join();
+            }
+        }
+
+        private void copyFile(Path child, Path copy, BasicFileAttributes attributes) throws IOException {
+            files.increment();
+            String relative = path + child.getFileName();
+            if (manifest.isUpToDate(relative, child, attributes, copy)) {
+                unchanged.increment();
+                return;
+            }
+            if (link && attributes.isRegularFile()) {
+                try {
+                    Files.deleteIfExists(copy);
+                    Files.createLink(copy, child);
+                    linked.increment();
+                    manifest.copied(relative, attributes, copy);
+                    return;
+                } catch (IOException | UnsupportedOperationException e) {
+                    // E.g. another filesystem, copied below
+                }
+            }
+            // Symbolic links are copied as links
+            Files.copy(child, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+            if (attributes.isRegularFile()) {
+                bytes.add(attributes.size());
+            }
+            manifest.copied(relative, attributes, copy);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package io.jenkins.jenkinsfile.runner.bootstrap.workspace;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Files a checkout put into a local workspace, kept in the workspace as {@value #NAME}
+ * so that the next checkout into the same workspace copies the changed files only.
+ *
+ * For each file, the size and modification time of the source and of the copy are recorded.
+ * A file whose source and copy are both as recorded is not copied again.
+ * If only the modification times changed, e.g. the sources were checked out again, the contents are compared
+ * with a CRC32C hash before copying.
+ * Files which are no longer in the sources are deleted from the workspace, unlike the files the runs created.
+ */
+final class WorkspaceManifest {
+
+    static final String NAME = ".jfr-manifest";
+
+    private static final String HEADER = "# jenkinsfile-runner workspace manifest 1";
+
+    private final Path workspace;
+    /** Entries of the previous checkout, empty for the first one. */
+    private final Map<String, Entry> previous;
+    private final boolean incremental;
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+    /** Edit type of each changed path, {@code A}, {@code M} or {@code D}. */
+    private final Map<String, Character> changes = new ConcurrentHashMap<>();
+
+    private WorkspaceManifest(Path workspace, Map<String, Entry> previous, boolean incremental) {
+        this.workspace = workspace;
+        this.previous = previous;
+        this.incremental = incremental;
+    }
+
+    /**
+     * Reads the manifest of the previous checkout into the workspace, if any.
+     * The paths which are not inside the workspace once normalized, e.g. {@code ../x}, are skipped.
+     */
+    static WorkspaceManifest load(Path workspace) throws IOException {
+        Path root = workspace.toAbsolutePath().normalize();
+        Path file = workspace.resolve(NAME);
+        Map<String, Entry> entries = new HashMap<>();
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(r.readLine())) {
+                // Unknown format, copied again
+                return new WorkspaceManifest(workspace, Collections.emptyMap(), false);
+            }
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] fields = line.split("\t", 6);
+                String relative = fields.length == 6 ? normalize(root, fields[5]) : null;
+                if (relative != null) {
+                    entries.put(relative, new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), Long.parseLong(fields[3]), fields[4].equals("-") ? null : fields[4]));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return new WorkspaceManifest(workspace, Collections.emptyMap(), false);
+        } catch (NumberFormatException e) {
+            return new WorkspaceManifest(workspace, Collections.emptyMap(), false);
+        }
+        return new WorkspaceManifest(workspace, entries, true);
+    }
+
+    /**
+     * @return Path relative to the workspace with slashes, {@code null} if it is not inside the workspace
+     */
+    @CheckForNull
+    private static String normalize(Path root, String relative) {
+        Path path;
+        try {
+            path = root.resolve(relative).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (!path.startsWith(root) || path.equals(root)) {
+            return null;
+        }
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Whether a previous checkout into the workspace is known, so that only the changes are copied.
+     */
+    boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Checks whether a source file must be copied, recording it as is otherwise.
+     * @param relative Path of the file relative to the checked out directory, with slashes
+     * @return Whether the copy is up to date
+     */
+    boolean isUpToDate(String relative, Path source, BasicFileAttributes attributes, Path copy) throws IOException {
+        Entry e = previous.get(relative);
+        if (e == null) {
+            return false;
+        }
+        BasicFileAttributes copied;
+        try {
+            copied = Files.readAttributes(copy, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException x) {
+            return false;
+        }
+        if (copied.size() != e.copySize || copied.lastModifiedTime().toMillis() != e.copyModified || attributes.size() != e.size) {
+            // Modified by a run, or the source changed size
+            return false;
+        }
+        long modified = attributes.lastModifiedTime().toMillis();
+        String hash = e.hash;
+        if (modified != e.sourceModified) {
+            if (!attributes.isRegularFile()) {
+                return false;
+            }
+            hash = hash(source);
+            if (!hash.equals(e.hash != null ? e.hash : hash(copy))) {
+                return false;
+            }
+        }
+        current.put(relative, new Entry(e.size, modified, e.copySize, e.copyModified, hash));
+        return true;
+    }
+
+    /**
+     * Records a file which has just been copied.
+     */
+    void copied(String relative, BasicFileAttributes attributes, Path copy) throws IOException {
+        BasicFileAttributes copied = Files.readAttributes(copy, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        long modified = attributes.lastModifiedTime().toMillis();
+        current.put(relative, new Entry(attributes.size(), modified, copied.size(), copied.lastModifiedTime().toMillis(), null));
+        if (!incremental) {
+            return;
+        }
+        Entry e = previous.get(relative);
+        if (e == null) {
+            changes.put(relative, 'A');
+        } else if (e.size != attributes.size() || e.sourceModified != modified) {
+            // Not when the copy is only restored after a run modified it
+            changes.put(relative, 'M');
+        }
+    }
+
+    /**
+     * Deletes the files of the previous checkout which were not checked out this time, and writes the manifest.
+     * @return Number of deleted files
+     */
+    int finish() throws IOException {
+        int deleted = 0;
+        Path root = null;
+        for (String relative : previous.keySet()) {
+            if (!current.containsKey(relative)) {
+                Path file = workspace.resolve(relative);
+                if (root == null) {
+                    root = workspace.toRealPath();
+                }
+                // Not through a directory a run replaced with a link to the outside of the workspace
+                if (isInside(root, file) && Files.deleteIfExists(file)) {
+                    deleted++;
+                }
+                changes.put(relative, 'D');
+            }
+        }
+        Path tmp = workspace.resolve(NAME + ".tmp");
+        try (Writer w = new BufferedWriter(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+            w.write(HEADER);
+            w.write('\n');
+            for (Map.Entry<String, Entry> e : new TreeMap<>(current).entrySet()) {
+                if (e.getKey().indexOf('\n') != -1) {
+                    // Copied again next time
+                    continue;
+                }
+                Entry v = e.getValue();
+                w.write(v.size + "\t" + v.sourceModified + "\t" + v.copySize + "\t" + v.copyModified + "\t"
+                        + (v.hash == null ? "-" : v.hash) + "\t" + e.getKey() + "\n");
+            }
+        }
+        Files.move(tmp, workspace.resolve(NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return deleted;
+    }
+
+    private static boolean isInside(Path root, Path file) throws IOException {
+        try {
+            return file.getParent().toRealPath().startsWith(root);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Changed paths, sorted, as {@code <edit type> <path>}, empty for the first checkout.
+     */
+    List<String> getChanges() {
+        List<String> list = new ArrayList<>();
+        for (Map.Entry<String, Character> e : new TreeMap<>(changes).entrySet()) {
+            list.add(e.getValue() + " " + e.getKey());
+        }
+        return list;
+    }
+
+    private static String hash(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        byte[] b = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(b)) > 0) {
+                crc.update(b, 0, n);
+            }
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static final class Entry {
+        final long size;
+        final long sourceModified;
+        final long copySize;
+        final long copyModified;
+        /** Hash of the content, if it was computed. */
+        @CheckForNull
+        final String hash;
+
+        Entry(long size, long sourceModified, long copySize, long copyModified, @CheckForNull String hash) {
+            this.size = size;
+            this.sourceModified = sourceModified;
+            this.copySize = copySize;
+            this.copyModified = copyModified;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package io.jenkins.jenkinsfile.runner.bootstrap.workspace;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import io.jenkins.jenkinsfile.runner.bootstrap.StartupReport;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Checks the directory of the Jenkinsfile out while Jenkins starts, for the checkout of the default SCM to adopt.
+ *
+ * <ul>
+ *     <li>With {@code --runWorkspace}, the workspace is known, so the checkout is done right there,
+ *         even if the Pipeline does not check the sources out.</li>
+ *     <li>Otherwise it is done into a staging directory where the temporary workspaces are expected,
+ *         moved to the workspace if it is empty and on the same filesystem.</li>
+ * </ul>
+ * If the checkout is not adopted, e.g. the Pipeline has no {@code checkout scm} or its workspace is elsewhere,
+ * the staging directory is deleted and the checkout runs as usual.
+ */
+public final class WorkspacePrefetch {
+
+    @CheckForNull
+    private static volatile WorkspacePrefetch current;
+
+    private final Path source;
+    private final Path target;
+    private final String strategy;
+    /** Whether {@link #target} is a staging directory, not the workspace. */
+    private final boolean staged;
+    private final CompletableFuture<WorkspaceCopy> copy = new CompletableFuture<>();
+
+    private WorkspacePrefetch(Path source, Path target, String strategy, boolean staged) {
+        this.source = source;
+        this.target = target;
+        this.strategy = strategy;
+        this.staged = staged;
+    }
+
+    /**
+     * Starts checking the directory out in the background.
+     * @param workspace Workspace of the run if it is known, {@code null} to check out into a staging directory
+     * @param stagingBase Directory of the staging directory, on the filesystem of the workspace; unused if the workspace is known
+     */
+    public static void start(File sourceDir, @CheckForNull File workspace, @CheckForNull File stagingBase, String strategy) throws IOException {
+        Path source = sourceDir.toPath().toAbsolutePath().normalize();
+        Path target;
+        if (workspace != null) {
+            target = workspace.toPath().toAbsolutePath().normalize();
+        } else {
+            Files.createDirectories(stagingBase.toPath());
+            // Named like the temporary directories of the launcher, so that it is reaped if this process dies
+            File staging = File.createTempFile("jfr", ".run", stagingBase);
+            Files.delete(staging.toPath());
+            Files.createDirectory(staging.toPath());
+            target = staging.toPath();
+        }
+        WorkspacePrefetch prefetch = new WorkspacePrefetch(source, target, strategy, workspace == null);
+        current = prefetch;
+        Thread t = new Thread(prefetch::run, "Prefetching " + source);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void run() {
+        try (StartupReport.Phase p = StartupReport.get().phase("WorkspacePrefetch", "checkout")) {
+            copy.complete(WorkspaceCopy.copy(source, target, strategy, WorkspaceCopy.ALL));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            copy.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Adopts the prefetched checkout of the directory for a checkout into the workspace, if it matches.
+     * @return The prefetched checkout, {@code null} if the checkout has to be done
+     */
+    @CheckForNull
+    public static WorkspaceCopy adopt(Path sourceDir, Path workspace, String strategy) throws InterruptedException {
+        WorkspacePrefetch prefetch = current;
+        Path source = sourceDir.toAbsolutePath().normalize();
+        Path ws = workspace.toAbsolutePath().normalize();
+        if (prefetch == null || !prefetch.source.equals(source) || !prefetch.strategy.equals(strategy)
+                || !prefetch.staged && !prefetch.target.equals(ws)) {
+            return null;
+        }
+        current = null;
+        WorkspaceCopy copy;
+        try {
+            copy = prefetch.copy.get();
+        } catch (ExecutionException e) {
+            System.err.printf("WARNING: could not prefetch the workspace, checking out again: %s%n", e.getCause());
+            prefetch.discardStaging();
+            return null;
+        }
+        if (!prefetch.staged) {
+            return copy;
+        }
+        try {
+            if (Files.isDirectory(ws)) {
+                if (!isEmpty(ws)) {
+                    // E.g. left by a previous run, synchronized by the checkout
+                    prefetch.discardStaging();
+                    return null;
+                }
+                Files.delete(ws);
+            }
+            Files.createDirectories(ws.getParent());
+            Files.move(prefetch.target, ws, StandardCopyOption.ATOMIC_MOVE);
+            return copy;
+        } catch (IOException e) {
+            // E.g. on another filesystem
+            prefetch.discardStaging();
+            return null;
+        }
+    }
+
+    /**
+     * Drops the prefetched checkout if it was not adopted, once the run is over.
+     */
+    public static void discard() {
+        WorkspacePrefetch prefetch = current;
+        current = null;
+        if (prefetch != null) {
+            prefetch.copy.whenComplete((c, e) -> prefetch.discardStaging());
+        }
+    }
+
+    private void discardStaging() {
+        if (staged) {
+            FileUtils.deleteQuietly(target.toFile());
+        }
+    }
+
+    private static boolean isEmpty(Path dir) throws IOException {
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+            return !children.iterator().hasNext();
+        }
+    }
+}
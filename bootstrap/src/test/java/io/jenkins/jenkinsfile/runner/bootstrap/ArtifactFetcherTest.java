@@ -0,0 +1,153 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArtifactFetcherTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private HttpServer server;
+    private final byte[] content = new byte[300_000];
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private String publishedDigest;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(content);
+        publishedDigest = ArtifactFetcher.toHex(ArtifactFetcher.newDigest().digest(content));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/plugin.hpi", this::serve);
+        server.createContext("/plugin.hpi.sha256", ex -> respond(ex, 200, (publishedDigest + "  plugin.hpi\n").getBytes(StandardCharsets.US_ASCII)));
+        server.createContext("/redirect.hpi", ex -> {
+            ex.getResponseHeaders().add("Location", "/plugin.hpi");
+            respond(ex, 302, new byte[0]);
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange ex) throws IOException {
+        String range = ex.getRequestHeaders().getFirst("Range");
+        requests.add(ex.getRequestMethod() + (range != null ? " " + range : "")
+                + (ex.getRequestHeaders().containsKey("If-None-Match") ? " conditional" : ""));
+        ex.getResponseHeaders().add("ETag", "\"v1\"");
+        if ("\"v1\"".equals(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+            ex.sendResponseHeaders(304, -1);
+            ex.close();
+            return;
+        }
+        if (range != null && "\"v1\"".equals(ex.getRequestHeaders().getFirst("If-Range"))) {
+            int from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            ex.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + (content.length - 1) + "/" + content.length);
+            respond(ex, 206, Arrays.copyOfRange(content, from, content.length));
+            return;
+        }
+        respond(ex, 200, content);
+    }
+
+    private static void respond(HttpExchange ex, int status, byte[] body) throws IOException {
+        ex.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void downloadsAndRevalidates() throws Exception {
+        File target = new File(tmp.getRoot(), "cache/plugin.hpi");
+        try (ArtifactFetcher fetcher = new ArtifactFetcher(2)) {
+            fetcher.fetch(new ArtifactFetcher.Request(uri("/redirect.hpi"), target, null, true));
+            assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+            assertEquals(publishedDigest, ArtifactFetcher.getRecordedDigest(target));
+
+            // Not modified, the cached file is kept
+            long modified = target.lastModified();
+            fetcher.fetch(new ArtifactFetcher.Request(uri("/plugin.hpi"), target, null, true));
+            assertEquals(modified, target.lastModified());
+
+            // Pinned versions are not checked at all
+            fetcher.fetch(new ArtifactFetcher.Request(uri("/plugin.hpi"), target, null, false));
+        }
+        assertEquals(Arrays.asList("GET", "GET conditional"), requests);
+    }
+
+    @Test
+    public void resumesPartialDownload() throws Exception {
+        File target = new File(tmp.getRoot(), "plugin.hpi");
+        try (ArtifactFetcher fetcher = new ArtifactFetcher(1)) {
+            fetcher.fetch(new ArtifactFetcher.Request(uri("/plugin.hpi"), target, publishedDigest, false));
+            // Simulate an interrupted download
+            Files.move(target.toPath(), new File(tmp.getRoot(), "plugin.hpi.part").toPath());
+            Files.write(new File(tmp.getRoot(), "plugin.hpi.part").toPath(), Arrays.copyOf(content, 100_000));
+            Files.write(new File(tmp.getRoot(), "plugin.hpi.meta").toPath(), "part.etag=\"v1\"\n".getBytes(StandardCharsets.UTF_8));
+
+            fetcher.fetch(new ArtifactFetcher.Request(uri("/plugin.hpi"), target, publishedDigest, false));
+        }
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertFalse(new File(tmp.getRoot(), "plugin.hpi.part").exists());
+        assertEquals(Arrays.asList("GET", "GET bytes=100000-"), requests);
+    }
+
+    @Test
+    public void rejectsChecksumMismatch() throws Exception {
+        publishedDigest = ArtifactFetcher.toHex(new byte[32]);
+        File target = new File(tmp.getRoot(), "plugin.hpi");
+        try (ArtifactFetcher fetcher = new ArtifactFetcher(1)) {
+            fetcher.fetch(new ArtifactFetcher.Request(uri("/plugin.hpi"), target, null, false));
+            fail("The published checksum does not match");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Checksum mismatch"));
+        }
+        assertFalse(target.exists());
+        assertFalse(new File(tmp.getRoot(), "plugin.hpi.part").exists());
+    }
+
+    @Test
+    public void fetchesConcurrently() throws Exception {
+        List<ArtifactFetcher.Request> all = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            all.add(new ArtifactFetcher.Request(uri("/plugin.hpi"), new File(tmp.getRoot(), "p" + i + "/plugin.hpi"), publishedDigest, false));
+        }
+        try (ArtifactFetcher fetcher = new ArtifactFetcher(3)) {
+            for (File f : fetcher.fetchAll(all)) {
+                assertArrayEquals(content, Files.readAllBytes(f.toPath()));
+            }
+        }
+        assertEquals(6, requests.size());
+    }
+}
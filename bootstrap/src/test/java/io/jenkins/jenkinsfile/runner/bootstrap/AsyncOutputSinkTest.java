@@ -0,0 +1,97 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AsyncOutputSinkTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void writesToTargetAndTee() throws Exception {
+        byte[] data = new byte[100_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        File target = tmp.newFile("stdout");
+        File tee = new File(tmp.getRoot(), "build.log");
+        try (FileOutputStream out = new FileOutputStream(target);
+             AsyncOutputSink sink = new AsyncOutputSink(out, tee, 1024, 2)) {
+            sink.write(data, 0, 10);
+            sink.write(data[10]);
+            sink.write(data, 11, data.length - 11);
+        }
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertArrayEquals(data, Files.readAllBytes(tee.toPath()));
+    }
+
+    @Test
+    public void blocksWhenTheTargetIsSlow() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        OutputStream slow = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                written.write(b, off, len);
+            }
+        };
+        AsyncOutputSink sink = new AsyncOutputSink(slow, null, 4, 2);
+        Thread writer = new Thread(() -> {
+            try {
+                sink.write("0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+                sink.close();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        writer.start();
+        writer.join(500);
+        assertEquals("Waiting for a free buffer", Thread.State.WAITING, writer.getState());
+        release.countDown();
+        writer.join();
+        assertEquals("0123456789abcdef", written.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void reportsTargetFailures() throws Exception {
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        AsyncOutputSink sink = new AsyncOutputSink(broken, null, 4, 2);
+        sink.write("hello".getBytes(StandardCharsets.UTF_8));
+        try {
+            sink.close();
+            fail("The failure is reported");
+        } catch (IOException e) {
+            assertEquals("Broken pipe", e.getCause().getMessage());
+        }
+    }
+}
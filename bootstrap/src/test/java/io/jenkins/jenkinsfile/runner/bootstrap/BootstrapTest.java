@@ -1,5 +1,6 @@
 package io.jenkins.jenkinsfile.runner.bootstrap;
 
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.JenkinsLauncherOptions;
 import org.junit.Test;
 import picocli.CommandLine;
 
@@ -16,6 +17,9 @@ public class BootstrapTest {
     public void printsSubcommandHelp() {
         assertCommandSuccess("help", "cli");
         assertCommandSuccess("cli", "--help");
+        assertCommandSuccess("train-cache", "--help");
+        assertCommandSuccess("serve", "--help");
+        assertCommandSuccess("run-many", "--help");
     }
 
     @Test
@@ -31,6 +35,16 @@ public class BootstrapTest {
         assertEquals("Wrong number of parameters was parsed", bootstrap.pipelineRunOptions.workflowParameters.size(), 2);
     }
 
+    @Test
+    public void parsesTmpfsBudget() {
+        Bootstrap bootstrap = assertCommandSuccess("--tmpfsBudget=512m", "--version");
+        assertEquals(Long.valueOf(512L * 1024 * 1024), bootstrap.launcherOptions.tmpfsBudget);
+        assertEquals("RAM is opt-in", "none", bootstrap.launcherOptions.tmpfs);
+        assertEquals(Long.valueOf(2L * 1024 * 1024 * 1024), new JenkinsLauncherOptions.SizeConverter().convert("2G"));
+        assertEquals("Invalid sizes are usage errors", CommandLine.ExitCode.USAGE, new CommandLine(new Bootstrap()).execute("--tmpfsBudget=lots", "--version"));
+        assertEquals(CommandLine.ExitCode.USAGE, new CommandLine(new Bootstrap()).execute("--tmpfsBudget=-1g", "--version"));
+    }
+
     private Bootstrap assertCommandSuccess(String ... args) throws AssertionError {
         final Bootstrap bootstrap = new Bootstrap();
         int exitCode = new CommandLine(bootstrap).execute(args);
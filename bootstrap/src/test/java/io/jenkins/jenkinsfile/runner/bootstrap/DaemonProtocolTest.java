@@ -0,0 +1,135 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.PipelineRunOptions;
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.ServeCommand;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import picocli.CommandLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DaemonProtocolTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void forwardsArgumentsAndOutput() throws Exception {
+        File socket = new File(tmp.getRoot(), "daemon/daemon.sock");
+        assertNull("No daemon listening", DaemonProtocol.forward(socket, Collections.emptyList(), new ByteArrayOutputStream(), new ByteArrayOutputStream()));
+
+        try (DaemonProtocol.Server server = DaemonProtocol.listen(socket)) {
+            assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket.getParentFile().toPath())));
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket.toPath())));
+            try {
+                DaemonProtocol.listen(socket);
+                fail("Already listening");
+            } catch (IOException e) {
+                // expected
+            }
+
+            CompletableFuture<DaemonProtocol.Request> received = CompletableFuture.supplyAsync(() -> {
+                while (true) {
+                    try (DaemonProtocol.Connection c = server.accept()) {
+                        c.getStdout().write("log line\n".getBytes(StandardCharsets.UTF_8));
+                        c.getStderr().write("warning\n".getBytes(StandardCharsets.UTF_8));
+                        c.exit(2);
+                        return c.getRequest();
+                    } catch (IOException e) {
+                        // The connection checking whether a daemon is already listening, skipped like the daemon does
+                    }
+                }
+            });
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            assertEquals(Integer.valueOf(2), DaemonProtocol.forward(socket, Arrays.asList("-f", "Jenkinsfile", "--job-name=\u00e9"), out, err));
+            assertEquals("log line\n", out.toString(StandardCharsets.UTF_8));
+            assertEquals("warning\n", err.toString(StandardCharsets.UTF_8));
+            DaemonProtocol.Request request = received.get();
+            assertEquals(Arrays.asList("-f", "Jenkinsfile", "--job-name=\u00e9"), request.args);
+            assertEquals(new File("").getAbsoluteFile(), request.workingDirectory);
+        }
+        assertTrue("Socket deleted on close", !socket.exists());
+    }
+
+    @Test
+    public void notifiesWhenTheClientDisconnects() throws Exception {
+        File socket = new File(tmp.getRoot(), "daemon.sock");
+        try (DaemonProtocol.Server server = DaemonProtocol.listen(socket)) {
+            CompletableFuture<Void> disconnected = new CompletableFuture<>();
+            try (SocketChannel client = SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()));
+                 DaemonProtocol.Connection c = sendRequest(server, client)) {
+                c.onDisconnect(() -> disconnected.complete(null));
+                c.getStdout().write("still running\n".getBytes(StandardCharsets.UTF_8));
+                assertFalse(disconnected.isDone());
+                client.close();
+                disconnected.get(10, TimeUnit.SECONDS);
+            }
+
+            CompletableFuture<Void> notified = new CompletableFuture<>();
+            try (SocketChannel client = SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()))) {
+                DaemonProtocol.Connection c = sendRequest(server, client);
+                c.onDisconnect(() -> notified.complete(null));
+                c.exit(0);
+                c.close();
+                Thread.sleep(500);
+                assertFalse("Closed by the daemon at the end of the run", notified.isDone());
+            }
+        }
+    }
+
+    private static DaemonProtocol.Connection sendRequest(DaemonProtocol.Server server, SocketChannel client) throws IOException {
+        DataOutputStream out = new DataOutputStream(Channels.newOutputStream(client));
+        out.writeInt(DaemonProtocol.VERSION);
+        out.writeUTF(new File("").getAbsolutePath());
+        out.writeInt(0);
+        out.flush();
+        return server.accept();
+    }
+
+    @Test
+    public void parsesRunRelativeToTheClient() throws Exception {
+        File cwd = tmp.newFolder("project");
+        assertTrue(new File(cwd, "Jenkinsfile").createNewFile());
+        ServeCommand serve = new ServeCommand();
+        new CommandLine(serve).parseArgs("-w", new File(cwd, "jenkins.war").getPath(), "--skipShutdown");
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PrintStream errStream = new PrintStream(err, true, StandardCharsets.UTF_8);
+
+        PipelineRunOptions options = serve.parseRun(new DaemonProtocol.Request(cwd, Arrays.asList("-a", "A=", "--job-name=", "-w", "./jenkins.war", "--daemon")), errStream);
+        assertNotNull(options);
+        assertEquals(new File(cwd, "Jenkinsfile"), options.jenkinsfile);
+        assertEquals("job", options.jobName);
+        assertEquals("", options.workflowParameters.get("A"));
+        assertEquals("", err.toString(StandardCharsets.UTF_8));
+
+        assertNull("Different launcher options", serve.parseRun(new DaemonProtocol.Request(cwd, Arrays.asList("-w", "other.war")), errStream));
+        assertTrue(err.toString(StandardCharsets.UTF_8).contains("--jenkins-war"));
+        assertNull(serve.parseRun(new DaemonProtocol.Request(cwd, Arrays.asList("--tmpfs", "auto")), errStream));
+        assertNull(serve.parseRun(new DaemonProtocol.Request(cwd, Arrays.asList("--runWorkspace", "ws")), errStream));
+        assertNull(serve.parseRun(new DaemonProtocol.Request(cwd, Arrays.asList("-f", "missing")), errStream));
+        assertNull(serve.parseRun(new DaemonProtocol.Request(cwd, Arrays.asList("--unknown")), errStream));
+    }
+}
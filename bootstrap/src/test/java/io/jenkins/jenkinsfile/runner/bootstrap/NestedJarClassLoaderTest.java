@@ -0,0 +1,130 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class NestedJarClassLoaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void loadsClassesAndResourcesFromNestedJars() throws Exception {
+        String classEntry = SideClassLoader.class.getName().replace('.', '/') + ".class";
+        byte[] classBytes;
+        try (InputStream is = SideClassLoader.class.getResourceAsStream("/" + classEntry)) {
+            classBytes = IOUtils.toByteArray(is);
+        }
+
+        File war = tmp.newFile("jenkins.war");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war))) {
+            zos.putNextEntry(new ZipEntry("WEB-INF/web.xml"));
+            zos.write("<web-app/>".getBytes(StandardCharsets.UTF_8));
+            // Stored jar, read in place from the mapped WAR
+            putStored(zos, "WEB-INF/lib/first.jar", jar(classEntry, classBytes, "hello.txt", "first"));
+            // Deflated jar, inflated once
+            zos.putNextEntry(new ZipEntry("WEB-INF/lib/second.jar"));
+            zos.write(jar("other.txt", "other".getBytes(StandardCharsets.UTF_8), "hello.txt", "second"));
+            zos.putNextEntry(new ZipEntry("WEB-INF/plugins/ignored.jar"));
+            zos.write(jar("ignored.txt", new byte[1], "hello.txt", "ignored"));
+        }
+
+        try (NestedJarClassLoader cl = (NestedJarClassLoader) new ClassLoaderBuilder(ClassLoader.getPlatformClassLoader())
+                .collectNestedJars(war, "WEB-INF/lib/")
+                .make()) {
+            Class<?> c = cl.loadClass(SideClassLoader.class.getName());
+            assertSame(cl, c.getClassLoader());
+
+            assertEquals("first", read(cl.getResource("hello.txt")));
+            assertEquals("other", read(cl.getResource("other.txt")));
+            List<URL> all = Collections.list(cl.getResources("hello.txt"));
+            assertEquals(2, all.size());
+            assertEquals("second", read(all.get(1)));
+            assertNull(cl.getResource("ignored.txt"));
+            assertNull(cl.getResource("WEB-INF/web.xml"));
+        }
+    }
+
+    @Test
+    public void loadsVersionedEntriesOfMultiReleaseJars() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zos.write("Manifest-Version: 1.0\r\nMulti-Release: true\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            zos.putNextEntry(new ZipEntry("v.txt"));
+            zos.write("base".getBytes(StandardCharsets.UTF_8));
+            zos.putNextEntry(new ZipEntry("META-INF/versions/9/v.txt"));
+            zos.write("9".getBytes(StandardCharsets.UTF_8));
+            zos.putNextEntry(new ZipEntry("META-INF/versions/9999/v.txt"));
+            zos.write("future".getBytes(StandardCharsets.UTF_8));
+            zos.putNextEntry(new ZipEntry("META-INF/versions/9/only9.txt"));
+            zos.write("only".getBytes(StandardCharsets.UTF_8));
+        }
+        File war = tmp.newFile("jenkins.war");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war))) {
+            zos.putNextEntry(new ZipEntry("WEB-INF/lib/first.jar"));
+            zos.write(jar("other.txt", new byte[1], "v.txt", "first"));
+            zos.putNextEntry(new ZipEntry("WEB-INF/lib/mr.jar"));
+            zos.write(bos.toByteArray());
+        }
+
+        try (NestedJarClassLoader cl = (NestedJarClassLoader) new ClassLoaderBuilder(ClassLoader.getPlatformClassLoader())
+                .collectNestedJars(war, "WEB-INF/lib/")
+                .make()) {
+            List<URL> all = Collections.list(cl.getResources("v.txt"));
+            assertEquals(2, all.size());
+            assertEquals("first", read(all.get(0)));
+            assertEquals("9", read(all.get(1)));
+            assertEquals("only", read(cl.getResource("only9.txt")));
+        }
+    }
+
+    private static String read(URL url) throws IOException {
+        try (InputStream is = url.openStream()) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] jar(String name, byte[] content, String textName, String text) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bos)) {
+            zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zos.write("Manifest-Version: 1.0\r\nImplementation-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            zos.putNextEntry(new ZipEntry(name));
+            zos.write(content);
+            zos.putNextEntry(new ZipEntry(textName));
+            zos.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bos.toByteArray();
+    }
+
+    private static void putStored(ZipOutputStream zos, String name, byte[] content) throws IOException {
+        ZipEntry e = new ZipEntry(name);
+        e.setMethod(ZipEntry.STORED);
+        e.setSize(content.length);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        e.setCrc(crc.getValue());
+        zos.putNextEntry(e);
+        zos.write(content);
+    }
+}
@@ -0,0 +1,105 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class PackageIndexClassLoaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void loadsOnlyFromIndexedPackages() throws Exception {
+        String classEntry = SideClassLoader.class.getName().replace('.', '/') + ".class";
+        byte[] classBytes;
+        try (InputStream is = SideClassLoader.class.getResourceAsStream("/" + classEntry)) {
+            classBytes = IOUtils.toByteArray(is);
+        }
+        File lib = tmp.newFolder("lib");
+        jar(new File(lib, "a.jar"), classEntry, classBytes, "conf/hello.txt", "first");
+        jar(new File(tmp.newFolder("lib", "nested"), "b.jar"), "other.txt", "other".getBytes(StandardCharsets.UTF_8), "conf/hello.txt", "second");
+        File indexCache = new File(tmp.getRoot(), "index");
+
+        for (int run = 0; run < 2; run++) {
+            try (PackageIndexClassLoader cl = (PackageIndexClassLoader) new ClassLoaderBuilder(ClassLoader.getPlatformClassLoader())
+                    .collectJars(lib)
+                    .withIndexCache(indexCache)
+                    .make()) {
+                Class<?> c = cl.loadClass(SideClassLoader.class.getName());
+                assertSame(cl, c.getClassLoader());
+                assertEquals(SideClassLoader.class.getPackage().getName(), c.getPackage().getName());
+
+                assertEquals("first", read(cl.getResource("conf/hello.txt")));
+                assertEquals("other", read(cl.getResource("other.txt")));
+                List<URL> all = Collections.list(cl.getResources("conf/hello.txt"));
+                assertEquals(2, all.size());
+                assertEquals("second", read(all.get(1)));
+                assertEquals(4, cl.getHitCount());
+
+                assertNull(cl.getResource("unknown/package/file.txt"));
+                try {
+                    cl.loadClass("org.example.Missing");
+                    fail("Not on the classpath");
+                } catch (ClassNotFoundException e) {
+                    // expected
+                }
+                assertEquals(2, cl.getMissCount());
+                assertEquals(2, cl.getURLs().length);
+            }
+            // The second run uses the persisted index
+            assertEquals(1, indexCache.list().length);
+        }
+    }
+
+    @Test
+    public void fallsBackToUnindexedClassLoader() throws Exception {
+        File lib = tmp.newFolder("lib");
+        jar(new File(lib, "a.jar"), "other.txt", "other".getBytes(StandardCharsets.UTF_8), "conf/hello.txt", "first");
+        Files.write(new File(lib, "broken.jar").toPath(), "not a zip".getBytes(StandardCharsets.UTF_8));
+
+        try (URLClassLoader cl = (URLClassLoader) new ClassLoaderBuilder(ClassLoader.getPlatformClassLoader())
+                .collectJars(lib)
+                .make()) {
+            assertFalse(cl instanceof PackageIndexClassLoader);
+            assertEquals("first", read(cl.getResource("conf/hello.txt")));
+        }
+    }
+
+    private static String read(URL url) throws IOException {
+        try (InputStream is = url.openStream()) {
+            return IOUtils.toString(is, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void jar(File file, String name, byte[] content, String textName, String text) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+            zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zos.write("Manifest-Version: 1.0\r\nImplementation-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            zos.putNextEntry(new ZipEntry(name));
+            zos.write(content);
+            zos.putNextEntry(new ZipEntry(textName));
+            zos.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PluginResolverTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** Any download attempt fails, everything must come from the cache or the update center. */
+    private static final UnaryOperator<String> OFFLINE = url -> url.replace("https://updates.jenkins.io/download", "http://localhost:1");
+
+    @Test
+    public void resolvesFromCachedManifests() throws Exception {
+        File cache = tmp.newFolder("plugins");
+        hpi(cache, "workflow-aggregator", "2.0", "workflow-job:1.5,workflow-api:1.0");
+        hpi(cache, "workflow-job", "1.5", "workflow-api:1.2,git:3.0;resolution:=optional");
+        hpi(cache, "workflow-api", "1.0", null);
+        hpi(cache, "workflow-api", "1.2", null);
+
+        try (ArtifactFetcher fetcher = new ArtifactFetcher(1)) {
+            List<PluginResolver.Plugin> plugins = new PluginResolver(cache, fetcher, OFFLINE)
+                    .resolve(Arrays.asList(PluginResolver.Plugin.parse("workflow-aggregator:2.0"), PluginResolver.Plugin.parse("workflow-api:1.0")));
+            assertEquals(Arrays.asList("workflow-aggregator:2.0", "workflow-api:1.2", "workflow-job:1.5"), names(plugins));
+            for (PluginResolver.Plugin p : plugins) {
+                assertEquals(ArtifactFetcher.digest(new File(cache, p.name + "/" + p.name + "-" + p.version + ".hpi")), p.sha256);
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void keepsRequestedVersionWhenManifestDiffers() throws Exception {
+        File cache = tmp.newFolder("plugins");
+        hpi(cache, "a", "1.0", "1.0", "b:2.0-rc1.abc");
+        hpi(cache, "b", "2.0-rc1.abc", "2.0-rc1.abc (private-12345678-user)", null);
+
+        try (ArtifactFetcher fetcher = new ArtifactFetcher(1)) {
+            List<PluginResolver.Plugin> plugins = new PluginResolver(cache, fetcher, OFFLINE)
+                    .resolve(Arrays.asList(PluginResolver.Plugin.parse("a:1.0")));
+            assertEquals(Arrays.asList("a:1.0", "b:2.0-rc1.abc"), names(plugins));
+        }
+    }
+
+    @Test
+    public void resolvesFromUpdateCenter() throws Exception {
+        File json = tmp.newFile("update-center.json");
+        Files.write(json.toPath(), ("updateCenter.post(\n{\"connectionCheckUrl\":\"https://www.google.com/\",\"plugins\":{"
+                + "\"a\":{\"name\":\"a\",\"version\":\"3.0\",\"sha256\":\"AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=\","
+                + "\"dependencies\":[{\"name\":\"b\",\"optional\":false,\"version\":\"1.1\"},{\"name\":\"c\",\"optional\":true,\"version\":\"1.0\"}]},"
+                + "\"b\":{\"name\":\"b\",\"version\":\"1.1\",\"dependencies\":[]},"
+                + "\"c\":{\"name\":\"c\",\"version\":\"1.0\",\"dependencies\":[]}}}\n);").getBytes(StandardCharsets.UTF_8));
+
+        try (ArtifactFetcher fetcher = new ArtifactFetcher(1)) {
+            List<PluginResolver.Plugin> plugins = new PluginResolver(tmp.newFolder("plugins"), fetcher, OFFLINE)
+                    .withUpdateCenter(json)
+                    .resolve(Arrays.asList(PluginResolver.Plugin.parse("a")));
+            assertEquals(Arrays.asList("a:3.0", "b:1.1"), names(plugins));
+            assertEquals(ArtifactFetcher.toHex(new byte[32]), plugins.get(0).sha256);
+        }
+    }
+
+    @Test
+    public void lockFileIsBoundToPluginsTxt() throws Exception {
+        File pluginsTxt = tmp.newFile("plugins.txt");
+        Files.write(pluginsTxt.toPath(), "# comment\n\nworkflow-job:1.5\n".getBytes(StandardCharsets.UTF_8));
+        File lock = new File(tmp.getRoot(), PluginResolver.LOCK_FILE_NAME);
+        assertNull(PluginResolver.readLock(lock, pluginsTxt));
+
+        List<PluginResolver.Plugin> plugins = Arrays.asList(new PluginResolver.Plugin("workflow-job", "1.5", "abc"), new PluginResolver.Plugin("workflow-api", "1.2", null));
+        PluginResolver.writeLock(lock, pluginsTxt, plugins);
+        List<PluginResolver.Plugin> locked = PluginResolver.readLock(lock, pluginsTxt);
+        assertNotNull(locked);
+        assertEquals(Arrays.asList("workflow-job:1.5:abc", "workflow-api:1.2"), Arrays.asList(locked.get(0).toString(), locked.get(1).toString()));
+
+        Files.write(pluginsTxt.toPath(), "workflow-job:1.6\n".getBytes(StandardCharsets.UTF_8));
+        assertNull(PluginResolver.readLock(lock, pluginsTxt));
+    }
+
+    private static List<String> names(List<PluginResolver.Plugin> plugins) {
+        return plugins.stream().map(p -> p.name + ":" + p.version).collect(Collectors.toList());
+    }
+
+    private static void hpi(File cache, String name, String version, String dependencies) throws IOException {
+        hpi(cache, name, version, version, dependencies);
+    }
+
+    private static void hpi(File cache, String name, String version, String manifestVersion, String dependencies) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Short-Name", name);
+        manifest.getMainAttributes().putValue("Plugin-Version", manifestVersion);
+        if (dependencies != null) {
+            manifest.getMainAttributes().putValue("Plugin-Dependencies", dependencies);
+        }
+        File hpi = new File(cache, name + "/" + name + "-" + version + ".hpi");
+        hpi.getParentFile().mkdirs();
+        new JarOutputStream(new FileOutputStream(hpi), manifest).close();
+    }
+}
@@ -0,0 +1,62 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.PipelineRunOptions;
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.RunManyCommand;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RunManyCommandTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void scansDirectoriesAndManifest() throws Exception {
+        File repo = tmp.newFolder("repo");
+        touch(new File(repo, "Jenkinsfile"));
+        touch(new File(repo, "services/Jenkinsfile"));
+        touch(new File(repo, "services/api v2/Jenkinsfile"));
+        touch(new File(repo, "services/web/Jenkinsfile"));
+        touch(new File(repo, ".git/Jenkinsfile"));
+        touch(new File(repo, "docs/Jenkinsfile.bak"));
+        File other = new File(tmp.getRoot(), "other/release.jenkinsfile");
+        touch(other);
+        File manifest = new File(tmp.getRoot(), "manifest.txt");
+        Files.write(manifest.toPath(), "# comment\n\nnightly=repo/services/web\nother/release.jenkinsfile\n".getBytes(StandardCharsets.UTF_8));
+
+        RunManyCommand command = new RunManyCommand();
+        new CommandLine(command).parseArgs("--manifest", manifest.getPath(), "-a", "A=", "-u", "-c", " nightly ", "--log-format=ndjson", repo.getPath());
+        List<PipelineRunOptions> runs = command.collectRuns();
+
+        assertEquals(Arrays.asList("nightly", "release", "repo", "services-2", "services/api v2"),
+                runs.stream().map(r -> r.jobName).collect(Collectors.toList()));
+        assertEquals(new File(repo, "services/web/Jenkinsfile").getAbsoluteFile(), runs.get(0).jenkinsfile.getAbsoluteFile());
+        assertEquals("", runs.get(3).workflowParameters.get("A"));
+        for (PipelineRunOptions run : runs) {
+            assertTrue(run.keepUndefinedParameters);
+            assertEquals("nightly", run.cause);
+            assertEquals("ndjson", run.logFormat);
+        }
+        runs.get(0).workflowParameters.put("B", "b");
+        assertFalse("Each run has its own parameters", runs.get(1).workflowParameters.containsKey("B"));
+    }
+
+    private static void touch(File file) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), "echo 'hello'\n".getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,65 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StartupReportTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void writesJsonTimeline() throws Exception {
+        StartupReport report = StartupReport.get();
+        try (StartupReport.Phase p = report.phase("test \"phase\"")) {
+            Thread.sleep(5);
+        }
+        OutputStream out = report.markOnFirstWrite(new ByteArrayOutputStream(), "test.firstByte");
+        out.write("a".getBytes(StandardCharsets.UTF_8));
+        out.write("b".getBytes(StandardCharsets.UTF_8));
+        report.addCounter("test.counter", () -> 42);
+
+        File file = new File(tmp.getRoot(), "report/startup.json");
+        report.write(file);
+
+        Map<String, Object> json = (Map<String, Object>) Json.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        List<Map<String, Object>> entries = (List<Map<String, Object>>) json.get("entries");
+        assertEquals("jvm", entries.get(0).get("name"));
+        Map<String, Object> phase = entries.stream().filter(e -> "test \"phase\"".equals(e.get("name"))).findFirst().get();
+        assertTrue((Double) phase.get("wallMs") >= 5);
+        assertEquals(1, entries.stream().filter(e -> "test.firstByte".equals(e.get("name"))).collect(Collectors.toList()).size());
+        assertEquals(42.0, ((Map<String, Object>) json.get("counters")).get("test.counter"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void capsEntries() throws Exception {
+        StartupReport report = new StartupReport(3);
+        for (int i = 0; i < 5; i++) {
+            report.mark("run" + i, "milestone");
+        }
+
+        File file = new File(tmp.getRoot(), "startup.json");
+        report.write(file);
+
+        Map<String, Object> json = (Map<String, Object>) Json.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        List<Map<String, Object>> entries = (List<Map<String, Object>>) json.get("entries");
+        assertEquals(Arrays.asList("jvm", "run0", "run1"), entries.stream().map(e -> e.get("name")).collect(Collectors.toList()));
+        assertEquals(3.0, json.get("droppedEntries"));
+    }
+}
@@ -0,0 +1,126 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WarCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void reusesExplodedWar() throws IOException {
+        File war = createWar("test.war", "1");
+        WarCache cache = new WarCache(tmp.newFolder("cache"));
+
+        File first = cache.explode(war);
+        assertTrue(new File(first, "WEB-INF/web.xml").isFile());
+        File marker = new File(first, WarCache.COMPLETE_MARKER);
+        assertTrue(marker.setLastModified(1000L));
+
+        File second = cache.explode(war);
+        assertEquals(first, second);
+        assertEquals("The cached directory should not be extracted again", 1000L, marker.lastModified());
+
+        File other = cache.explode(createWar("other.war", "2"));
+        assertNotEquals(first, other);
+    }
+
+    @Test
+    public void sharesSingleCopyBetweenConcurrentCallers() throws Exception {
+        File war = createWar("test.war", "1");
+        File root = tmp.newFolder("cache");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<File>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> new WarCache(root).explode(war)));
+            }
+            Set<File> dirs = new HashSet<>();
+            for (Future<File> f : results) {
+                dirs.add(f.get());
+            }
+            assertEquals(1, dirs.size());
+        } finally {
+            pool.shutdownNow();
+        }
+        String[] staging = root.list((dir, name) -> name.contains(".staging"));
+        assertEquals(0, staging.length);
+    }
+
+    @Test
+    public void makesCachedFilesReadOnly() throws IOException {
+        File dir = new WarCache(tmp.newFolder("cache")).explode(createWar("test.war", "1"));
+        File webXml = new File(dir, "WEB-INF/web.xml");
+        if (File.pathSeparatorChar == ':') {
+            assertFalse(Files.getPosixFilePermissions(webXml.toPath()).contains(PosixFilePermission.OWNER_WRITE));
+        } else {
+            assertFalse(webXml.canWrite());
+        }
+    }
+
+    @Test
+    public void evictsUnusedWars() throws IOException {
+        File root = tmp.newFolder("cache");
+        WarCache cache = new WarCache(root);
+        // Left by a process which exited
+        File old = new File(root, String.join("", Collections.nCopies(64, "a")));
+        assertTrue(new File(old, "WEB-INF").mkdirs());
+        assertTrue(new File(old, WarCache.COMPLETE_MARKER).createNewFile());
+        File recentWar = createWar("recent.war", "2");
+        File recent = cache.explode(recentWar);
+        assertTrue(old.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31)));
+
+        File reused = cache.explode(recentWar);
+        assertEquals(recent, reused);
+        assertTrue("Only the extraction of a new WAR evicts", old.isDirectory());
+
+        cache.explode(createWar("new.war", "3"));
+        assertFalse(old.exists());
+        assertTrue(recent.isDirectory());
+    }
+
+    @Test
+    public void keepsWarsInUse() throws IOException {
+        File root = tmp.newFolder("cache");
+        File used = new WarCache(root).explode(createWar("used.war", "1"));
+        // E.g. a daemon started more than the maximum age ago
+        assertTrue(used.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31)));
+
+        new WarCache(root).explode(createWar("new.war", "2"));
+        assertTrue("The lock of the WAR is held until the JVM exits", new File(used, "WEB-INF/web.xml").isFile());
+    }
+
+    private File createWar(String name, String content) throws IOException {
+        File war = tmp.newFile(name);
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war))) {
+            zos.putNextEntry(new ZipEntry("WEB-INF/web.xml"));
+            zos.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return war;
+    }
+}
@@ -0,0 +1,66 @@
+package io.jenkins.jenkinsfile.runner.bootstrap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WarExtractorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void extractsAllEntries() throws IOException {
+        File war = tmp.newFile("test.war");
+        byte[] big = new byte[1024 * 1024 + 17];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = (byte) i;
+        }
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war))) {
+            zos.putNextEntry(new ZipEntry("WEB-INF/"));
+            zos.putNextEntry(new ZipEntry("WEB-INF/web.xml"));
+            zos.write("<web-app/>".getBytes(StandardCharsets.UTF_8));
+            // No explicit directory entry for the parent
+            zos.putNextEntry(new ZipEntry("WEB-INF/lib/big.jar"));
+            zos.write(big);
+            zos.putNextEntry(new ZipEntry("empty/"));
+        }
+
+        File dest = tmp.newFolder("exploded");
+        WarExtractor.Result result = new WarExtractor(war).withThreads(4).extractTo(dest);
+
+        assertEquals(2, result.getFiles());
+        assertEquals(10 + big.length, result.getBytes());
+        assertEquals("<web-app/>", new String(Files.readAllBytes(new File(dest, "WEB-INF/web.xml").toPath()), StandardCharsets.UTF_8));
+        assertArrayEquals(big, Files.readAllBytes(new File(dest, "WEB-INF/lib/big.jar").toPath()));
+        assertTrue(new File(dest, "empty").isDirectory());
+    }
+
+    @Test
+    public void rejectsEntriesOutsideOfTarget() throws IOException {
+        File war = tmp.newFile("evil.war");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(war))) {
+            zos.putNextEntry(new ZipEntry("../evil.txt"));
+            zos.write(1);
+        }
+        try {
+            new WarExtractor(war).extractTo(tmp.newFolder("exploded"));
+            fail("Extraction should have failed");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("../evil.txt"));
+        }
+    }
+}
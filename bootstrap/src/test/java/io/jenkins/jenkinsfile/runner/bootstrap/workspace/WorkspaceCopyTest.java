@@ -0,0 +1,152 @@
+package io.jenkins.jenkinsfile.runner.bootstrap.workspace;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WorkspaceCopyTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @After
+    public void discardPrefetch() {
+        WorkspacePrefetch.discard();
+    }
+
+    @Test
+    public void copiesFiles() throws Exception {
+        Path src = tmp.newFolder("src").toPath();
+        Path ws = tmp.newFolder("ws").toPath();
+        write(src.resolve("a/one.txt"), "1");
+        write(src.resolve("three.txt"), "333");
+
+        WorkspaceCopy copy = WorkspaceCopy.copy(src, ws, "copy", WorkspaceCopy.ALL);
+        assertEquals("copy", copy.getStrategy());
+        assertEquals(4, copy.getBytesCopied());
+        assertEquals("1", read(ws.resolve("a/one.txt")));
+        assertEquals("333", read(ws.resolve("three.txt")));
+    }
+
+    @Test
+    public void copiesOnlyChangesIntoReusedWorkspace() throws Exception {
+        Path src = tmp.newFolder("src").toPath();
+        Path ws = tmp.newFolder("ws").toPath();
+        write(src.resolve("a/one.txt"), "1");
+        write(src.resolve("a/two.txt"), "2");
+        write(src.resolve("three.txt"), "3");
+
+        WorkspaceCopy first = WorkspaceCopy.copy(src, ws, "copy", WorkspaceCopy.ALL);
+        assertEquals(3, first.getBytesCopied());
+        assertEquals("The first checkout has no changes", Collections.emptyList(), first.getChanges());
+
+        write(src.resolve("a/one.txt"), "11");
+        Files.delete(src.resolve("a/two.txt"));
+        write(src.resolve("four.txt"), "4");
+        // Touched only, the content is compared
+        Files.setLastModifiedTime(src.resolve("three.txt"), FileTime.fromMillis(1000L));
+        write(ws.resolve("output.txt"), "created by the run");
+
+        WorkspaceCopy second = WorkspaceCopy.copy(src, ws, "copy", WorkspaceCopy.ALL);
+        assertEquals(Arrays.asList("M a/one.txt", "D a/two.txt", "A four.txt"), second.getChanges());
+        assertEquals(3, second.getBytesCopied());
+        assertEquals("11", read(ws.resolve("a/one.txt")));
+        assertFalse(Files.exists(ws.resolve("a/two.txt")));
+        assertTrue("Files created by the runs are kept", Files.exists(ws.resolve("output.txt")));
+
+        write(ws.resolve("a/one.txt"), "modified by the run");
+        WorkspaceCopy third = WorkspaceCopy.copy(src, ws, "copy", WorkspaceCopy.ALL);
+        assertEquals("Restoring a file is not a change", Collections.emptyList(), third.getChanges());
+        assertEquals("11", read(ws.resolve("a/one.txt")));
+    }
+
+    @Test
+    public void keepsFilesOutsideOfTheWorkspace() throws Exception {
+        Path src = tmp.newFolder("src").toPath();
+        Path ws = tmp.newFolder("ws").toPath();
+        write(src.resolve("a/one.txt"), "1");
+        WorkspaceCopy.copy(src, ws, "copy", WorkspaceCopy.ALL);
+
+        Path outside = tmp.getRoot().toPath().resolve("outside.txt");
+        write(outside, "not checked out");
+        String manifest = read(ws.resolve(WorkspaceManifest.NAME));
+        for (String path : new String[] {"../outside.txt", "a/../../outside.txt", outside.toString(), ".", "a/./one.txt"}) {
+            manifest += "1\t1\t1\t1\t-\t" + path + "\n";
+        }
+        write(ws.resolve(WorkspaceManifest.NAME), manifest);
+        Files.delete(src.resolve("a/one.txt"));
+        write(src.resolve("two.txt"), "2");
+
+        WorkspaceCopy second = WorkspaceCopy.copy(src, ws, "copy", WorkspaceCopy.ALL);
+        assertEquals(Arrays.asList("D a/one.txt", "A two.txt"), second.getChanges());
+        assertTrue(Files.exists(outside));
+        assertTrue(Files.isDirectory(ws));
+        assertFalse(Files.exists(ws.resolve("a/one.txt")));
+    }
+
+    @Test
+    public void linksFiles() throws Exception {
+        Path src = tmp.newFolder("src").toPath();
+        Path ws = tmp.newFolder("ws").toPath();
+        write(src.resolve("a.txt"), "a");
+
+        WorkspaceCopy copy = WorkspaceCopy.copy(src, ws, "hardlink", WorkspaceCopy.ALL);
+        assertEquals("hardlink", copy.getStrategy());
+        assertEquals(0, copy.getBytesCopied());
+        assertTrue(Files.isSameFile(src.resolve("a.txt"), ws.resolve("a.txt")));
+    }
+
+    @Test
+    public void adoptsStagedPrefetch() throws Exception {
+        File src = tmp.newFolder("src");
+        write(src.toPath().resolve("Jenkinsfile"), "node {}");
+        File staging = tmp.newFolder("staging");
+        Path ws = tmp.getRoot().toPath().resolve("home/workspace/job");
+
+        WorkspacePrefetch.start(src, null, staging, "copy");
+        assertNull("Another strategy is checked out again", WorkspacePrefetch.adopt(src.toPath(), ws, "hardlink"));
+        WorkspaceCopy copy = WorkspacePrefetch.adopt(src.toPath(), ws, "copy");
+        assertNotNull(copy);
+        assertEquals("node {}", read(ws.resolve("Jenkinsfile")));
+        assertEquals("The staging directory is moved", 0, staging.list().length);
+        assertNull("It is adopted once", WorkspacePrefetch.adopt(src.toPath(), ws, "copy"));
+    }
+
+    @Test
+    public void discardsPrefetchForOtherWorkspace() throws Exception {
+        File src = tmp.newFolder("src");
+        write(src.toPath().resolve("Jenkinsfile"), "node {}");
+        File staging = tmp.newFolder("staging");
+        Path ws = tmp.newFolder("ws").toPath();
+        write(ws.resolve("left.txt"), "by a previous run");
+
+        WorkspacePrefetch.start(src, null, staging, "copy");
+        assertNull(WorkspacePrefetch.adopt(src.toPath(), ws, "copy"));
+        assertEquals(0, staging.list().length);
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,300 @@
+package io.jenkins.jenkinsfile.runner;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Util;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import io.jenkins.jenkinsfile.runner.bootstrap.workspace.WorkspaceCopy;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the files of a {@link FileSystemSCM} checkout.
+ *
+ * <ul>
+ *     <li>Includes and excludes are comma or space separated Ant patterns, relative to the checked out directory.
+ *         An excluded directory is skipped with its content.</li>
+ *     <li>With the ignore files, the {@code .gitignore} and {@code .jfrignore} files of each directory apply
+ *         to its content like in Git: the deepest file wins, then the last matching line, {@code !} re-includes.
+ *         {@code .git} is skipped too.</li>
+ * </ul>
+ * A directory is only read if it is not skipped, so the excluded trees are never walked.
+ */
+final class CheckoutFilter implements WorkspaceCopy.Filter, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final List<String> IGNORE_FILES = Arrays.asList(".gitignore", ".jfrignore");
+
+    private final List<String> includes;
+    private final List<String> excludes;
+    private final boolean useIgnoreFiles;
+
+    CheckoutFilter(@CheckForNull String includes, @CheckForNull String excludes, boolean useIgnoreFiles) {
+        this.includes = split(includes);
+        this.excludes = split(excludes);
+        this.useIgnoreFiles = useIgnoreFiles;
+    }
+
+    private static List<String> split(@CheckForNull String patterns) {
+        if (Util.fixEmptyAndTrim(patterns) == null) {
+            return Collections.emptyList();
+        }
+        List<String> list = new ArrayList<>();
+        for (String p : patterns.trim().split("[,\\s]+")) {
+            // Like in Ant, "dir/" stands for "dir/**"
+            list.add(p.endsWith("/") ? p + "**" : p);
+        }
+        return list;
+    }
+
+    @Override
+    public boolean isAll() {
+        return includes.isEmpty() && excludes.isEmpty() && !useIgnoreFiles;
+    }
+
+    @Override
+    public Scope root(Path dir) throws IOException {
+        return new Scope(null, "").load(dir);
+    }
+
+    /**
+     * Scans the selected files, for the workspaces which are not local.
+     */
+    DirScanner scanner() {
+        return new Scanner(this);
+    }
+
+    /**
+     * Rules applying in a directory: the includes and excludes, and the ignore files of the directory and its parents.
+     */
+    final class Scope implements WorkspaceCopy.Directory {
+        @CheckForNull
+        private final Scope parent;
+        /** Path of the directory relative to the checked out directory, ending with a slash unless empty. */
+        private final String path;
+        private List<IgnoreRule> rules = Collections.emptyList();
+
+        private Scope(@CheckForNull Scope parent, String path) {
+            this.parent = parent;
+            this.path = path;
+        }
+
+        private Scope load(Path dir) throws IOException {
+            if (!useIgnoreFiles) {
+                return this;
+            }
+            List<IgnoreRule> loaded = new ArrayList<>();
+            for (String name : IGNORE_FILES) {
+                Path file = dir.resolve(name);
+                if (Files.isRegularFile(file)) {
+                    for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                        IgnoreRule rule = IgnoreRule.parse(line);
+                        if (rule != null) {
+                            loaded.add(rule);
+                        }
+                    }
+                }
+            }
+            if (!loaded.isEmpty()) {
+                rules = loaded;
+            }
+            return this;
+        }
+
+        @Override
+        public Scope enter(Path dir, String name) throws IOException {
+            return new Scope(this, path + name + "/").load(dir);
+        }
+
+        @Override
+        public boolean acceptsDirectory(String name) {
+            String relative = path + name;
+            if (useIgnoreFiles && name.equals(".git")) {
+                return false;
+            }
+            for (String exclude : excludes) {
+                if (SelectorUtils.matchPath(exclude, relative)
+                        || exclude.endsWith("/**") && SelectorUtils.matchPath(exclude.substring(0, exclude.length() - 3), relative)) {
+                    return false;
+                }
+            }
+            if (!includes.isEmpty()) {
+                boolean couldHoldIncluded = false;
+                for (String include : includes) {
+                    if (SelectorUtils.matchPatternStart(include, relative)) {
+                        couldHoldIncluded = true;
+                        break;
+                    }
+                }
+                if (!couldHoldIncluded) {
+                    return false;
+                }
+            }
+            return !isIgnored(relative, true);
+        }
+
+        @Override
+        public boolean acceptsFile(String name) {
+            String relative = path + name;
+            for (String exclude : excludes) {
+                if (SelectorUtils.matchPath(exclude, relative)) {
+                    return false;
+                }
+            }
+            if (!includes.isEmpty()) {
+                boolean included = false;
+                for (String include : includes) {
+                    if (SelectorUtils.matchPath(include, relative)) {
+                        included = true;
+                        break;
+                    }
+                }
+                if (!included) {
+                    return false;
+                }
+            }
+            return !isIgnored(relative, false);
+        }
+
+        private boolean isIgnored(String relative, boolean directory) {
+            for (Scope s = this; s != null; s = s.parent) {
+                String local = relative.substring(s.path.length());
+                for (int i = s.rules.size() - 1; i >= 0; i--) {
+                    IgnoreRule rule = s.rules.get(i);
+                    if (rule.matches(local, directory)) {
+                        return !rule.negated;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Line of an ignore file, in the syntax of {@code .gitignore}.
+     */
+    static final class IgnoreRule {
+        final Pattern pattern;
+        final boolean negated;
+        final boolean directoryOnly;
+        /** Whether the pattern applies to the path relative to the ignore file, not to the name at any depth. */
+        final boolean anchored;
+
+        private IgnoreRule(Pattern pattern, boolean negated, boolean directoryOnly, boolean anchored) {
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.anchored = anchored;
+        }
+
+        @CheckForNull
+        static IgnoreRule parse(String line) {
+            String s = line;
+            // Trailing spaces are ignored unless escaped
+            while (s.endsWith(" ") && !s.endsWith("\\ ")) {
+                s = s.substring(0, s.length() - 1);
+            }
+            if (s.isEmpty() || s.startsWith("#")) {
+                return null;
+            }
+            boolean negated = s.startsWith("!");
+            if (negated || s.startsWith("\\!") || s.startsWith("\\#")) {
+                s = s.substring(1);
+            }
+            boolean directoryOnly = s.endsWith("/");
+            if (directoryOnly) {
+                s = s.substring(0, s.length() - 1);
+            }
+            boolean anchored = s.contains("/");
+            if (s.startsWith("/")) {
+                s = s.substring(1);
+            }
+            if (s.isEmpty()) {
+                return null;
+            }
+            return new IgnoreRule(Pattern.compile(toRegex(s)), negated, directoryOnly, anchored);
+        }
+
+        boolean matches(String relative, boolean directory) {
+            if (directoryOnly && !directory) {
+                return false;
+            }
+            if (anchored) {
+                return pattern.matcher(relative).matches();
+            }
+            return pattern.matcher(relative.substring(relative.lastIndexOf('/') + 1)).matches();
+        }
+
+        private static String toRegex(String glob) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*' && glob.startsWith("**/", i)) {
+                    sb.append("(?:.*/)?");
+                    i += 2;
+                } else if (c == '*' && glob.startsWith("**", i)) {
+                    sb.append(".*");
+                    i++;
+                } else if (c == '*') {
+                    sb.append("[^/]*");
+                } else if (c == '?') {
+                    sb.append("[^/]");
+                } else if (c == '[' && glob.indexOf(']', i + 1) != -1) {
+                    int end = glob.indexOf(']', i + 1);
+                    String set = glob.substring(i + 1, end);
+                    sb.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set).append(']');
+                    i = end;
+                } else if (c == '\\' && i + 1 < glob.length()) {
+                    sb.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                } else {
+                    sb.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final class Scanner extends DirScanner {
+        private static final long serialVersionUID = 1L;
+
+        private final CheckoutFilter filter;
+
+        Scanner(CheckoutFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public void scan(File dir, FileVisitor visitor) throws IOException {
+            scan(dir, filter.root(dir.toPath()), visitor);
+        }
+
+        private void scan(File dir, Scope scope, FileVisitor visitor) throws IOException {
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return;
+            }
+            for (File child : children) {
+                String name = child.getName();
+                if (child.isDirectory() && !Files.isSymbolicLink(child.toPath())) {
+                    if (scope.acceptsDirectory(name)) {
+                        scan(child, scope.enter(child.toPath(), name), visitor);
+                    }
+                } else if (scope.acceptsFile(name)) {
+                    scanSingle(child, scope.path + name, visitor);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package io.jenkins.jenkinsfile.runner;
+
+import com.google.common.util.concurrent.FutureCallback;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Job;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowExecution;
+import org.jenkinsci.plugins.workflow.cps.CpsThreadGroup;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionListener;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
+import org.jenkinsci.plugins.workflow.support.storage.FlowNodeStorage;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Flow node storage of {@code --durability=ephemeral}, keeping the nodes and their actions in memory only.
+ *
+ * The runs of Jenkinsfile Runner never resume, so nothing is written to {@code workflow/} in the build directory,
+ * neither for each step nor when the run completes.
+ * {@link CpsFlowExecution} does not let plugins choose its storage, so it is swapped once the execution is running,
+ * on the CPS VM thread and holding the lock of the execution, keeping the nodes created so far.
+ * If the internals of {@link CpsFlowExecution} changed, the run keeps the default storage.
+ */
+public final class EphemeralFlowNodeStorage extends FlowNodeStorage {
+
+    private static final Logger LOGGER = Logger.getLogger(EphemeralFlowNodeStorage.class.getName());
+
+    /** Full names of the jobs whose next run uses this storage. */
+    private static final Set<String> ENABLED = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, FlowNode> nodes = new ConcurrentHashMap<>();
+    private final Map<String, List<Action>> actions = new ConcurrentHashMap<>();
+
+    public static void enable(@NonNull Job<?, ?> job) {
+        ENABLED.add(job.getFullName());
+    }
+
+    public static void disable(@NonNull Job<?, ?> job) {
+        ENABLED.remove(job.getFullName());
+    }
+
+    @CheckForNull
+    @Override
+    public FlowNode getNode(@NonNull String id) {
+        return nodes.get(id);
+    }
+
+    @Override
+    public void storeNode(@NonNull FlowNode n) {
+        nodes.put(n.getId(), n);
+    }
+
+    @Override
+    public void storeNode(@NonNull FlowNode n, boolean delayWritingActions) {
+        storeNode(n);
+    }
+
+    @NonNull
+    @Override
+    public List<Action> loadActions(@NonNull FlowNode node) {
+        List<Action> list = actions.get(node.getId());
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    @Override
+    public void saveActions(@NonNull FlowNode node, @NonNull List<Action> list) {
+        actions.put(node.getId(), new ArrayList<>(list));
+    }
+
+    @Override
+    public void flush() {
+        // Nothing to write
+    }
+
+    @Override
+    public void flushNode(@NonNull FlowNode node) {
+        // Nothing to write
+    }
+
+    @Override
+    public void autopersist(@NonNull FlowNode node) {
+        // Nothing to write
+    }
+
+    @Extension
+    public static class Installer extends FlowExecutionListener {
+        @Override
+        public void onRunning(@NonNull FlowExecution execution) {
+            if (!(execution instanceof CpsFlowExecution) || !ENABLED.contains(LogTailer.jobOf(execution.getOwner()))) {
+                return;
+            }
+            CpsFlowExecution cps = (CpsFlowExecution) execution;
+            // The program is already scheduled: nodes are only created on the CPS VM thread, so no node is stored during the swap
+            cps.runInCpsVmThread(new FutureCallback<CpsThreadGroup>() {
+                @Override
+                public void onSuccess(CpsThreadGroup g) {
+                    synchronized (cps) {
+                        install(cps);
+                    }
+                }
+
+                @Override
+                public void onFailure(@NonNull Throwable t) {
+                    LOGGER.log(Level.WARNING, "Could not install the ephemeral flow node storage, the flow nodes are persisted", t);
+                }
+            });
+        }
+
+        private static void install(CpsFlowExecution execution) {
+            try {
+                // CpsFlowExecution.storage wraps the actual storage to time it
+                Field storageField = CpsFlowExecution.class.getDeclaredField("storage");
+                storageField.setAccessible(true);
+                Object timing = storageField.get(execution);
+                Field delegateField = timing.getClass().getDeclaredField("delegate");
+                delegateField.setAccessible(true);
+
+                EphemeralFlowNodeStorage ephemeral = new EphemeralFlowNodeStorage();
+                for (FlowNode node : new DepthFirstScanner().allNodes(execution.getCurrentHeads())) {
+                    ephemeral.storeNode(node);
+                    ephemeral.saveActions(node, node.getActions());
+                }
+                delegateField.set(timing, ephemeral);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Could not install the ephemeral flow node storage, the flow nodes are persisted", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.jenkins.jenkinsfile.runner;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Run;
+import hudson.model.User;
+import hudson.scm.ChangeLogParser;
+import hudson.scm.ChangeLogSet;
+import hudson.scm.EditType;
+import hudson.scm.RepositoryBrowser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Files changed since the previous {@link FileSystemSCM} checkout into the same workspace,
+ * e.g. for {@code when { changeset "src/**" }} in Declarative Pipelines.
+ * The changes are a single entry, there are no commits.
+ */
+public final class FileSystemChangeLogSet extends ChangeLogSet<FileSystemChangeLogSet.Entry> {
+
+    private final List<Entry> entries;
+
+    FileSystemChangeLogSet(Run<?, ?> run, @CheckForNull RepositoryBrowser<?> browser, List<AffectedPath> paths) {
+        super(run, browser);
+        this.entries = paths.isEmpty() ? Collections.emptyList() : Collections.singletonList(new Entry(this, paths));
+    }
+
+    @Override
+    public boolean isEmptySet() {
+        return entries.isEmpty();
+    }
+
+    @Override
+    public Iterator<Entry> iterator() {
+        return entries.iterator();
+    }
+
+    @Override
+    public String getKind() {
+        return "filesystem";
+    }
+
+    public static final class Entry extends ChangeLogSet.Entry {
+        private final List<AffectedPath> paths;
+
+        Entry(FileSystemChangeLogSet parent, List<AffectedPath> paths) {
+            this.paths = paths;
+            setParent(parent);
+        }
+
+        @Override
+        public String getMsg() {
+            return paths.size() + " files changed since the previous checkout";
+        }
+
+        @Override
+        public User getAuthor() {
+            return User.getUnknown();
+        }
+
+        @Override
+        public Collection<String> getAffectedPaths() {
+            List<String> list = new ArrayList<>(paths.size());
+            for (AffectedPath p : paths) {
+                list.add(p.getPath());
+            }
+            return list;
+        }
+
+        @Override
+        public Collection<AffectedPath> getAffectedFiles() {
+            return paths;
+        }
+    }
+
+    public static final class AffectedPath implements ChangeLogSet.AffectedFile {
+        private final String path;
+        private final EditType editType;
+
+        AffectedPath(String path, EditType editType) {
+            this.path = path;
+            this.editType = editType;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public EditType getEditType() {
+            return editType;
+        }
+    }
+
+    /**
+     * Reads the changes written by {@link FileSystemSCM}, as {@code <A|M|D> <path>} lines.
+     */
+    static final class Parser extends ChangeLogParser {
+        @Override
+        public FileSystemChangeLogSet parse(@NonNull Run build, @CheckForNull RepositoryBrowser<?> browser, @NonNull File changelogFile) throws IOException {
+            List<AffectedPath> paths = new ArrayList<>();
+            if (changelogFile.isFile()) {
+                for (String line : Files.readAllLines(changelogFile.toPath(), StandardCharsets.UTF_8)) {
+                    if (line.length() < 3) {
+                        continue;
+                    }
+                    EditType type = line.charAt(0) == 'A' ? EditType.ADD : line.charAt(0) == 'D' ? EditType.DELETE : EditType.EDIT;
+                    paths.add(new AffectedPath(line.substring(2), type));
+                }
+            }
+            return new FileSystemChangeLogSet(build, browser, paths);
+        }
+    }
+}
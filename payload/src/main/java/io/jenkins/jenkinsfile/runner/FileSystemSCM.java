@@ -3,29 +3,43 @@ package io.jenkins.jenkinsfile.runner;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.Job;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.scm.ChangeLogParser;
-import hudson.scm.NullChangeLogParser;
 import hudson.scm.PollingResult;
 import hudson.scm.SCM;
 import hudson.scm.SCMDescriptor;
 import hudson.scm.SCMRevisionState;
 import hudson.util.DirScanner;
+import io.jenkins.jenkinsfile.runner.bootstrap.StartupReport;
+import io.jenkins.jenkinsfile.runner.bootstrap.workspace.WorkspaceCopy;
+import io.jenkins.jenkinsfile.runner.bootstrap.workspace.WorkspacePrefetch;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 /**
  * @author Kohsuke Kawaguchi
  */
 public class FileSystemSCM extends SCM {
     private final String dir;
+    @CheckForNull
+    private String checkoutStrategy;
+    @CheckForNull
+    private String includes;
+    @CheckForNull
+    private String excludes;
+    private boolean useIgnoreFiles;
 
     @DataBoundConstructor
     public FileSystemSCM(String dir) {
@@ -36,15 +50,96 @@ public class FileSystemSCM extends SCM {
         return this.dir;
     }
 
+    /**
+     * Strategy of the checkout into a local workspace, see {@link WorkspaceCopy}.
+     */
+    @NonNull
+    public String getCheckoutStrategy() {
+        return checkoutStrategy == null ? "auto" : checkoutStrategy;
+    }
+
+    @DataBoundSetter
+    public void setCheckoutStrategy(@CheckForNull String checkoutStrategy) {
+        if (checkoutStrategy != null && !WorkspaceCopy.STRATEGIES.contains(checkoutStrategy)) {
+            throw new IllegalArgumentException("Unknown checkout strategy: " + checkoutStrategy + ", expected one of " + WorkspaceCopy.STRATEGIES);
+        }
+        this.checkoutStrategy = checkoutStrategy;
+    }
+
+    /**
+     * Comma or space separated Ant patterns of the files to check out, all by default.
+     */
+    @CheckForNull
+    public String getIncludes() {
+        return includes;
+    }
+
+    @DataBoundSetter
+    public void setIncludes(@CheckForNull String includes) {
+        this.includes = Util.fixEmptyAndTrim(includes);
+    }
+
+    /**
+     * Comma or space separated Ant patterns of the files and directories not to check out.
+     */
+    @CheckForNull
+    public String getExcludes() {
+        return excludes;
+    }
+
+    @DataBoundSetter
+    public void setExcludes(@CheckForNull String excludes) {
+        this.excludes = Util.fixEmptyAndTrim(excludes);
+    }
+
+    /**
+     * Whether the files ignored by the {@code .gitignore} and {@code .jfrignore} files, and {@code .git}, are skipped.
+     */
+    public boolean isUseIgnoreFiles() {
+        return useIgnoreFiles;
+    }
+
+    @DataBoundSetter
+    public void setUseIgnoreFiles(boolean useIgnoreFiles) {
+        this.useIgnoreFiles = useIgnoreFiles;
+    }
+
     @Override
     public ChangeLogParser createChangeLogParser() {
-        return NullChangeLogParser.INSTANCE;
+        return new FileSystemChangeLogSet.Parser();
     }
 
     @Override
     public void checkout(@NonNull Run<?, ?> build, @NonNull Launcher launcher, @NonNull FilePath workspace, @NonNull TaskListener listener, @CheckForNull File changelogFile, @CheckForNull SCMRevisionState baseline) throws IOException, InterruptedException {
-        new FilePath(new File(dir == null ? "." : dir))
-                .copyRecursiveTo(new DirScanner.Glob("**/*", null, false), workspace, "**/*");
+        File source = new File(dir == null ? "." : dir);
+        CheckoutFilter filter = new CheckoutFilter(includes, excludes, useIgnoreFiles);
+        if (workspace.isRemote()) {
+            // The files are sent through the agent channel
+            new FilePath(source).copyRecursiveTo(
+                    filter.isAll() ? new DirScanner.Glob("**/*", null, false) : filter.scanner(), workspace, "**/*");
+            return;
+        }
+        if (source.getCanonicalFile().equals(new File(workspace.getRemote()).getCanonicalFile())) {
+            // --workspace-mode=in-place
+            listener.getLogger().println("Running in " + source + ", nothing to check out");
+            return;
+        }
+        WorkspaceCopy copy = filter.isAll()
+                ? WorkspacePrefetch.adopt(source.toPath(), Paths.get(workspace.getRemote()), getCheckoutStrategy())
+                : null;
+        if (copy != null) {
+            listener.getLogger().println(copy + ", while Jenkins was starting");
+        } else {
+            copy = WorkspaceCopy.copy(source.toPath(), Paths.get(workspace.getRemote()), getCheckoutStrategy(), filter);
+            listener.getLogger().println(copy);
+        }
+        if (changelogFile != null) {
+            Files.write(changelogFile.toPath(), copy.getChanges(), StandardCharsets.UTF_8);
+        }
+        // By job, several runs may check out concurrently in a daemon or with run-many
+        String job = build.getParent().getFullName();
+        StartupReport.get().addCounter("checkout." + job + ".strategy", copy::getStrategy);
+        StartupReport.get().addCounter("checkout." + job + ".bytesCopied", copy::getBytesCopied);
     }
 
     /**
@@ -0,0 +1,82 @@
+package io.jenkins.jenkinsfile.runner;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Job;
+import hudson.model.Node;
+import hudson.model.TopLevelItem;
+import hudson.slaves.WorkspaceList;
+import jenkins.model.Jenkins;
+import jenkins.slaves.WorkspaceLocator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Workspace of {@code --workspace-mode=in-place}, the directory of the Jenkinsfile itself on the built-in node,
+ * so that nothing is checked out.
+ * Agents keep their own workspaces.
+ */
+@Extension(ordinal = 100)
+public final class InPlaceWorkspace extends WorkspaceLocator {
+
+    private static final Logger LOGGER = Logger.getLogger(InPlaceWorkspace.class.getName());
+
+    /** Directories used as workspace, by full name of the job. */
+    private static final Map<String, Directory> DIRECTORIES = new ConcurrentHashMap<>();
+
+    /**
+     * Uses the directory as workspace of the job on the built-in node.
+     */
+    public static void enable(@NonNull Job<?, ?> job, @NonNull File dir) {
+        DIRECTORIES.put(job.getFullName(), new Directory(dir));
+    }
+
+    /**
+     * Stops using the directory, deleting the temporary directory Jenkins created next to it, if any.
+     */
+    public static void disable(@NonNull Job<?, ?> job) {
+        Directory d = DIRECTORIES.remove(job.getFullName());
+        if (d == null || d.tmpExisted) {
+            return;
+        }
+        FilePath tmp = WorkspaceList.tempDir(d.workspace);
+        try {
+            if (tmp != null) {
+                tmp.deleteRecursive();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not delete " + tmp, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @CheckForNull
+    @Override
+    public FilePath locate(@NonNull TopLevelItem item, @NonNull Node node) {
+        if (!(node instanceof Jenkins)) {
+            return null;
+        }
+        Directory d = DIRECTORIES.get(item.getFullName());
+        return d == null ? null : d.workspace;
+    }
+
+    private static final class Directory {
+        final FilePath workspace;
+        /** Whether {@code <dir>@tmp} existed before the run, e.g. from a run of another tool. */
+        final boolean tmpExisted;
+
+        Directory(File dir) {
+            this.workspace = new FilePath(dir);
+            FilePath tmp = WorkspaceList.tempDir(workspace);
+            this.tmpExisted = tmp == null || new File(tmp.getRemote()).exists();
+        }
+    }
+}
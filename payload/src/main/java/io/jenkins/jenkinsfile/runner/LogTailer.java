@@ -0,0 +1,283 @@
+package io.jenkins.jenkinsfile.runner;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.console.AnnotatedLargeText;
+import hudson.console.PlainTextConsoleOutputStream;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionOwner;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.log.TaskListenerDecorator;
+
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Forwards the log of a run while it is written.
+ *
+ * The log streams of the run are decorated to wake up the tailer as soon as bytes are written,
+ * and the end of the run wakes it up one last time, instead of polling the log file.
+ * Reading the log flushes the buffered log storage, so the forwarding latency is a thread wake-up.
+ * Output written by agents, where the decorator cannot reach the tailer, is picked up by a heartbeat.
+ */
+public final class LogTailer implements AutoCloseable {
+
+    /** Picks up the output which does not wake up the tailer, e.g. written on agents. */
+    private static final long HEARTBEAT_MILLIS = 1000;
+
+    /** Tailers by full name of the job, there is a single run per job at a time. */
+    private static final Map<String, LogTailer> TAILERS = new ConcurrentHashMap<>();
+
+    private final String job;
+    private boolean changed;
+    /** Set while the log is written as NDJSON. */
+    @CheckForNull
+    private volatile NdjsonLogWriter ndjson;
+
+    private LogTailer(String job) {
+        this.job = job;
+    }
+
+    /**
+     * Starts listening to the log of the next run of the job, before it is scheduled.
+     */
+    public static LogTailer listen(WorkflowJob job) {
+        LogTailer tailer = new LogTailer(job.getFullName());
+        TAILERS.put(tailer.job, tailer);
+        return tailer;
+    }
+
+    @CheckForNull
+    private static LogTailer get(String job) {
+        return TAILERS.get(job);
+    }
+
+    /**
+     * Wakes up the tailer of the job, if any.
+     */
+    static void wakeUp(String job) {
+        LogTailer tailer = get(job);
+        if (tailer != null) {
+            tailer.wakeUp();
+        }
+    }
+
+    private synchronized void wakeUp() {
+        if (!changed) {
+            changed = true;
+            notifyAll();
+        }
+    }
+
+    private synchronized void await() throws InterruptedException {
+        if (!changed) {
+            wait(HEARTBEAT_MILLIS);
+        }
+        changed = false;
+    }
+
+    /**
+     * Writes the log of the run to the stream as it grows, until the run is complete.
+     */
+    public void writeLogTo(WorkflowRun run, OutputStream out) throws IOException, InterruptedException {
+        long[] pos = {0};
+        if (!MemoryLogStorage.isUsed(run.getParent())) {
+            tail(run, complete -> {
+                AnnotatedLargeText<?> text = run.getLogText();
+                pos[0] = text.writeLogTo(pos[0], out);
+                out.flush();
+            });
+            return;
+        }
+        // Copying the whole log out of the memory storage for each read would be quadratic
+        byte[] b = new byte[64 * 1024];
+        PlainTextConsoleOutputStream plain = new PlainTextConsoleOutputStream(out);
+        tail(run, complete -> {
+            MemoryLogStorage storage = MemoryLogStorage.get(run.getParent());
+            if (storage == null) {
+                return;
+            }
+            int n;
+            while ((n = storage.readNew(pos[0], b)) > 0) {
+                plain.write(b, 0, n);
+                pos[0] += n;
+            }
+            if (complete) {
+                plain.forceEol();
+            }
+            plain.flush();
+        });
+    }
+
+    /**
+     * Writes the log of the run to the stream as NDJSON records as it grows, until the run is complete.
+     * @see NdjsonLogWriter
+     */
+    public void writeNdjsonTo(WorkflowRun run, OutputStream out) throws IOException, InterruptedException {
+        NdjsonLogWriter writer = new NdjsonLogWriter(run, out, MemoryLogStorage.isUsed(run.getParent()));
+        ndjson = writer;
+        try {
+            tail(run, writer::writeNewLines);
+        } finally {
+            ndjson = null;
+        }
+    }
+
+    private void tail(WorkflowRun run, Step step) throws IOException, InterruptedException {
+        try {
+            tailUntilComplete(run, step);
+        } finally {
+            MemoryLogStorage storage = MemoryLogStorage.get(run.getParent());
+            if (storage != null) {
+                // Writers must not wait for a tailer which stopped, e.g. on a failure of stdout
+                storage.detach();
+            }
+        }
+    }
+
+    private void tailUntilComplete(WorkflowRun run, Step step) throws IOException, InterruptedException {
+        while (true) {
+            // Checked before reading, so that the last read gets everything
+            boolean complete = !run.isLogUpdated();
+            try {
+                step.readNewLog(complete);
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                // Nothing written yet, the first write wakes us up
+                if (complete) {
+                    return;
+                }
+            }
+            if (complete) {
+                return;
+            }
+            await();
+        }
+    }
+
+    private interface Step {
+        void readNewLog(boolean complete) throws IOException;
+    }
+
+    @Override
+    public void close() {
+        TAILERS.remove(job, this);
+    }
+
+    /**
+     * Wakes up the tailer of the job after each write to the log of its run.
+     */
+    private static final class Decorator extends TaskListenerDecorator {
+        private static final long serialVersionUID = 1L;
+
+        private final String job;
+
+        Decorator(String job) {
+            this.job = job;
+        }
+
+        @NonNull
+        @Override
+        public OutputStream decorate(@NonNull OutputStream logger) {
+            return new FilterOutputStream(logger) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    wakeUp();
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    wakeUp();
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    out.flush();
+                    wakeUp();
+                }
+            };
+        }
+
+        private void wakeUp() {
+            // Not found when the decorator was sent to an agent
+            LogTailer.wakeUp(job);
+        }
+    }
+
+    @Extension
+    public static class DecoratorFactory implements TaskListenerDecorator.Factory {
+        @CheckForNull
+        @Override
+        public TaskListenerDecorator of(@NonNull FlowExecutionOwner owner) {
+            String job = jobOf(owner);
+            return get(job) != null ? new Decorator(job) : null;
+        }
+    }
+
+    /**
+     * Full name of the job of the run, without loading the run.
+     */
+    static String jobOf(FlowExecutionOwner owner) {
+        return jobOf(owner.getExternalizableId());
+    }
+
+    /**
+     * Full name of the job of a run, e.g. {@code folder/job} for {@code folder/job#1}.
+     */
+    static String jobOf(String id) {
+        int hash = id.lastIndexOf('#');
+        return hash == -1 ? id : id.substring(0, hash);
+    }
+
+    /**
+     * Describes the new flow nodes to the NDJSON writer, before their output is read.
+     */
+    @Extension
+    public static class NodeListener implements GraphListener {
+        @Override
+        public void onNewHead(FlowNode node) {
+            LogTailer tailer;
+            try {
+                tailer = get(jobOf(node.getExecution().getOwner()));
+            } catch (RuntimeException e) {
+                return;
+            }
+            NdjsonLogWriter writer = tailer == null ? null : tailer.ndjson;
+            if (writer != null) {
+                writer.onNewNode(node);
+            }
+        }
+    }
+
+    /**
+     * Wakes up the tailer when the run ends, so that it reads the rest of the log and stops.
+     */
+    @Extension
+    public static class CompletionListener extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> run, @NonNull TaskListener listener) {
+            wakeUp(run);
+        }
+
+        @Override
+        public void onFinalized(Run<?, ?> run) {
+            wakeUp(run);
+        }
+
+        private static void wakeUp(Run<?, ?> run) {
+            LogTailer.wakeUp(run.getParent().getFullName());
+        }
+    }
+}
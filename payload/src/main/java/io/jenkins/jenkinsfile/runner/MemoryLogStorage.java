@@ -0,0 +1,393 @@
+package io.jenkins.jenkinsfile.runner;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.console.AnnotatedLargeText;
+import hudson.model.BuildListener;
+import hudson.model.Job;
+import hudson.model.TaskListener;
+import hudson.model.StreamBuildListener;
+import hudson.util.StreamTaskListener;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.flow.FlowExecutionOwner;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.log.LogStorage;
+import org.jenkinsci.plugins.workflow.log.LogStorageFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Log storage of {@code --log-storage=memory}, keeping the log of a run in a bounded off-heap ring buffer
+ * instead of writing it into {@code JENKINS_HOME} and reading it back.
+ *
+ * <ul>
+ *     <li>When the log is forwarded to stdout, writers wait for the {@link LogTailer} to read the bytes
+ *         they would overwrite.</li>
+ *     <li>When the web UI is served, i.e. with {@code --httpPort}, the overwritten bytes are spilled to a file
+ *         so that the whole log stays available.</li>
+ *     <li>Otherwise only the end of the log is kept once the buffer is full.</li>
+ * </ul>
+ * The flow node of each byte is recorded like in the index of the default storage, for the step logs
+ * and {@link NdjsonLogWriter}.
+ * The buffer is {@link #release(Job) released} once the run is complete, the spill file then becomes the log
+ * of the default storage.
+ */
+public final class MemoryLogStorage implements LogStorage {
+
+    public static final int CAPACITY = 16 * 1024 * 1024;
+
+    /** Jobs whose next run uses this storage, by full name, and whether its log is forwarded. */
+    private static final Map<String, Boolean> ENABLED = new ConcurrentHashMap<>();
+    /** Storage of the last run of each job, by full name. */
+    private static final Map<String, MemoryLogStorage> STORAGES = new ConcurrentHashMap<>();
+
+    private final String owner;
+    private final String job;
+    /** {@code null} once released. */
+    @CheckForNull
+    private ByteBuffer ring;
+    /** Receives the overwritten bytes, if the whole log must stay available. */
+    @CheckForNull
+    private File spill;
+    private final List<Transition> transitions = new ArrayList<>();
+    /** Number of bytes written. */
+    private long written;
+    /** Number of bytes in the spill file. */
+    private long spilled;
+    /** Number of bytes read by the tailer, writers wait for it while it is attached. */
+    private long consumed;
+    private boolean streamed;
+
+    private MemoryLogStorage(FlowExecutionOwner owner, String job, boolean streamed) throws IOException {
+        this.owner = owner.getExternalizableId();
+        this.job = job;
+        this.ring = ByteBuffer.allocateDirect(CAPACITY);
+        this.spill = isWebUiServed() ? new File(owner.getRootDir(), "log-spill") : null;
+        this.streamed = streamed;
+    }
+
+    /**
+     * Keeps the log of the next run of the job in memory.
+     * @param streamed Whether the log is forwarded by a {@link LogTailer}, which writers must wait for
+     */
+    public static void enable(@NonNull Job<?, ?> job, boolean streamed) {
+        ENABLED.put(job.getFullName(), streamed);
+    }
+
+    /**
+     * Drops the log of the last run of the job, e.g. when the job is replaced.
+     */
+    public static void remove(@NonNull Job<?, ?> job) {
+        ENABLED.remove(job.getFullName());
+        STORAGES.remove(job.getFullName());
+    }
+
+    /**
+     * Frees the buffer of the last run of the job once it is complete and its log forwarded.
+     * If the whole log is kept, it is moved to the log file of the default storage, which serves it from then on.
+     */
+    public static void release(@NonNull Job<?, ?> job) throws IOException {
+        ENABLED.remove(job.getFullName());
+        MemoryLogStorage storage = STORAGES.remove(job.getFullName());
+        if (storage != null) {
+            storage.release();
+        }
+    }
+
+    private synchronized void release() throws IOException {
+        if (ring == null) {
+            return;
+        }
+        if (spill != null) {
+            spill(written);
+            File log = new File(spill.getParentFile(), "log");
+            Files.move(spill.toPath(), log.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            spill = log;
+        }
+        ring = null;
+    }
+
+    /**
+     * Whether the log of the current run of the job is kept in memory, even if the storage is not created yet.
+     */
+    static boolean isUsed(@NonNull Job<?, ?> job) {
+        return ENABLED.containsKey(job.getFullName()) || STORAGES.containsKey(job.getFullName());
+    }
+
+    /**
+     * Storage of the current run of the job, if it is kept in memory and created.
+     */
+    @CheckForNull
+    static MemoryLogStorage get(@NonNull Job<?, ?> job) {
+        return STORAGES.get(job.getFullName());
+    }
+
+    private static boolean isWebUiServed() {
+        // Without --httpPort, Jenkinsfile Runner sets a root URL with port -1
+        String url = Jenkins.get().getRootUrl();
+        try {
+            return url != null && new URL(url).getPort() > 0;
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
+
+    @NonNull
+    @Override
+    public BuildListener overallListener() {
+        return new StreamBuildListener(new NodeOutputStream(null), StandardCharsets.UTF_8);
+    }
+
+    @NonNull
+    @Override
+    public TaskListener nodeListener(@NonNull FlowNode node) {
+        return new StreamTaskListener(new NodeOutputStream(node.getId()), StandardCharsets.UTF_8);
+    }
+
+    @NonNull
+    @Override
+    public AnnotatedLargeText<FlowExecutionOwner.Executable> overallLog(@NonNull FlowExecutionOwner.Executable build, boolean complete) {
+        File file = null;
+        try {
+            synchronized (this) {
+                if (spill != null) {
+                    // Appends the bytes only in the buffer so far, the whole log is then streamed from the file
+                    if (ring != null) {
+                        spill(written);
+                    }
+                    file = spill;
+                }
+            }
+        } catch (IOException e) {
+            return LogStorage.broken(e).overallLog(build, complete);
+        }
+        if (file != null) {
+            return new AnnotatedLargeText<>(file, StandardCharsets.UTF_8, complete, build);
+        }
+        // At most the capacity of the buffer
+        hudson.util.ByteBuffer copy = new hudson.util.ByteBuffer();
+        try {
+            synchronized (this) {
+                copy(0, written, copy);
+            }
+        } catch (IOException e) {
+            // What could be read so far
+        }
+        return new AnnotatedLargeText<>(copy, StandardCharsets.UTF_8, complete, build);
+    }
+
+    @NonNull
+    @Override
+    public AnnotatedLargeText<FlowNode> stepLog(@NonNull FlowNode node, boolean complete) {
+        hudson.util.ByteBuffer copy = new hudson.util.ByteBuffer();
+        try {
+            synchronized (this) {
+                for (int i = 0; i < transitions.size(); i++) {
+                    Transition t = transitions.get(i);
+                    if (node.getId().equals(t.node)) {
+                        long end = i + 1 < transitions.size() ? transitions.get(i + 1).offset : written;
+                        copy(t.offset, end, copy);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // What could be read so far
+        }
+        return new AnnotatedLargeText<>(copy, StandardCharsets.UTF_8, complete, node);
+    }
+
+    /**
+     * Copies the bytes still available in the range, from the spill file or the buffer.
+     */
+    private void copy(long from, long to, OutputStream out) throws IOException {
+        byte[] b = new byte[64 * 1024];
+        long pos = Math.max(from, spill == null ? written - CAPACITY : 0);
+        while (pos < to) {
+            int n = read(pos, b, (int) Math.min(b.length, to - pos));
+            out.write(b, 0, n);
+            pos += n;
+        }
+    }
+
+    /**
+     * Reads the bytes written since the position, for the tailer.
+     * @return Number of bytes read, 0 if there are no new bytes
+     */
+    synchronized int readNew(long pos, byte[] b) throws IOException {
+        if (spill == null && pos < written - CAPACITY) {
+            // Writers wait for the tailer until it is detached
+            throw new IOException("The log was overwritten before being forwarded");
+        }
+        int n = read(pos, b, (int) Math.min(b.length, written - pos));
+        if (pos + n > consumed) {
+            consumed = pos + n;
+            notifyAll();
+        }
+        return n;
+    }
+
+    /**
+     * Stops waiting for the tailer, e.g. once it has failed.
+     */
+    synchronized void detach() {
+        streamed = false;
+        notifyAll();
+    }
+
+    /**
+     * Node changes from the given index.
+     * @param from Number of changes already read
+     */
+    synchronized List<Transition> getTransitions(int from) {
+        return new ArrayList<>(transitions.subList(Math.min(from, transitions.size()), transitions.size()));
+    }
+
+    private int read(long pos, byte[] b, int len) throws IOException {
+        if (len <= 0) {
+            return 0;
+        }
+        if (pos < spilled) {
+            try (RandomAccessFile raf = new RandomAccessFile(spill, "r")) {
+                raf.seek(pos);
+                return raf.read(b, 0, (int) Math.min(len, spilled - pos));
+            }
+        }
+        if (ring == null) {
+            throw new IOException("The log buffer was released");
+        }
+        int index = (int) (pos % CAPACITY);
+        int n = Math.min(len, CAPACITY - index);
+        ByteBuffer view = ring.duplicate();
+        view.position(index);
+        view.get(b, 0, n);
+        return n;
+    }
+
+    private synchronized void write(@CheckForNull String node, byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        if (ring == null) {
+            throw new IOException("The log buffer was released, the run is complete");
+        }
+        if (transitions.isEmpty() || !Objects.equals(transitions.get(transitions.size() - 1).node, node)) {
+            transitions.add(new Transition(written, node));
+        }
+        while (len > 0) {
+            int index = (int) (written % CAPACITY);
+            int n = Math.min(len, CAPACITY - index);
+            long overwritten = written + n - CAPACITY;
+            if (spill != null && overwritten > spilled) {
+                spill(overwritten);
+            }
+            if (spill == null && overwritten > consumed && streamed) {
+                // The tailer is behind, it may be waiting for a write notification which comes after this write
+                LogTailer.wakeUp(job);
+                try {
+                    wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the log to be forwarded");
+                }
+                continue;
+            }
+            ByteBuffer view = ring.duplicate();
+            view.position(index);
+            view.put(b, off, n);
+            written += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void spill(long to) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(spill, "rw")) {
+            raf.seek(spilled);
+            byte[] b = new byte[64 * 1024];
+            while (spilled < to) {
+                int index = (int) (spilled % CAPACITY);
+                int n = (int) Math.min(Math.min(b.length, to - spilled), CAPACITY - index);
+                ByteBuffer view = ring.duplicate();
+                view.position(index);
+                view.get(b, 0, n);
+                raf.write(b, 0, n);
+                spilled += n;
+            }
+        }
+    }
+
+    /**
+     * Output of a flow node, or of the whole run for {@code null}, starting at an offset of the log.
+     */
+    static final class Transition {
+        final long offset;
+        @CheckForNull
+        final String node;
+
+        Transition(long offset, @CheckForNull String node) {
+            this.offset = offset;
+            this.node = node;
+        }
+    }
+
+    private final class NodeOutputStream extends OutputStream {
+        @CheckForNull
+        private final String node;
+
+        NodeOutputStream(@CheckForNull String node) {
+            this.node = node;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            MemoryLogStorage.this.write(node, b, off, len);
+        }
+    }
+
+    @Extension(ordinal = 100)
+    public static class Factory implements LogStorageFactory {
+        @CheckForNull
+        @Override
+        public LogStorage forBuild(@NonNull FlowExecutionOwner b) {
+            String job = LogTailer.jobOf(b);
+            MemoryLogStorage storage = STORAGES.get(job);
+            if (storage != null && storage.owner.equals(b.getExternalizableId())) {
+                return storage;
+            }
+            Boolean streamed = ENABLED.get(job);
+            if (streamed == null) {
+                return null;
+            }
+            try {
+                storage = new MemoryLogStorage(b, job, streamed);
+            } catch (IOException e) {
+                return LogStorage.broken(e);
+            }
+            // Registered before being disabled, so that the tailer always sees one or the other
+            STORAGES.put(job, storage);
+            ENABLED.remove(job);
+            return storage;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package io.jenkins.jenkinsfile.runner;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import org.jenkinsci.plugins.workflow.actions.LabelAction;
+import org.jenkinsci.plugins.workflow.actions.ThreadNameAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graph.StepNode;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the build log as NDJSON, one record per line:
+ * {@code {"ts":1700000000000,"node":"12","stage":"Build","branch":"linux","step":"sh","line":"..."}}.
+ *
+ * The flow node of each line comes from the index the default log storage keeps next to the log,
+ * or from the {@link MemoryLogStorage},
+ * the stage, parallel branch and step of each node are encoded once, when the {@link LogTailer.NodeListener}
+ * sees the node.
+ * Lines are read as bytes, console notes are skipped and the JSON is written into reused buffers.
+ * The timestamp is the time the line is forwarded.
+ */
+final class NdjsonLogWriter {
+
+    private static final byte[] TS = bytes("{\"ts\":");
+    private static final byte[] LINE = bytes(",\"line\":\"");
+    private static final byte[] END = bytes("\"}\n");
+    private static final byte[] NOTE_START = bytes("\u001B[8mha:");
+    private static final byte[] NOTE_END = bytes("\u001B[0m");
+    private static final byte[] HEX = bytes("0123456789abcdef");
+
+    private final WorkflowRun run;
+    private final File log;
+    private final File index;
+    private final OutputStream out;
+
+    /** Encoded fields of each node, from the graph listener or computed on first use. */
+    private final Map<String, byte[]> nodes = new ConcurrentHashMap<>();
+    /** Node changes of the index not reached yet, as offset and node id, {@code null} for no node. */
+    private final ArrayDeque<Object[]> transitions = new ArrayDeque<>();
+    @CheckForNull
+    private byte[] currentNode;
+
+    /** Whether the log is read from the {@link MemoryLogStorage} instead of the files of the default storage. */
+    private final boolean memory;
+    /** Offset of the line being read. */
+    private long logPos;
+    /** Offset of the next byte to read. */
+    private long readPos;
+    /** Offset in the index file, or number of node changes read from the memory storage. */
+    private long indexPos;
+    private final byte[] chunk = new byte[64 * 1024];
+    /** Start of the line being read, possibly from a previous chunk. */
+    private byte[] line = new byte[1024];
+    private int lineLength;
+    private byte[] record = new byte[4096];
+    private int recordLength;
+
+    NdjsonLogWriter(WorkflowRun run, OutputStream out, boolean memory) {
+        this.run = run;
+        this.log = new File(run.getRootDir(), "log");
+        this.index = new File(run.getRootDir(), "log-index");
+        this.out = out;
+        this.memory = memory;
+    }
+
+    /**
+     * Encodes the fields of a new node, called by the graph listener.
+     */
+    void onNewNode(FlowNode node) {
+        nodes.computeIfAbsent(node.getId(), id -> encode(node));
+    }
+
+    /**
+     * Writes the records of the lines appended since the last call.
+     * @param complete Whether the log is complete, the last line is then written even without a line break
+     */
+    void writeNewLines(boolean complete) throws IOException {
+        if (memory) {
+            MemoryLogStorage storage = MemoryLogStorage.get(run.getParent());
+            if (storage == null) {
+                // Not created yet
+                return;
+            }
+            for (MemoryLogStorage.Transition t : storage.getTransitions((int) indexPos)) {
+                transitions.add(new Object[] {t.offset, t.node});
+                indexPos++;
+            }
+            int n;
+            while ((n = storage.readNew(readPos, chunk)) > 0) {
+                readPos += n;
+                split(n);
+            }
+        } else {
+            // The storage flushes its buffers when the log is read
+            run.getLogText();
+            readIndex();
+            if (!log.exists()) {
+                return;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(log, "r")) {
+                raf.seek(readPos);
+                int n;
+                while ((n = raf.read(chunk)) > 0) {
+                    readPos += n;
+                    split(n);
+                }
+            }
+        }
+        if (complete && lineLength > 0) {
+            writeLine();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the complete lines of the chunk, keeping the rest for the next one.
+     */
+    private void split(int n) throws IOException {
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            if (chunk[i] == '\n') {
+                append(chunk, start, i - start);
+                writeLine();
+                start = i + 1;
+            }
+        }
+        append(chunk, start, n - start);
+    }
+
+    private void readIndex() throws IOException {
+        if (!index.exists()) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(index, "r")) {
+            raf.seek(indexPos);
+            // Lines are "<offset> <node id>", or "<offset>" for the output of no node
+            String entry;
+            long pos = indexPos;
+            while ((entry = raf.readLine()) != null) {
+                if (raf.getFilePointer() == raf.length() && !endsWithLineBreak(raf)) {
+                    // Being written
+                    break;
+                }
+                pos = raf.getFilePointer();
+                int space = entry.indexOf(' ');
+                long offset = Long.parseLong(space == -1 ? entry : entry.substring(0, space));
+                transitions.add(new Object[] {offset, space == -1 ? null : entry.substring(space + 1)});
+            }
+            indexPos = pos;
+        }
+    }
+
+    private static boolean endsWithLineBreak(RandomAccessFile raf) throws IOException {
+        raf.seek(raf.length() - 1);
+        return raf.read() == '\n';
+    }
+
+    private void append(byte[] b, int off, int len) {
+        if (lineLength + len > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + len));
+        }
+        System.arraycopy(b, off, line, lineLength, len);
+        lineLength += len;
+    }
+
+    private void writeLine() throws IOException {
+        long start = logPos;
+        // The line break, if any, is consumed too
+        logPos += lineLength + 1;
+        while (!transitions.isEmpty() && (long) transitions.peek()[0] <= start) {
+            String id = (String) transitions.poll()[1];
+            currentNode = id == null ? null : getNode(id);
+        }
+
+        recordLength = 0;
+        put(TS);
+        putLong(System.currentTimeMillis());
+        if (currentNode != null) {
+            put(currentNode);
+        }
+        put(LINE);
+        int len = lineLength;
+        if (len > 0 && line[len - 1] == '\r') {
+            len--;
+        }
+        for (int i = 0; i < len; i++) {
+            if (line[i] == 0x1B && startsWith(line, i, len, NOTE_START)) {
+                int end = indexOf(line, i + NOTE_START.length, len, NOTE_END);
+                if (end != -1) {
+                    i = end + NOTE_END.length - 1;
+                    continue;
+                }
+            }
+            escape(line[i]);
+        }
+        put(END);
+        out.write(record, 0, recordLength);
+        lineLength = 0;
+    }
+
+    private byte[] getNode(String id) {
+        byte[] encoded = nodes.get(id);
+        if (encoded == null) {
+            // Not seen by the graph listener yet
+            FlowExecution execution = run.getExecution();
+            FlowNode node = null;
+            try {
+                node = execution == null ? null : execution.getNode(id);
+            } catch (IOException e) {
+                // Only the id is known
+            }
+            encoded = node == null ? encode(id, null, null, null) : encode(node);
+            nodes.put(id, encoded);
+        }
+        return encoded;
+    }
+
+    private static byte[] encode(FlowNode node) {
+        String stage = null;
+        String branch = null;
+        for (BlockStartNode block : node.iterateEnclosingBlocks()) {
+            if (branch == null && block.getAction(ThreadNameAction.class) != null) {
+                branch = block.getAction(ThreadNameAction.class).getThreadName();
+            } else if (stage == null && block.getAction(LabelAction.class) != null && isStage(block)) {
+                stage = block.getAction(LabelAction.class).getDisplayName();
+            }
+            if (stage != null && branch != null) {
+                break;
+            }
+        }
+        String step = null;
+        if (node instanceof StepNode) {
+            StepDescriptor d = ((StepNode) node).getDescriptor();
+            step = d == null ? null : d.getFunctionName();
+        }
+        return encode(node.getId(), stage, branch, step);
+    }
+
+    private static boolean isStage(BlockStartNode block) {
+        // The body of the stage step holds the label
+        for (BlockStartNode parent : block.iterateEnclosingBlocks()) {
+            if (parent instanceof StepNode) {
+                StepDescriptor d = ((StepNode) parent).getDescriptor();
+                return d != null && d.getFunctionName().equals("stage");
+            }
+        }
+        return false;
+    }
+
+    private static byte[] encode(String id, @CheckForNull String stage, @CheckForNull String branch, @CheckForNull String step) {
+        StringBuilder sb = new StringBuilder(",\"node\":").append(quote(id));
+        if (stage != null) {
+            sb.append(",\"stage\":").append(quote(stage));
+        }
+        if (branch != null) {
+            sb.append(",\"branch\":").append(quote(branch));
+        }
+        if (step != null) {
+            sb.append(",\"step\":").append(quote(step));
+        }
+        return bytes(sb.toString());
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private void escape(byte b) {
+        ensure(6);
+        if (b == '"' || b == '\\') {
+            record[recordLength++] = '\\';
+            record[recordLength++] = b;
+        } else if (b == '\t') {
+            record[recordLength++] = '\\';
+            record[recordLength++] = 't';
+        } else if (b >= 0 && b < 0x20) {
+            record[recordLength++] = '\\';
+            record[recordLength++] = 'u';
+            record[recordLength++] = '0';
+            record[recordLength++] = '0';
+            record[recordLength++] = HEX[b >> 4];
+            record[recordLength++] = HEX[b & 0xF];
+        } else {
+            // Including the bytes of multi-byte UTF-8 characters
+            record[recordLength++] = b;
+        }
+    }
+
+    private void put(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, record, recordLength, b.length);
+        recordLength += b.length;
+    }
+
+    private void putLong(long value) {
+        ensure(20);
+        int start = recordLength;
+        do {
+            record[recordLength++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = recordLength - 1; i < j; i++, j--) {
+            byte b = record[i];
+            record[i] = record[j];
+            record[j] = b;
+        }
+    }
+
+    private void ensure(int n) {
+        if (recordLength + n > record.length) {
+            record = Arrays.copyOf(record, Math.max(record.length * 2, recordLength + n));
+        }
+    }
+
+    private static boolean startsWith(byte[] b, int off, int len, byte[] prefix) {
+        if (off + prefix.length > len) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[off + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] b, int off, int len, byte[] s) {
+        for (int i = off; i + s.length <= len; i++) {
+            if (startsWith(b, i, len, s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,72 @@
+package io.jenkins.jenkinsfile.runner;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.security.ACL;
+import org.springframework.security.core.Authentication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Credentials of a run, e.g. the one of the {@code --scm} definition, visible to the job of the run only.
+ *
+ * They are kept in memory and dropped when the run ends, so nothing is written to {@code credentials.xml}
+ * and the runs sharing a Jenkins instance, e.g. with {@code run-many} or {@code serve}, never see each other's secrets.
+ * Like the system store, they are only returned to {@link ACL#SYSTEM2}, e.g. not to the users of the web UI.
+ */
+@Extension
+public class RunCredentialsProvider extends CredentialsProvider {
+
+    /** Credentials by full name of the job. */
+    private static final Map<String, List<Credentials>> CREDENTIALS = new ConcurrentHashMap<>();
+
+    public static void add(@NonNull Item job, @NonNull Credentials credentials) {
+        CREDENTIALS.computeIfAbsent(job.getFullName(), k -> new CopyOnWriteArrayList<>()).add(credentials);
+    }
+
+    /**
+     * Drops the credentials of the job, once its run is over.
+     */
+    public static void remove(@NonNull Item job) {
+        CREDENTIALS.remove(job.getFullName());
+    }
+
+    @NonNull
+    @Override
+    public <C extends Credentials> List<C> getCredentialsInItemGroup(@NonNull Class<C> type, @Nullable ItemGroup itemGroup,
+                                                                     @Nullable Authentication authentication,
+                                                                     @NonNull List<DomainRequirement> domainRequirements) {
+        // Never shared with the other jobs of a folder or of the instance
+        return Collections.emptyList();
+    }
+
+    @NonNull
+    @Override
+    public <C extends Credentials> List<C> getCredentialsInItem(@NonNull Class<C> type, @NonNull Item item,
+                                                                @Nullable Authentication authentication,
+                                                                @NonNull List<DomainRequirement> domainRequirements) {
+        List<Credentials> credentials = CREDENTIALS.get(item.getFullName());
+        if (credentials == null || !ACL.SYSTEM2.equals(authentication)) {
+            return Collections.emptyList();
+        }
+        // Like the global domain of the system store, which was used before, they match any requirement
+        List<C> result = new ArrayList<>(credentials.size());
+        for (Credentials c : credentials) {
+            if (type.isInstance(c)) {
+                result.add(type.cast(c));
+            }
+        }
+        return result;
+    }
+}
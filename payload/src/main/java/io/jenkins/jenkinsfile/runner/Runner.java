@@ -2,15 +2,25 @@ package io.jenkins.jenkinsfile.runner;
 
 import com.cloudbees.hudson.plugins.folder.Folder;
 import com.cloudbees.plugins.credentials.Credentials;
-import com.cloudbees.plugins.credentials.CredentialsUnavailableException;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
 import hudson.model.Action;
 import hudson.model.Cause;
+import hudson.model.CauseOfInterruption;
 import hudson.model.CauseAction;
+import hudson.model.Executor;
 import hudson.model.Failure;
+import hudson.model.Item;
 import hudson.model.ParametersAction;
+import hudson.model.Result;
 import hudson.model.StringParameterValue;
 import hudson.model.queue.QueueTaskFuture;
+import hudson.slaves.WorkspaceList;
+import io.jenkins.jenkinsfile.runner.bootstrap.AsyncOutputSink;
+import io.jenkins.jenkinsfile.runner.bootstrap.StartupReport;
 import io.jenkins.jenkinsfile.runner.bootstrap.commands.PipelineRunOptions;
+import io.jenkins.jenkinsfile.runner.bootstrap.workspace.WorkspaceCopy;
+import io.jenkins.jenkinsfile.runner.bootstrap.workspace.WorkspacePrefetch;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.workflow.cps.CpsScmFlowDefinition;
 import org.jenkinsci.plugins.workflow.flow.FlowDurabilityHint;
@@ -18,12 +28,16 @@ import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.jenkinsci.plugins.workflow.job.properties.DurabilityHintJobProperty;
 
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.nio.file.NoSuchFileException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -33,97 +47,263 @@ import java.util.stream.Collectors;
  * @author Kohsuke Kawaguchi
  */
 public class Runner {
-    private WorkflowRun b;
+    private volatile WorkflowRun b;
+
+    /** Reason of {@link #abort}, if called before the build started. */
+    @CheckForNull
+    private volatile String abortReason;
 
     private static final Logger LOGGER = Logger.getLogger(Runner.class.getName());
 
+    /**
+     * Full names of the jobs created by this process, guarded by {@code Runner.class}.
+     */
+    private static final Set<String> CREATED_JOBS = new HashSet<>();
+
     /**
      * Main entry point invoked by the setup module
      */
-    public int run(PipelineRunOptions runOptions) throws Exception { 
+    public int run(PipelineRunOptions runOptions) throws Exception {
+        return run(runOptions, AsyncOutputSink.stdout());
+    }
+
+    /**
+     * Runs the Pipeline and writes its log to the given stream.
+     */
+    public int run(PipelineRunOptions runOptions, OutputStream log) throws Exception {
+        return run(runOptions, log, System.err);
+    }
+
+    /**
+     * Runs the Pipeline and writes its log and errors to the given streams, e.g. to the client of the daemon.
+     * A job with the same name is replaced, so that the Jenkins instance can be reused for several runs.
+     */
+    public int run(PipelineRunOptions runOptions, OutputStream log, PrintStream err) throws Exception {
         String[] jobPathNames = runOptions.jobName.split("/");
 
         for (String jobPathName : jobPathNames) {
             try {
                 Jenkins.checkGoodName(jobPathName);
             } catch (Failure e) {
-                System.err.printf("invalid job name: '%s': %s%n", jobPathName, e.getMessage());
+                err.printf("invalid job name: '%s': %s%n", jobPathName, e.getMessage());
                 return -1;
             }
         }
-
-        Folder folderInScope = null;
-        WorkflowJob w = null;       
-
-        //create Folder structure
-        for (int i=0; i < jobPathNames.length -1; i++) {
-            folderInScope = createOrReturnFolder(folderInScope, jobPathNames[i]);
+        boolean ndjson = "ndjson".equals(runOptions.logFormat);
+        if (!ndjson && !"text".equals(runOptions.logFormat)) {
+            err.printf("invalid log format: '%s', expected 'text' or 'ndjson'%n", runOptions.logFormat);
+            return -1;
+        }
+        boolean memoryLog = "memory".equals(runOptions.logStorage);
+        if (!memoryLog && !"file".equals(runOptions.logStorage)) {
+            err.printf("invalid log storage: '%s', expected 'file' or 'memory'%n", runOptions.logStorage);
+            return -1;
+        }
+        boolean ephemeral = "ephemeral".equals(runOptions.durability);
+        if (!ephemeral && !"performance".equals(runOptions.durability)) {
+            err.printf("invalid durability: '%s', expected 'performance' or 'ephemeral'%n", runOptions.durability);
+            return -1;
+        }
+        if (!WorkspaceCopy.STRATEGIES.contains(runOptions.checkoutStrategy)) {
+            err.printf("invalid checkout strategy: '%s', expected one of %s%n", runOptions.checkoutStrategy, WorkspaceCopy.STRATEGIES);
+            return -1;
+        }
+        boolean inPlace = "in-place".equals(runOptions.workspaceMode);
+        if (!inPlace && !"copy".equals(runOptions.workspaceMode)) {
+            err.printf("invalid workspace mode: '%s', expected 'copy' or 'in-place'%n", runOptions.workspaceMode);
+            return -1;
+        }
+        File sourceDir = runOptions.jenkinsfile.getAbsoluteFile().getParentFile();
+        if (inPlace && runOptions.scm != null) {
+            err.println("invalid workspace mode: 'in-place' cannot be used with --scm");
+            return -1;
+        }
+        if (inPlace && !Files.isWritable(sourceDir.toPath())) {
+            err.printf("invalid workspace mode: 'in-place' requires a writable directory: '%s'%n", sourceDir);
+            return -1;
+        }
+        if (inPlace) {
+            // Steps such as sh write into <dir>@tmp, next to the workspace
+            File parent = sourceDir.getParentFile();
+            File tempDir = parent == null ? null : new File(WorkspaceList.tempDir(new FilePath(sourceDir)).getRemote());
+            if (tempDir == null || (tempDir.isDirectory() ? !Files.isWritable(tempDir.toPath()) : !Files.isWritable(parent.toPath()))) {
+                err.printf("invalid workspace mode: 'in-place' requires a writable parent directory, or a writable <dir>@tmp directory, for the temporary files of the steps: '%s'%n", sourceDir);
+                return -1;
+            }
         }
 
-        //add Pipeline to Folder
-        if (folderInScope!=null) {
-            w = folderInScope.createProject(WorkflowJob.class, jobPathNames[jobPathNames.length -1]);
-        } else {
-            w = Jenkins.get().createProject(WorkflowJob.class, jobPathNames[jobPathNames.length -1]);
-        }     
+        WorkflowJob w;
+        Action[] workflowActions;
+        Credentials runCredential = null;
+        try (StartupReport.Phase p = StartupReport.get().phase("Runner.createJob")) {
+            w = createJob(jobPathNames);
+            // Left behind by a failed run of a job with the same name
+            RunCredentialsProvider.remove(w);
+            MemoryLogStorage.remove(w);
+            InPlaceWorkspace.disable(w);
+            if (memoryLog) {
+                MemoryLogStorage.enable(w, !runOptions.noBuildLogs);
+            }
+            if (inPlace) {
+                InPlaceWorkspace.enable(w, sourceDir);
+            }
 
-        w.updateNextBuildNumber(runOptions.buildNumber);
-        w.setResumeBlocked(true);
-        w.addProperty(new DurabilityHintJobProperty(FlowDurabilityHint.PERFORMANCE_OPTIMIZED));
+            w.updateNextBuildNumber(runOptions.buildNumber);
+            w.setResumeBlocked(true);
+            w.addProperty(new DurabilityHintJobProperty(FlowDurabilityHint.PERFORMANCE_OPTIMIZED));
+            if (ephemeral) {
+                EphemeralFlowNodeStorage.enable(w);
+            }
 
-        List<Action> pipelineActions = new ArrayList<>(3);
+            List<Action> pipelineActions = new ArrayList<>(3);
 
-        boolean foundProvider = false;
-        for (PipelineDefinitionProvider runner : PipelineDefinitionProvider.all()) {
-            try {
-                if (runner.matches(runOptions)) {
-                    runner.instrumentJob(w, runOptions);
-                    foundProvider = true;
-                    break;
+            boolean foundProvider = false;
+            for (PipelineDefinitionProvider runner : PipelineDefinitionProvider.all()) {
+                try {
+                    if (runner.matches(runOptions)) {
+                        runner.instrumentJob(w, runOptions);
+                        foundProvider = true;
+                        break;
+                    }
+                } catch (Exception ex) {
+                    throw new Exception("Runner Implementation failed: " + runner.getClass(), ex);
                 }
-            } catch (Exception ex) {
-                throw new Exception("Runner Implementation failed: " + runner.getClass(), ex);
             }
-        }
 
-        if (!foundProvider) { // Create default version
-            if (runOptions.scm != null) {
-                SCMContainer scm = SCMContainer.loadFromYAML(runOptions.scm);
-                Credentials fromSCM = scm.getCredential();
-                if (fromSCM != null) {
-                    try {
-                        scm.addCredentialToStore();
-                    } catch (IOException | CredentialsUnavailableException e) {
-                        return -1;
-                    }
+            if (!foundProvider) { // Create default version
+                if (runOptions.scm != null) {
+                    SCMContainer scm = SCMContainer.loadFromYAML(runOptions.scm);
+                    runCredential = scm.getCredential();
+                    w.setDefinition(new CpsScmFlowDefinition(scm.getSCM(), runOptions.jenkinsfile.getName()));
+                } else {
+                    FileSystemSCM scm = new FileSystemSCM(runOptions.jenkinsfile.getParent());
+                    scm.setCheckoutStrategy(runOptions.checkoutStrategy);
+                    w.setDefinition(new CpsScmFlowDefinition(scm, runOptions.jenkinsfile.getName()));
                 }
-                w.setDefinition(new CpsScmFlowDefinition(scm.getSCM(), runOptions.jenkinsfile.getName()));
-            } else {
-                w.setDefinition(new CpsScmFlowDefinition(
-                        new FileSystemSCM(runOptions.jenkinsfile.getParent()), runOptions.jenkinsfile.getName()));
+                pipelineActions.add(new SetJenkinsfileLocation(runOptions.jenkinsfile, !runOptions.noSandBox));
             }
-            pipelineActions.add(new SetJenkinsfileLocation(runOptions.jenkinsfile, !runOptions.noSandBox));
+
+            if (runOptions.workflowParameters != null && runOptions.workflowParameters.size() > 0) {
+              pipelineActions.add(createParametersAction(runOptions));
+            }
+
+            if (runOptions.cause != null) {
+              pipelineActions.add(createCauseAction(runOptions.cause));
+            }
+
+            workflowActions = pipelineActions.toArray(new Action[0]);
         }
+        if (runCredential != null) {
+            // Only visible to this job, in memory
+            RunCredentialsProvider.add(w, runCredential);
+        }
+        try (LogTailer tailer = LogTailer.listen(w)) {
+            QueueTaskFuture<WorkflowRun> f = w.scheduleBuild2(0, workflowActions);
+
+            b = f.getStartCondition().get();
+            StartupReport.get().mark("Runner.buildStarted", "milestone");
+            if (abortReason != null) {
+                abort(abortReason);
+            }
+
+            if (!runOptions.noBuildLogs) {
+              try (AsyncOutputSink sink = new AsyncOutputSink(log, runOptions.logFile)) {
+                  OutputStream out = StartupReport.get().markOnFirstWrite(sink, "Runner.firstLogByte");
+                  if (ndjson) {
+                      tailer.writeNdjsonTo(b, out);
+                  } else {
+                      tailer.writeLogTo(b, out);
+                  }
+              }
+            }
 
-        if (runOptions.workflowParameters != null && runOptions.workflowParameters.size() > 0) {
-          pipelineActions.add(createParametersAction(runOptions));
+            f.get();    // wait for the completion
+            if (!runOptions.timingReports.isEmpty()) {
+                try {
+                    TimingReport.write(b, runOptions.timingReports);
+                } catch (IOException | RuntimeException e) {
+                    err.printf("WARNING: could not write the timing report: %s%n", e);
+                }
+            }
+            return b.getResult().ordinal;
+        } finally {
+            RunCredentialsProvider.remove(w);
+            if (b == null || !b.isBuilding()) {
+                // The tailer is closed, the log is not read from the buffer anymore
+                try {
+                    MemoryLogStorage.release(w);
+                } catch (IOException e) {
+                    err.printf("WARNING: could not release the build log buffer: %s%n", e);
+                }
+                // The steps do not use the workspace and its temporary directory anymore
+                InPlaceWorkspace.disable(w);
+            }
+            EphemeralFlowNodeStorage.disable(w);
+            WorkspacePrefetch.discard();
         }
+    }
 
-        if (runOptions.cause != null) {
-          pipelineActions.add(createCauseAction(runOptions.cause));
+    /**
+     * Aborts the build, e.g. when the client of the daemon disconnected.
+     * Called from another thread than {@link #run}, possibly before the build started.
+     */
+    public void abort(String reason) {
+        abortReason = reason;
+        WorkflowRun run = b;
+        Executor executor = run == null ? null : run.getOneOffExecutor();
+        if (executor != null) {
+            executor.interrupt(Result.ABORTED, new AbortCause(reason));
         }
+    }
 
-        Action[] workflowActions = pipelineActions.toArray(new Action[0]);
-        QueueTaskFuture<WorkflowRun> f = w.scheduleBuild2(0, workflowActions);
+    /**
+     * Cause of the interruption of an {@link #abort aborted} build.
+     */
+    static final class AbortCause extends CauseOfInterruption {
+        private static final long serialVersionUID = 1L;
 
-        b = f.getStartCondition().get();
+        private final String reason;
 
-        if (!runOptions.noBuildLogs) {
-          writeLogTo(System.out, runOptions.writeLogInitTimeoutSeconds);
+        AbortCause(String reason) {
+            this.reason = reason;
         }
 
-        f.get();    // wait for the completion
-        return b.getResult().ordinal;
+        @Override
+        public String getShortDescription() {
+            return reason;
+        }
+    }
+
+    /**
+     * Creates the job and its folders.
+     * Runs of {@code run-many} create their jobs concurrently, possibly in the same folders.
+     */
+    private WorkflowJob createJob(String[] jobPathNames) throws IOException, InterruptedException {
+        synchronized (Runner.class) {
+            Folder folderInScope = null;
+
+            //create Folder structure
+            for (int i=0; i < jobPathNames.length -1; i++) {
+                folderInScope = createOrReturnFolder(folderInScope, jobPathNames[i]);
+            }
+
+            //replace the job of a previous run of this process, the ones of a persistent home are kept
+            String name = jobPathNames[jobPathNames.length -1];
+            Item previous = folderInScope != null ? folderInScope.getItem(name) : Jenkins.get().getItem(name);
+            if (previous != null && CREATED_JOBS.remove(previous.getFullName())) {
+                previous.delete();
+            }
+
+            //add Pipeline to Folder
+            WorkflowJob job;
+            if (folderInScope!=null) {
+                job = folderInScope.createProject(WorkflowJob.class, name);
+            } else {
+                job = Jenkins.get().createProject(WorkflowJob.class, name);
+            }
+            CREATED_JOBS.add(job.getFullName());
+            return job;
+        }
     }
 
     private Folder createOrReturnFolder(Folder addToFolder, String folderName) throws IOException {        
@@ -148,33 +328,13 @@ public class Runner {
             .entrySet()
             .stream()
             .map(e -> new StringParameterValue(e.getKey(), e.getValue()))
-            .collect(Collectors.toList()));
+            .collect(Collectors.toList()),
+            // Kept for this run only, unlike the hudson.model.ParametersAction.keepUndefinedParameters property
+            runOptions.keepUndefinedParameters ? runOptions.workflowParameters.keySet() : Collections.emptySet());
     }
 
     private CauseAction createCauseAction(String cause) {
       Cause c = new JenkinsfileRunnerCause(cause);
       return new CauseAction(c);
     }
-
-    private void writeLogTo(PrintStream out, int timeoutSeconds) throws IOException, InterruptedException {
-        // read output in a retry loop,
-        // writeWholeLogTo may fail with FileNotFound
-        // exception on a slow/busy machine, if it takes
-        // longish to create the log file
-        int retryInterval = 100;
-        long timeoutMillis = timeoutSeconds * 1000;
-        long startTime = System.currentTimeMillis(); 
-        while (true) {
-            try {
-                b.writeWholeLogTo(out);
-                break;
-            }
-            catch (FileNotFoundException | NoSuchFileException e) {
-                if ( System.currentTimeMillis() - startTime > timeoutMillis ) {
-                    throw e;
-                }
-                Thread.sleep(retryInterval);
-            }
-        }
-    }
 }
@@ -48,6 +48,11 @@ public class SCMContainer {
         return (SCMContainer) registry.lookupOrFail(SCMContainer.class).configure(config, context);
     }
 
+    /**
+     * Adds the credential to the global domain of the system store, where it is visible to all jobs and persisted.
+     * @deprecated Use {@link RunCredentialsProvider#add} to make it visible to the job of the run only
+     */
+    @Deprecated
     public void addCredentialToStore() throws IOException, CredentialsUnavailableException {
         try {
             addCredentials();
@@ -0,0 +1,28 @@
+package io.jenkins.jenkinsfile.runner;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import io.jenkins.jenkinsfile.runner.bootstrap.StartupReport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the XML files written into the Jenkins home, reported as {@code persistence.saves} by {@code --startup-report},
+ * e.g. to measure what {@code --noPersist} saves.
+ */
+@Extension
+public class SaveCounter extends SaveableListener {
+
+    private final AtomicLong saves = new AtomicLong();
+
+    public SaveCounter() {
+        StartupReport.get().addCounter("persistence.saves", saves::get);
+    }
+
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+        saves.incrementAndGet();
+    }
+}
@@ -32,7 +32,7 @@ public class TemplatingEnginePipelineDefinitionProvider extends PipelineDefiniti
             SCMContainer scm = SCMContainer.loadFromYAML(runOptions.scm);
             Credentials creds = scm.getCredential();
             if(creds != null){
-                scm.addCredentialToStore();
+                RunCredentialsProvider.add(job, creds);
             }
             config = new ScmAdHocTemplateFlowDefinitionConfiguration(scm.getSCM(), pipelineConfig.getName(), runOptions.jenkinsfile.getName());
         } else {
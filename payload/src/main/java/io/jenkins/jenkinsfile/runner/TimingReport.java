@@ -0,0 +1,441 @@
+package io.jenkins.jenkinsfile.runner;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.Result;
+import org.jenkinsci.plugins.workflow.actions.ErrorAction;
+import org.jenkinsci.plugins.workflow.actions.LabelAction;
+import org.jenkinsci.plugins.workflow.actions.TagsAction;
+import org.jenkinsci.plugins.workflow.actions.ThreadNameAction;
+import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepAtomNode;
+import org.jenkinsci.plugins.workflow.cps.nodes.StepStartNode;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.graph.BlockEndNode;
+import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graph.StepNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Timings of a completed run, written by {@code --timing-report}, as JSON or as JUnit XML when the file name ends with {@code .xml}.
+ *
+ * The flow graph is scanned once.
+ * Stages, parallel blocks and branches form a tree, each with the steps directly inside it.
+ * <ul>
+ *     <li>The duration of a block is the time between its start and end nodes,
+ *         the duration of a step without body ends when the next node starts.</li>
+ *     <li>The queueing time of a {@code node} step is the wait for an executor, before its body starts.</li>
+ *     <li>The slack of a parallel branch is how long it finished before the slowest branch.</li>
+ *     <li>The critical path follows the slowest branch of each parallel block, i.e. the stages to optimize first.</li>
+ * </ul>
+ */
+final class TimingReport {
+
+    private final WorkflowRun run;
+    private final long start;
+    private final long end;
+    private final Element root;
+
+    private TimingReport(WorkflowRun run) {
+        this.run = run;
+        this.start = run.getStartTimeInMillis();
+        this.end = start + run.getDuration();
+        this.root = new Element("run", run.getFullDisplayName(), null, start, end);
+    }
+
+    /**
+     * Writes the report of the completed run to each file.
+     */
+    static void write(WorkflowRun run, List<File> files) throws IOException {
+        TimingReport report = new TimingReport(run);
+        report.scan();
+        for (File file : files) {
+            String content = file.getName().endsWith(".xml") ? report.toJUnit() : report.toJson();
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                Files.createDirectories(parent.toPath());
+            }
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void scan() {
+        FlowExecution execution = run.getExecution();
+        if (execution == null) {
+            return;
+        }
+        List<FlowNode> nodes = new DepthFirstScanner().allNodes(execution);
+        Map<String, BlockEndNode<?>> ends = new HashMap<>();
+        // Start of the earliest node following each node, which ends the steps without body
+        Map<String, Long> next = new HashMap<>();
+        // Start of the body of each step
+        Map<String, Long> bodies = new HashMap<>();
+        for (FlowNode node : nodes) {
+            if (node instanceof BlockEndNode) {
+                BlockEndNode<?> e = (BlockEndNode<?>) node;
+                ends.put(e.getStartNode().getId(), e);
+            }
+            long time = TimingAction.getStartTime(node);
+            for (FlowNode parent : node.getParents()) {
+                next.merge(parent.getId(), time, Math::min);
+            }
+            if (node instanceof StepStartNode && ((StepStartNode) node).isBody() && !node.getParents().isEmpty()) {
+                bodies.put(node.getParents().get(0).getId(), time);
+            }
+        }
+
+        Map<String, Element> elements = new HashMap<>();
+        List<FlowNode> scanned = new ArrayList<>(nodes);
+        // In creation order, so that the blocks are scanned before their content and the children are in order
+        scanned.sort((a, b) -> Long.compare(order(a), order(b)));
+        for (FlowNode node : scanned) {
+            String type = typeOf(node);
+            if (type == null) {
+                continue;
+            }
+            long nodeStart = TimingAction.getStartTime(node);
+            long nodeEnd;
+            BlockEndNode<?> blockEnd = ends.get(node.getId());
+            if (node instanceof BlockStartNode) {
+                nodeEnd = blockEnd != null ? TimingAction.getStartTime(blockEnd) : end;
+            } else {
+                Long n = next.get(node.getId());
+                nodeEnd = n != null ? n : end;
+            }
+            Element e = new Element(type, nameOf(node, type), node.getId(), nodeStart, nodeEnd);
+            FlowNode errorNode = blockEnd != null ? blockEnd : node;
+            ErrorAction error = errorNode.getAction(ErrorAction.class);
+            if (error != null) {
+                e.error = error.getError().getMessage() != null ? error.getError().getMessage() : error.getError().toString();
+            }
+            // Declarative tags the stages it skips
+            TagsAction tags = node.getAction(TagsAction.class);
+            String status = tags == null ? null : tags.getTagValue("STAGE_STATUS");
+            e.skipped = status != null && status.startsWith("SKIPPED");
+            Long body = bodies.get(node.getId());
+            if (body != null && isNodeStep(node)) {
+                // The body starts once an executor is allocated
+                e.queue = body - nodeStart;
+            }
+            elements.put(node.getId(), e);
+            parentOf(node, elements).add(e);
+        }
+        computeSlack(root);
+    }
+
+    /**
+     * Ids of the nodes are sequence numbers in the CPS engine.
+     */
+    private static long order(FlowNode node) {
+        try {
+            return Long.parseLong(node.getId());
+        } catch (NumberFormatException e) {
+            return TimingAction.getStartTime(node);
+        }
+    }
+
+    /**
+     * Nearest enclosing stage, parallel block or branch already scanned, or the run.
+     */
+    private Element parentOf(FlowNode node, Map<String, Element> elements) {
+        for (BlockStartNode block : node.iterateEnclosingBlocks()) {
+            Element e = elements.get(block.getId());
+            if (e != null && !e.type.equals("step")) {
+                return e;
+            }
+        }
+        return root;
+    }
+
+    @CheckForNull
+    private static String typeOf(FlowNode node) {
+        if (node instanceof StepStartNode) {
+            StepStartNode s = (StepStartNode) node;
+            if (s.isBody()) {
+                if (node.getAction(ThreadNameAction.class) != null) {
+                    return "branch";
+                }
+                if (node.getAction(LabelAction.class) != null && "stage".equals(functionOf(node.getParents().isEmpty() ? null : node.getParents().get(0)))) {
+                    return "stage";
+                }
+                return null;
+            }
+            String function = functionOf(node);
+            if ("parallel".equals(function)) {
+                return "parallel";
+            }
+            // The stage itself is reported by its body
+            return "stage".equals(function) ? null : "step";
+        }
+        return node instanceof StepAtomNode ? "step" : null;
+    }
+
+    private static boolean isNodeStep(FlowNode node) {
+        return "node".equals(functionOf(node));
+    }
+
+    @CheckForNull
+    private static String functionOf(@CheckForNull FlowNode node) {
+        if (node instanceof StepNode) {
+            StepDescriptor d = ((StepNode) node).getDescriptor();
+            return d == null ? null : d.getFunctionName();
+        }
+        return null;
+    }
+
+    private static String nameOf(FlowNode node, String type) {
+        switch (type) {
+            case "branch":
+                return node.getAction(ThreadNameAction.class).getThreadName();
+            case "stage":
+                return node.getAction(LabelAction.class).getDisplayName();
+            default:
+                String function = functionOf(node);
+                return function != null ? function : node.getDisplayFunctionName();
+        }
+    }
+
+    private static void computeSlack(Element e) {
+        if (e.type.equals("parallel")) {
+            for (Element branch : e.children) {
+                branch.slack = e.end - branch.end;
+            }
+        }
+        for (Element child : e.children) {
+            computeSlack(child);
+        }
+    }
+
+    /**
+     * Stages and branches which determine the duration of the run: all the stages in sequence,
+     * and the slowest branch of each parallel block.
+     */
+    private List<Element> criticalPath() {
+        List<Element> path = new ArrayList<>();
+        addCriticalPath(root, path);
+        return path;
+    }
+
+    private static void addCriticalPath(Element e, List<Element> path) {
+        if (e.type.equals("parallel")) {
+            Element slowest = null;
+            for (Element branch : e.children) {
+                if (slowest == null || branch.end > slowest.end) {
+                    slowest = branch;
+                }
+            }
+            if (slowest != null) {
+                path.add(slowest);
+                addCriticalPath(slowest, path);
+            }
+            return;
+        }
+        for (Element child : e.children) {
+            if (child.type.equals("stage")) {
+                path.add(child);
+            }
+            if (!child.type.equals("step")) {
+                addCriticalPath(child, path);
+            }
+        }
+    }
+
+    private String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"run\": ").append(quote(run.getFullDisplayName())).append(",\n");
+        Result result = run.getResult();
+        sb.append("  \"result\": ").append(quote(result == null ? "" : result.toString())).append(",\n");
+        sb.append("  \"startTime\": ").append(start).append(",\n");
+        sb.append("  \"durationMs\": ").append(end - start).append(",\n");
+        sb.append("  \"criticalPath\": [");
+        List<Element> path = criticalPath();
+        for (int i = 0; i < path.size(); i++) {
+            Element e = path.get(i);
+            sb.append(i == 0 ? "\n" : ",\n").append("    {\"type\": ").append(quote(e.type))
+                    .append(", \"name\": ").append(quote(e.name))
+                    .append(", \"id\": ").append(quote(e.id))
+                    .append(", \"durationMs\": ").append(e.end - e.start).append('}');
+        }
+        sb.append(path.isEmpty() ? "],\n" : "\n  ],\n");
+        sb.append("  \"children\": ");
+        appendChildren(sb, root, "  ");
+        sb.append("\n}\n");
+        return sb.toString();
+    }
+
+    private void appendChildren(StringBuilder sb, Element parent, String indent) {
+        if (parent.children.isEmpty()) {
+            sb.append("[]");
+            return;
+        }
+        sb.append('[');
+        for (int i = 0; i < parent.children.size(); i++) {
+            Element e = parent.children.get(i);
+            sb.append(i == 0 ? "\n" : ",\n").append(indent).append("  {");
+            sb.append("\"type\": ").append(quote(e.type));
+            sb.append(", \"name\": ").append(quote(e.name));
+            sb.append(", \"id\": ").append(quote(e.id));
+            sb.append(", \"startMs\": ").append(e.start - start);
+            sb.append(", \"durationMs\": ").append(e.end - e.start);
+            if (e.queue >= 0) {
+                sb.append(", \"queueMs\": ").append(e.queue);
+            }
+            if (e.slack >= 0) {
+                sb.append(", \"slackMs\": ").append(e.slack);
+            }
+            if (e.type.equals("parallel") && e.end > e.start) {
+                // Average number of branches running at the same time
+                long busy = 0;
+                for (Element branch : e.children) {
+                    busy += branch.end - branch.start;
+                }
+                sb.append(", \"parallelism\": ").append(String.format(Locale.ROOT, "%.2f", busy / (double) (e.end - e.start)));
+            }
+            if (e.skipped) {
+                sb.append(", \"skipped\": true");
+            }
+            if (e.error != null) {
+                sb.append(", \"error\": ").append(quote(e.error));
+            }
+            if (!e.type.equals("step")) {
+                sb.append(", \"children\": ");
+                appendChildren(sb, e, indent + "  ");
+            }
+            sb.append('}');
+        }
+        sb.append('\n').append(indent).append(']');
+    }
+
+    /**
+     * One test case per stage and branch, named after the enclosing ones, so that test report tools can track their durations.
+     */
+    private String toJUnit() {
+        int failures = 0;
+        int skipped = 0;
+        List<Element> flat = new ArrayList<>();
+        List<String> classNames = new ArrayList<>();
+        flatten(root, "", flat, classNames);
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < flat.size(); i++) {
+            Element e = flat.get(i);
+            body.append("  <testcase classname=\"").append(escapeXml(classNames.get(i)))
+                    .append("\" name=\"").append(escapeXml(e.name))
+                    .append("\" time=\"").append(seconds(e.end - e.start)).append('"');
+            if (e.skipped) {
+                skipped++;
+                body.append(">\n    <skipped/>\n  </testcase>\n");
+            } else if (e.error != null) {
+                failures++;
+                body.append(">\n    <failure message=\"").append(escapeXml(e.error)).append("\"/>\n  </testcase>\n");
+            } else {
+                body.append("/>\n");
+            }
+        }
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<testsuite name=\"" + escapeXml(run.getParent().getFullName()) + "\" tests=\"" + flat.size() +
+                "\" failures=\"" + failures + "\" errors=\"0\" skipped=\"" + skipped +
+                "\" time=\"" + seconds(end - start) + "\">\n" +
+                body +
+                "</testsuite>\n";
+    }
+
+    private static void flatten(Element e, String className, List<Element> flat, List<String> classNames) {
+        for (Element child : e.children) {
+            if (child.type.equals("stage") || child.type.equals("branch")) {
+                flat.add(child);
+                classNames.add(className.isEmpty() ? "pipeline" : className);
+                flatten(child, className.isEmpty() ? child.name : className + "." + child.name, flat, classNames);
+            } else if (child.type.equals("parallel")) {
+                flatten(child, className, flat, classNames);
+            }
+        }
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+    }
+
+    private static String quote(@CheckForNull String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String escapeXml(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '&': sb.append("&amp;"); break;
+                case '"': sb.append("&quot;"); break;
+                case '\n': sb.append("&#10;"); break;
+                default:
+                    if (c >= 0x20 || c == '\t') {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stage, parallel block, branch or step, with the times in milliseconds since the epoch.
+     */
+    private static final class Element {
+        final String type;
+        final String name;
+        @CheckForNull
+        final String id;
+        final long start;
+        final long end;
+        final List<Element> children = new ArrayList<>();
+        long queue = -1;
+        long slack = -1;
+        boolean skipped;
+        @CheckForNull
+        String error;
+
+        Element(String type, String name, @CheckForNull String id, long start, long end) {
+            this.type = type;
+            this.name = name;
+            this.id = id;
+            this.start = start;
+            this.end = Math.max(start, end);
+        }
+
+        void add(Element child) {
+            children.add(child);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package io.jenkins.jenkinsfile.runner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CheckoutFilterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Line of the ignore file, path relative to it, whether the path is a directory, whether the rule matches it.
+     */
+    private static final Object[][] MATCHES = {
+            // Unanchored patterns match the name at any depth
+            {"*.log", "a.log", false, true},
+            {"*.log", "sub/dir/a.log", false, true},
+            {"*.log", "a.log.txt", false, false},
+            {"?.md", "a.md", false, true},
+            {"?.md", "ab.md", false, false},
+            {"[ab].txt", "b.txt", false, true},
+            {"[ab].txt", "c.txt", false, false},
+            {"[!ab].txt", "c.txt", false, true},
+            // A leading or inner slash anchors the pattern to the directory of the ignore file
+            {"/build", "build", true, true},
+            {"/build", "sub/build", true, false},
+            {"doc/*.txt", "doc/a.txt", false, true},
+            {"doc/*.txt", "doc/sub/a.txt", false, false},
+            {"doc/*.txt", "sub/doc/a.txt", false, false},
+            // A trailing slash only matches directories
+            {"out/", "out", true, true},
+            {"out/", "out", false, false},
+            {"out/", "sub/out", true, true},
+            // Leading, trailing and inner **
+            {"**/logs", "logs", true, true},
+            {"**/logs", "a/b/logs", true, true},
+            {"**/logs/debug.log", "a/logs/debug.log", false, true},
+            {"**/logs/debug.log", "a/logs/other.log", false, false},
+            {"a/**", "a/x/y", false, true},
+            {"a/**", "b/x", false, false},
+            {"a/**/b", "a/b", false, true},
+            {"a/**/b", "a/x/b", false, true},
+            {"a/**/b", "a/x/y/b", false, true},
+            {"a/**/b", "xa/b", false, false},
+            // Escapes
+            {"\\#file", "#file", false, true},
+            {"\\!important", "!important", false, true},
+            {"\\*", "*", false, true},
+            {"\\*", "a", false, false},
+            // Trailing spaces are ignored unless escaped
+            {"trail  ", "trail", false, true},
+            {"trail\\ ", "trail ", false, true},
+            {"trail\\ ", "trail", false, false},
+    };
+
+    @Test
+    public void matches() {
+        for (Object[] row : MATCHES) {
+            CheckoutFilter.IgnoreRule rule = CheckoutFilter.IgnoreRule.parse((String) row[0]);
+            assertNotNull("Rule for " + row[0], rule);
+            assertEquals(row[0] + " matching " + row[1] + (((Boolean) row[2]) ? "/" : ""),
+                    row[3], rule.matches((String) row[1], (Boolean) row[2]));
+        }
+    }
+
+    @Test
+    public void parse() {
+        for (String line : new String[] {"", "   ", "# comment", "#", "/", "!"}) {
+            assertNull("No rule for '" + line + "'", CheckoutFilter.IgnoreRule.parse(line));
+        }
+        assertTrue(CheckoutFilter.IgnoreRule.parse("!keep.log").negated);
+        assertFalse(CheckoutFilter.IgnoreRule.parse("\\!keep.log").negated);
+        assertFalse(CheckoutFilter.IgnoreRule.parse("\\#keep.log").negated);
+        assertTrue(CheckoutFilter.IgnoreRule.parse("out/").directoryOnly);
+        assertFalse(CheckoutFilter.IgnoreRule.parse("out/").anchored);
+        assertTrue(CheckoutFilter.IgnoreRule.parse("/out").anchored);
+        assertTrue(CheckoutFilter.IgnoreRule.parse("a/b").anchored);
+        assertFalse(CheckoutFilter.IgnoreRule.parse("ab").anchored);
+    }
+
+    @Test
+    public void nestedIgnoreFiles() throws IOException {
+        Path root = tmp.getRoot().toPath();
+        write(root.resolve(".gitignore"), "*.log\nbuild/\n/local\nsecret.txt\n");
+        write(root.resolve(".jfrignore"), "!secret.txt\n*.tmp\n");
+        write(root.resolve("sub/.gitignore"), "!keep.log\n*.tmp\n!*.tmp\n");
+        write(root.resolve("sub/deeper/.gitignore"), "keep.log\n");
+
+        CheckoutFilter filter = new CheckoutFilter(null, null, true);
+        CheckoutFilter.Scope top = filter.root(root);
+        assertFalse(top.acceptsFile("a.log"));
+        assertFalse(top.acceptsFile("a.tmp"));
+        // The last matching line wins, .jfrignore is read after .gitignore
+        assertTrue(top.acceptsFile("secret.txt"));
+        assertFalse(top.acceptsFile("local"));
+        assertFalse(top.acceptsDirectory("build"));
+        assertFalse(top.acceptsDirectory(".git"));
+        assertTrue(top.acceptsDirectory("sub"));
+        assertTrue(top.acceptsFile("build"));
+
+        CheckoutFilter.Scope sub = top.enter(root.resolve("sub"), "sub");
+        // The nested file overrides its parent
+        assertTrue(sub.acceptsFile("keep.log"));
+        assertTrue(sub.acceptsFile("a.tmp"));
+        assertFalse(sub.acceptsFile("other.log"));
+        // Anchored to the directory of the parent file
+        assertTrue(sub.acceptsFile("local"));
+        assertFalse(sub.acceptsDirectory("build"));
+
+        CheckoutFilter.Scope deeper = sub.enter(root.resolve("sub/deeper"), "deeper");
+        assertFalse(deeper.acceptsFile("keep.log"));
+        assertTrue(deeper.acceptsFile("a.tmp"));
+        assertFalse(deeper.acceptsFile("other.log"));
+    }
+
+    @Test
+    public void includesAndExcludes() throws IOException {
+        Path root = tmp.getRoot().toPath();
+        CheckoutFilter filter = new CheckoutFilter("src/, Jenkinsfile", "**/*.bak", false);
+        assertFalse(filter.isAll());
+        CheckoutFilter.Scope top = filter.root(root);
+        assertTrue(top.acceptsFile("Jenkinsfile"));
+        assertFalse(top.acceptsFile("README.md"));
+        assertTrue(top.acceptsDirectory("src"));
+        assertFalse(top.acceptsDirectory("docs"));
+        CheckoutFilter.Scope src = top.enter(root.resolve("src"), "src");
+        assertTrue(src.acceptsFile("Main.java"));
+        assertFalse(src.acceptsFile("Main.java.bak"));
+        assertTrue("No filter", new CheckoutFilter(null, null, false).isAll());
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,16 @@
+package io.jenkins.jenkinsfile.runner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogTailerTest {
+
+    @Test
+    public void jobOf() {
+        assertEquals("job", LogTailer.jobOf("job#1"));
+        assertEquals("folder/job", LogTailer.jobOf("folder/job#12"));
+        assertEquals("a/b/job", LogTailer.jobOf("a/b/job#3"));
+        assertEquals("job", LogTailer.jobOf("job"));
+    }
+}
@@ -0,0 +1,62 @@
+package io.jenkins.jenkinsfile.runner;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import hudson.model.Item;
+import hudson.security.ACL;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RunCredentialsProviderTest {
+
+    private final Item job = proxy(Item.class, "folder/job");
+    private final Credentials credential = proxy(Credentials.class, null);
+
+    @After
+    public void remove() {
+        RunCredentialsProvider.remove(job);
+    }
+
+    @Test
+    public void onlyVisibleToTheJobAsSystem() {
+        RunCredentialsProvider.add(job, credential);
+        RunCredentialsProvider provider = new RunCredentialsProvider();
+
+        assertEquals(Collections.singletonList(credential),
+                provider.getCredentialsInItem(Credentials.class, job, ACL.SYSTEM2, Collections.emptyList()));
+        assertTrue("Another job", provider.getCredentialsInItem(Credentials.class, proxy(Item.class, "folder/other"),
+                ACL.SYSTEM2, Collections.emptyList()).isEmpty());
+        assertTrue("The folder", provider.getCredentialsInItemGroup(Credentials.class, null,
+                ACL.SYSTEM2, Collections.emptyList()).isEmpty());
+        assertTrue("Another user", provider.getCredentialsInItem(Credentials.class, job,
+                new UsernamePasswordAuthenticationToken("alice", "", Collections.emptyList()), Collections.emptyList()).isEmpty());
+        assertTrue("No authentication", provider.getCredentialsInItem(Credentials.class, job,
+                null, Collections.emptyList()).isEmpty());
+
+        RunCredentialsProvider.remove(job);
+        assertTrue("Dropped at the end of the run", provider.getCredentialsInItem(Credentials.class, job,
+                ACL.SYSTEM2, Collections.emptyList()).isEmpty());
+    }
+
+    /**
+     * Stands for a Jenkins object, only its full name is used.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<?> type, String fullName) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (p, method, args) -> {
+            switch (method.getName()) {
+                case "getFullName": return fullName;
+                case "hashCode": return System.identityHashCode(p);
+                case "equals": return p == args[0];
+                case "toString": return String.valueOf(fullName);
+                default: throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
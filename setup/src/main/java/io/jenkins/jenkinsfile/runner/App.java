@@ -5,6 +5,7 @@ import io.jenkins.jenkinsfile.runner.bootstrap.commands.JenkinsLauncherCommand;
 import io.jenkins.jenkinsfile.runner.bootstrap.commands.JenkinsfileCommand;
 import io.jenkins.jenkinsfile.runner.bootstrap.commands.LintJenkinsfileCommand;
 import io.jenkins.jenkinsfile.runner.bootstrap.commands.RunJenkinsfileCommand;
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.RunManyCommand;
 
 /**
  * App handler for {@link RunJenkinsfileCommand}.
@@ -23,6 +24,8 @@ public class App implements IApp {
         JenkinsLauncher<?> launcher;
         if (command instanceof RunJenkinsfileCommand) {
             launcher = new JenkinsfileRunnerLauncher((RunJenkinsfileCommand) command);
+        } else if (command instanceof RunManyCommand) {
+            launcher = new RunManyLauncher((RunManyCommand) command);
         } else if (command instanceof LintJenkinsfileCommand) {
             launcher = new JenkinsfileLinterLauncher((LintJenkinsfileCommand) command);
         } else {
@@ -0,0 +1,97 @@
+package io.jenkins.jenkinsfile.runner;
+
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import io.jenkins.jenkinsfile.runner.bootstrap.DaemonProtocol;
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.PipelineRunOptions;
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.ServeCommand;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the embedded Jenkins running and executes the Jenkinsfiles sent by the {@code run} command over
+ * {@link DaemonProtocol}, one at a time, until the process is stopped.
+ */
+public class DaemonLauncher extends JenkinsLauncher<ServeCommand> {
+    private static final Logger LOGGER = Logger.getLogger(DaemonLauncher.class.getName());
+
+    public DaemonLauncher(ServeCommand command) {
+        super(command);
+    }
+
+    @Override
+    protected int doLaunch() throws Exception {
+        // So that the payload code has all the access to the system
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2);
+             DaemonProtocol.Server server = DaemonProtocol.listen(command.socket)) {
+            Thread shutdown = new Thread(() -> {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    // Exiting anyway
+                }
+            }, "Jenkinsfile Runner daemon shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdown);
+            System.out.printf("Jenkins is ready, listening on %s%n", command.socket.getAbsolutePath());
+            while (true) {
+                DaemonProtocol.Connection connection;
+                try {
+                    connection = server.accept();
+                } catch (ClosedChannelException e) {
+                    return 0;
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Invalid request to the daemon", e);
+                    continue;
+                }
+                try (DaemonProtocol.Connection c = connection) {
+                    c.exit(run(c));
+                } catch (IOException e) {
+                    // The client went away, e.g. it was interrupted
+                    LOGGER.log(Level.WARNING, "Lost the connection with the client", e);
+                }
+            }
+        }
+    }
+
+    private int run(DaemonProtocol.Connection connection) throws Exception {
+        PrintStream err = new PrintStream(connection.getStderr(), true, StandardCharsets.UTF_8);
+        PipelineRunOptions options = command.parseRun(connection.getRequest(), err);
+        if (options == null) {
+            return -1;
+        }
+
+        Class<?> runnerClass = getRunnerClass();
+        Object runner = runnerClass.getConstructor().newInstance();
+        Method m = runnerClass.getMethod("run", PipelineRunOptions.class, OutputStream.class, PrintStream.class);
+        Method abort = runnerClass.getMethod("abort", String.class);
+        connection.onDisconnect(() -> {
+            try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+                abort.invoke(runner, "The client of the daemon disconnected");
+            } catch (ReflectiveOperationException e) {
+                LOGGER.log(Level.WARNING, "Could not abort the run of a disconnected client", e);
+            }
+        });
+        try {
+            // The errors of the run, e.g. invalid options, are reported to the client
+            return (int) m.invoke(runner, options, connection.getStdout(), err);
+        } catch (InvocationTargetException e) {
+            // Reported to the client, the daemon keeps serving
+            err.println("Unhandled exception in the daemon:");
+            e.getCause().printStackTrace(err);
+            return -1;
+        }
+    }
+
+    @Override
+    protected String getThreadName() {
+        return "Jenkinsfile Runner daemon";
+    }
+}
@@ -74,6 +74,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 
+import io.jenkins.jenkinsfile.runner.bootstrap.StartupReport;
 import io.jenkins.jenkinsfile.runner.util.ExecutionEnvironment;
 import io.jenkins.jenkinsfile.runner.util.JenkinsHomeLoader;
 import io.jenkins.jenkinsfile.runner.util.JenkinsRecipe;
@@ -314,14 +315,23 @@ public abstract class JenkinsEmbedder implements RootAction {
      */
     protected Jenkins newJenkins() throws Exception {
         jettyLevel(Level.WARNING);
-        ServletContext webServer = createWebServer();
-        File home = homeLoader.allocate();
-        setupHome(home);
+        final StartupReport report = StartupReport.get();
+        ServletContext webServer;
+        try (StartupReport.Phase p = report.phase("JenkinsLauncher.createWebServer")) {
+            webServer = createWebServer();
+        }
+        File home;
+        try (StartupReport.Phase p = report.phase("homeLoader.allocate")) {
+            home = homeLoader.allocate();
+        }
+        try (StartupReport.Phase p = report.phase("setupHome")) {
+            setupHome(home);
+        }
         // TODO looks like a remaining of Jenkins Test Harness not used at all in the jfr context
         for (JenkinsRecipe.Runner r : recipes) {
             r.decorateHome(this, home);
         }
-        try {
+        try (StartupReport.Phase p = report.phase("Jenkins.init")) {
             return new Hudson(home, webServer, getPluginManager());
         } catch (InterruptedException x) {
             throw new Exception("Jenkins startup interrupted", x);
@@ -1,12 +1,17 @@
 package io.jenkins.jenkinsfile.runner;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.BulkChange;
 import hudson.ClassicPluginStrategy;
 import hudson.PluginManager;
+import hudson.util.AtomicFileWriter;
 import hudson.util.PluginServletFilter;
 import io.jenkins.jenkinsfile.runner.bootstrap.ClassLoaderBuilder;
+import io.jenkins.jenkinsfile.runner.bootstrap.StartupReport;
 import io.jenkins.jenkinsfile.runner.bootstrap.commands.JenkinsLauncherCommand;
 import io.jenkins.jenkinsfile.runner.bootstrap.commands.JenkinsLauncherOptions;
 import io.jenkins.jenkinsfile.runner.util.JenkinsHomeLoader;
+import io.jenkins.jenkinsfile.runner.util.TemporaryDirectoryAllocator;
 
 import java.awt.Desktop;
 import java.io.File;
@@ -31,6 +36,7 @@ import org.eclipse.jetty.security.LoginService;
 import org.eclipse.jetty.security.RolePrincipal;
 import org.eclipse.jetty.security.UserPrincipal;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.resource.ResourceFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 /**
@@ -40,6 +46,22 @@ public abstract class JenkinsLauncher<T extends JenkinsLauncherCommand> extends
 
     protected final T command;
 
+    private static final String RUNNER_CLASS_NAME = "io.jenkins.jenkinsfile.runner.Runner";
+    private static final String PIPELINE_JOB_CLASS_NAME = "org.jenkinsci.plugins.workflow.job.WorkflowJob";
+
+    private static final String WORKSPACES_DIR_PROPERTY = "jenkins.model.Jenkins.workspacesDir";
+
+    private Class<?> runnerClass;
+
+    /** Whether the temporary directories are preferably allocated on a RAM-backed filesystem. */
+    private boolean ramPreferred;
+
+    /**
+     * Backing stores of the Jenkins home and of the workspaces, e.g. for the summary of the runs.
+     */
+    protected String homeStore;
+    protected String workspacesStore;
+
     private static final Logger LOGGER = Logger.getLogger(JenkinsLauncher.class.getName());
 
     public JenkinsLauncher(T command) {
@@ -57,6 +79,12 @@ public abstract class JenkinsLauncher<T extends JenkinsLauncherCommand> extends
             //Override homeLoader to use existing directory instead of creating temporary one
             this.homeLoader = new JenkinsHomeLoader.UseExisting(launcherOptions.jenkinsHome.getAbsoluteFile());
         }
+        if (!"none".equals(launcherOptions.tmpfs)) {
+            File dir = "auto".equals(launcherOptions.tmpfs) ? null : new File(launcherOptions.tmpfs);
+            long budget = launcherOptions.tmpfsBudget == null ? -1 : launcherOptions.tmpfsBudget;
+            ramPreferred = env.temporaryDirectoryAllocator.preferRam(dir, budget);
+        }
+        env.temporaryDirectoryAllocator.setDeferredCleanup(launcherOptions.deferCleanup);
     }
 
     @Override
@@ -97,14 +125,22 @@ public abstract class JenkinsLauncher<T extends JenkinsLauncherCommand> extends
         context.addBean(new NoListenerConfiguration(context));
         server.setHandler(context);
         context.getSecurityHandler().setLoginService(configureUserRealm());
-        context.setResourceBase(launcherOptions.warDir.getPath());
+        if (launcherOptions.warDir.isFile()) {
+            // --noWarExtraction: serve web.xml and the static resources straight from the WAR file
+            context.setExtractWAR(false);
+            context.setBaseResource(ResourceFactory.of(server).newJarFileResource(launcherOptions.warDir.toURI()));
+        } else {
+            context.setResourceBase(launcherOptions.warDir.getPath());
+        }
 
         // Jenkins core and some extension points supply extension points which try to access the filter
         // In Jenkins core it is define in web.xml
         // TODO: Consider reusing Jenkins web.xml instead of manual magic
         context.addFilter(PluginServletFilter.class, "/*", EnumSet.of(DispatcherType.REQUEST));
 
-        server.start();
+        try (StartupReport.Phase p = StartupReport.get().phase("Jetty.start")) {
+            server.start();
+        }
 
         localPort = launcherOptions.httpPort != null ? launcherOptions.httpPort : -1;
 
@@ -139,15 +175,65 @@ public abstract class JenkinsLauncher<T extends JenkinsLauncherCommand> extends
         Thread currentThread = Thread.currentThread();
         String originalThreadName = currentThread.getName();
         currentThread.setName(getThreadName());
-        before();
-        try {
-            return doLaunch();
+        String forcedFlush = AtomicFileWriter.class.getName() + ".DISABLE_FORCED_FLUSH";
+        String originalForcedFlush = System.getProperty(forcedFlush);
+        if (isNoPersist()) {
+            // The remaining writes, e.g. of the build records, need not survive a crash of the temporary home
+            System.setProperty(forcedFlush, "true");
+        }
+        try (BulkChange noPersist = noPersist()) {
+            try (StartupReport.Phase p = StartupReport.get().phase("JenkinsEmbedder.before")) {
+                before();
+            }
+            try {
+                return doLaunch();
+            } finally {
+                try (StartupReport.Phase p = StartupReport.get().phase("JenkinsEmbedder.after")) {
+                    after();
+                }
+                currentThread.setName(originalThreadName);
+            }
         } finally {
-            after();
-            currentThread.setName(originalThreadName);
+            if (originalForcedFlush == null) {
+                System.clearProperty(forcedFlush);
+            } else {
+                System.setProperty(forcedFlush, originalForcedFlush);
+            }
         }
     }
 
+    /**
+     * Expected size of the workspaces, to decide whether they fit on the RAM-backed filesystem.
+     */
+    protected long getExpectedWorkspaceSize() throws IOException {
+        return TemporaryDirectoryAllocator.DEFAULT_EXPECTED_SIZE;
+    }
+
+    /**
+     * Budget of the RAM-backed filesystem, e.g. to stop measuring a workspace which will not fit anyway.
+     */
+    protected long getRamBudget() {
+        return env.temporaryDirectoryAllocator.getRamBudget();
+    }
+
+    /**
+     * Whether {@code --noPersist} applies, i.e. the Jenkins home is a temporary one deleted on exit.
+     */
+    protected boolean isNoPersist() {
+        return command.launcherOptions.noPersist && command.launcherOptions.jenkinsHome == null;
+    }
+
+    /**
+     * With {@code --noPersist}, vetoes the saves of configuration made by the current thread until closed,
+     * e.g. of the Jenkins instance, the descriptors, the folders and the jobs, which keep their state in memory.
+     * Saves made by the other threads, e.g. of the build records by the executors, are not affected.
+     * @return {@code null} without {@code --noPersist}
+     */
+    @CheckForNull
+    protected BulkChange noPersist() {
+        return isNoPersist() ? new BulkChange(BulkChange.ALL) : null;
+    }
+
     /**
      * Launches the payload.
      * @return Exit code
@@ -219,6 +305,21 @@ public abstract class JenkinsLauncher<T extends JenkinsLauncherCommand> extends
     @Override
     protected void setupHome(File home) throws IOException {
         final JenkinsLauncherOptions launcherOptions = command.getLauncherOptions();
+        TemporaryDirectoryAllocator allocator = env.temporaryDirectoryAllocator;
+        homeStore = allocator.describe(home);
+        if (System.getProperty(WORKSPACES_DIR_PROPERTY) != null) {
+            workspacesStore = "disk (" + System.getProperty(WORKSPACES_DIR_PROPERTY) + ")";
+        } else if (ramPreferred) {
+            // Allocated on its own so that the workspaces get RAM only if they fit too
+            File workspaces = allocator.allocate(getExpectedWorkspaceSize());
+            System.setProperty(WORKSPACES_DIR_PROPERTY, new File(workspaces, "${ITEM_FULL_NAME}").getPath());
+            workspacesStore = allocator.describe(workspaces);
+        } else {
+            workspacesStore = homeStore;
+        }
+        StartupReport.get().addCounter("store.home", () -> homeStore);
+        StartupReport.get().addCounter("store.workspaces", () -> workspacesStore);
+
         if (launcherOptions.withInitHooks != null) {
             String[] list = launcherOptions.withInitHooks.list();
             if (!launcherOptions.withInitHooks.isDirectory() || list == null) {
@@ -248,6 +349,18 @@ public abstract class JenkinsLauncher<T extends JenkinsLauncherCommand> extends
         }
     }
 
+    /**
+     * Loads the {@code Runner} class of the payload, once per launcher.
+     * We are either in the shared environment (uberjar, repo with plugins) where we can already classload the Runner class directly.
+     * Or not, and then we consult with the Jenkins core loader and plugin uber classloader
+     */
+    protected Class<?> getRunnerClass() throws IOException, ClassNotFoundException {
+        if (runnerClass == null) {
+            runnerClass = command.hasClass(PIPELINE_JOB_CLASS_NAME) ? Class.forName(RUNNER_CLASS_NAME) : getClassFromJar(RUNNER_CLASS_NAME);
+        }
+        return runnerClass;
+    }
+
     protected Class<?> getClassFromJar(String classname) throws IOException, ClassNotFoundException {
         ClassLoader cl = new ClassLoaderBuilder(jenkins.getPluginManager().uberClassLoader)
             .collectJars(command.getPayloadJarDir())
@@ -4,6 +4,9 @@ import hudson.security.ACL;
 import hudson.security.ACLContext;
 import io.jenkins.jenkinsfile.runner.bootstrap.commands.PipelineRunOptions;
 import io.jenkins.jenkinsfile.runner.bootstrap.commands.RunJenkinsfileCommand;
+import io.jenkins.jenkinsfile.runner.bootstrap.util.RamStore;
+
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -12,13 +15,27 @@ import java.io.IOException;
  * @author Kohsuke Kawaguchi
  */
 public class JenkinsfileRunnerLauncher extends JenkinsLauncher<RunJenkinsfileCommand> {
-    private static final String RUNNER_CLASS_NAME = "io.jenkins.jenkinsfile.runner.Runner";
-    private static final String PIPELINE_JOB_CLASS_NAME = "org.jenkinsci.plugins.workflow.job.WorkflowJob";
-
     public JenkinsfileRunnerLauncher(RunJenkinsfileCommand command) {
         super(command);
     }
 
+    /**
+     * The directory of the Jenkinsfile is copied into the workspace, unless the Pipeline comes from an SCM
+     * or runs in that directory.
+     */
+    @Override
+    protected long getExpectedWorkspaceSize() throws IOException {
+        PipelineRunOptions options = command.pipelineRunOptions;
+        File dir = options.jenkinsfile == null ? null : options.jenkinsfile.getAbsoluteFile().getParentFile();
+        if (options.scm != null || dir == null || !dir.isDirectory()) {
+            return super.getExpectedWorkspaceSize();
+        }
+        if ("in-place".equals(options.workspaceMode)) {
+            return 0;
+        }
+        return RamStore.sizeOf(dir, getRamBudget());
+    }
+
     //TODO: add support of timeout
     /**
      * Launch the Jenkins instance
@@ -28,14 +45,8 @@ public class JenkinsfileRunnerLauncher extends JenkinsLauncher<RunJenkinsfileCom
     protected int doLaunch() throws Exception {
         // So that the payload code has all the access to the system
         try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
-            // We are either in the shared environment (uberjar, repo with plugins) where we can already classload the Runner class directly.
-            // Or not, and then we consult with the Jenkins core loader and plugin uber classloader
-            Class<?> c = command.hasClass(PIPELINE_JOB_CLASS_NAME) ? Class.forName(RUNNER_CLASS_NAME) : getRunnerClassFromJar();
+            Class<?> c = getRunnerClass();
             return (int) c.getMethod("run", PipelineRunOptions.class).invoke(c.getConstructor().newInstance(), command.pipelineRunOptions);
         }
     }
-
-    private Class<?> getRunnerClassFromJar() throws IOException, ClassNotFoundException {
-        return getClassFromJar(RUNNER_CLASS_NAME);
-    }
 }
@@ -0,0 +1,157 @@
+package io.jenkins.jenkinsfile.runner;
+
+import hudson.BulkChange;
+import hudson.model.Result;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.PipelineRunOptions;
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.RunManyCommand;
+import jenkins.model.Jenkins;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs all the Jenkinsfiles of {@link RunManyCommand} concurrently in the same Jenkins instance.
+ * The logs are written to one file per run, or to stdout with each line prefixed by the job name.
+ */
+public class RunManyLauncher extends JenkinsLauncher<RunManyCommand> {
+
+    private static final Result[] RESULTS = {Result.SUCCESS, Result.UNSTABLE, Result.FAILURE, Result.NOT_BUILT, Result.ABORTED};
+
+    public RunManyLauncher(RunManyCommand command) {
+        super(command);
+    }
+
+    @Override
+    protected int doLaunch() throws Exception {
+        // So that the payload code has all the access to the system
+        try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+            Jenkins.get().setNumExecutors(command.executors);
+            Class<?> runnerClass = getRunnerClass();
+            Method run = runnerClass.getMethod("run", PipelineRunOptions.class, OutputStream.class);
+            if (command.logDir != null) {
+                Files.createDirectories(command.logDir.toPath());
+            }
+
+            List<PipelineRunOptions> runs = command.runs;
+            List<Future<Integer>> results = new ArrayList<>(runs.size());
+            long[] durations = new long[runs.size()];
+            // Runs mostly wait for their builds, there is no point in scheduling more than the executors of the built-in node
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(runs.size(), command.executors));
+            try {
+                for (int i = 0; i < runs.size(); i++) {
+                    PipelineRunOptions options = runs.get(i);
+                    int index = i;
+                    results.add(pool.submit(() -> {
+                        long start = System.nanoTime();
+                        try (ACLContext c = ACL.as2(ACL.SYSTEM2); BulkChange noPersist = noPersist(); OutputStream log = openLog(options.jobName)) {
+                            return (int) run.invoke(runnerClass.getConstructor().newInstance(), options, log);
+                        } catch (InvocationTargetException e) {
+                            System.err.printf("[%s] Unhandled exception:%n", options.jobName);
+                            e.getCause().printStackTrace();
+                            return -1;
+                        } finally {
+                            durations[index] = System.nanoTime() - start;
+                        }
+                    }));
+                }
+
+                int exitCode = 0;
+                StringBuilder summary = new StringBuilder(String.format("%nSummary of %d runs:%n", runs.size()));
+                for (int i = 0; i < runs.size(); i++) {
+                    int code = results.get(i).get();
+                    if (code < 0) {
+                        exitCode = -1;
+                    } else if (exitCode >= 0) {
+                        exitCode = Math.max(exitCode, code);
+                    }
+                    summary.append(String.format(Locale.ROOT, "  %-10s %8.1fs  %s%n",
+                            toResult(code), durations[i] / 1e9, runs.get(i).jobName));
+                }
+                summary.append(String.format("Jenkins home on %s, workspaces on %s%n", homeStore, workspacesStore));
+                System.out.print(summary);
+                return exitCode;
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private OutputStream openLog(String jobName) throws IOException {
+        if (command.logDir != null) {
+            return new FileOutputStream(new File(command.logDir, jobName.replace('/', '_') + ".log"));
+        }
+        return new PrefixedOutputStream(System.out, "[" + jobName + "] ");
+    }
+
+    private static String toResult(int code) {
+        return code >= 0 && code < RESULTS.length ? RESULTS[code].toString() : "ERROR";
+    }
+
+    /**
+     * Writes complete lines prefixed by the job name, so that the lines of the concurrent runs are not mixed up.
+     */
+    private static class PrefixedOutputStream extends OutputStream {
+        private final PrintStream out;
+        private final byte[] prefix;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        PrefixedOutputStream(PrintStream out, String prefix) {
+            this.out = out;
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void write(int b) {
+            line.write(b);
+            if (b == '\n') {
+                flushLine();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                if (b[i] == '\n') {
+                    line.write(b, off, i + 1 - off);
+                    flushLine();
+                    off = i + 1;
+                }
+            }
+            line.write(b, off, end - off);
+        }
+
+        private void flushLine() {
+            synchronized (out) {
+                out.write(prefix, 0, prefix.length);
+                out.write(line.toByteArray(), 0, line.size());
+                out.flush();
+            }
+            line.reset();
+        }
+
+        @Override
+        public void close() {
+            if (line.size() > 0) {
+                line.write('\n');
+                flushLine();
+            }
+        }
+    }
+}
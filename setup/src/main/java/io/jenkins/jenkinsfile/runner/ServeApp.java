@@ -0,0 +1,22 @@
+package io.jenkins.jenkinsfile.runner;
+
+import io.jenkins.jenkinsfile.runner.bootstrap.IApp;
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.JenkinsLauncherCommand;
+import io.jenkins.jenkinsfile.runner.bootstrap.commands.ServeCommand;
+
+/**
+ * App handler for {@link ServeCommand}.
+ * This code runs after Jetty and Jenkins classloaders are set up correctly.
+ */
+public class ServeApp implements IApp {
+    @Override
+    public int run(JenkinsLauncherCommand command) throws Throwable {
+        if (!(command instanceof ServeCommand)) {
+            throw new IllegalStateException(
+                    String.format("%s is invoked with a wrong class type. Required=%s, got=%s",
+                            ServeApp.class, ServeCommand.class, command.getClass()));
+        }
+        DaemonLauncher launcher = new DaemonLauncher((ServeCommand) command);
+        return launcher.launch();
+    }
+}
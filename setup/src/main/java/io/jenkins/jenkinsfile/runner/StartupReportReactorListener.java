@@ -0,0 +1,48 @@
+package io.jenkins.jenkinsfile.runner;
+
+import hudson.init.InitMilestone;
+import hudson.init.InitReactorListener;
+import io.jenkins.jenkinsfile.runner.bootstrap.StartupReport;
+import org.jvnet.hudson.reactor.Milestone;
+import org.jvnet.hudson.reactor.Task;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the {@link InitMilestone}s and the load time of each plugin into the {@link StartupReport}.
+ * Registered as a service, Jenkins looks the listeners up in the context classloader, i.e. the setup one.
+ */
+public class StartupReportReactorListener implements InitReactorListener {
+
+    private final Map<Task, StartupReport.Phase> running = new ConcurrentHashMap<>();
+
+    @Override
+    public void onTaskStarted(Task t) {
+        String name = t.getDisplayName();
+        // e.g. "Loading plugin Pipeline: Job v1.0 (workflow-job)" and "Initializing plugin workflow-job"
+        if (name != null && (name.startsWith("Loading plugin ") || name.startsWith("Initializing plugin "))) {
+            running.put(t, StartupReport.get().phase(name, "plugin"));
+        }
+    }
+
+    @Override
+    public void onTaskCompleted(Task t) {
+        StartupReport.Phase phase = running.remove(t);
+        if (phase != null) {
+            phase.close();
+        }
+    }
+
+    @Override
+    public void onTaskFailed(Task t, Throwable err, boolean fatal) {
+        onTaskCompleted(t);
+    }
+
+    @Override
+    public void onAttained(Milestone milestone) {
+        if (milestone instanceof InitMilestone) {
+            StartupReport.get().mark("InitMilestone." + ((InitMilestone) milestone).name(), "milestone");
+        }
+    }
+}
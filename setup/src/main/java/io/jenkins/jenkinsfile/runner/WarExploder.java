@@ -23,10 +23,9 @@
  */
 package io.jenkins.jenkinsfile.runner;
 
-import hudson.FilePath;
 import hudson.remoting.Which;
+import io.jenkins.jenkinsfile.runner.bootstrap.WarCache;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.util.logging.Level;
@@ -118,29 +117,9 @@ public final class WarExploder {
             }
         }
 
-        // TODO this assumes that the CWD of the Maven process is the plugin ${basedir}, which may not be the case
-        File buildDirectory = new File(System.getProperty("buildDirectory", "target"));
-        File explodeDir = new File(buildDirectory, "jenkins-for-test").getAbsoluteFile();
-        explodeDir.getParentFile().mkdirs();
-        while (new File(explodeDir + ".exploding").isFile()) {
-            explodeDir = new File(explodeDir + "x");
-        }
-        File timestamp = new File(explodeDir,".timestamp");
-
-        if(!timestamp.exists() || (timestamp.lastModified()!=war.lastModified())) {
-            LOGGER.log(Level.INFO, "Exploding {0} into {1}", new Object[] {war, explodeDir});
-            new FileOutputStream(explodeDir + ".exploding").close();
-            new FilePath(explodeDir).deleteRecursive();
-            new FilePath(war).unzip(new FilePath(explodeDir));
-            if(!explodeDir.exists())    // this is supposed to be impossible, but I'm investigating HUDSON-2605
-                throw new IOException("Failed to explode "+war);
-            new FileOutputStream(timestamp).close();
-            timestamp.setLastModified(war.lastModified());
-            new File(explodeDir + ".exploding").delete();
-        } else {
-            LOGGER.log(Level.INFO, "Picking up existing exploded jenkins.war at {0}", explodeDir.getAbsolutePath());
-        }
-
+        // Content-addressed, so concurrent processes share a single copy and a modified WAR is never picked up stale
+        File explodeDir = WarCache.getDefault().explode(war);
+        LOGGER.log(Level.INFO, "Using exploded jenkins.war at {0}", explodeDir.getAbsolutePath());
         return explodeDir;
     }
 
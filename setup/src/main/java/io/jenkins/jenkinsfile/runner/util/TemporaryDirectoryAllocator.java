@@ -23,19 +23,83 @@
  */
 package io.jenkins.jenkinsfile.runner.util;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.FilePath;
+import hudson.Functions;
+import io.jenkins.jenkinsfile.runner.bootstrap.util.RamStore;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Allocates temporary directories and cleans it up at the end.
+ *
+ * Directories are allocated on a RAM-backed filesystem, e.g. {@code /dev/shm}, when one is {@link #preferRam preferred}
+ * and the expected size of the directory fits in its budget, on the disk otherwise.
+ *
+ * Each directory is locked through a {@code .lock} file next to it while this process runs.
+ * The first allocation in a base directory starts reaping, in the background, the directories whose lock is not held,
+ * i.e. left by a process which did not dispose them, and the leftovers of {@link #setDeferredCleanup deferred cleanups}.
  * @author Kohsuke Kawaguchi
  */
 public class TemporaryDirectoryAllocator {
+
+    private static final Logger LOGGER = Logger.getLogger(TemporaryDirectoryAllocator.class.getName());
+
+    /**
+     * Expected size of a directory allocated by {@link #allocate()}, e.g. a Jenkins home without the workspaces.
+     */
+    public static final long DEFAULT_EXPECTED_SIZE = RamStore.DEFAULT_EXPECTED_SIZE;
+
+    /**
+     * Name of the directory the allocated directories are moved into by a deferred cleanup.
+     */
+    private static final String TRASH = ".trash";
+
+    /**
+     * Age after which a directory without a lock file, e.g. from an older version, is considered orphaned.
+     */
+    private static final long UNLOCKED_ORPHAN_AGE = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Age of a lock file before it is checked, as it is created and locked in two steps.
+     */
+    private static final long LOCK_GRACE = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Base directories already reaped by this process.
+     */
+    private static final Set<File> REAPED = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Lock files held by the allocators of this process, guarded by itself.
+     * The reaper must not probe them: closing any channel of a file releases all the locks of the process on it.
+     */
+    private static final Set<File> HELD = new HashSet<>();
+
     /**
      * Remember allocated directories to delete them later.
      */
@@ -46,6 +110,22 @@ public class TemporaryDirectoryAllocator {
      */
     private final File base;
 
+    /**
+     * Directory on a RAM-backed filesystem preferred for the allocations, if any.
+     */
+    @CheckForNull
+    private File ramBase;
+    private long ramBudget;
+    /** Sum of the expected sizes of the directories allocated in {@link #ramBase}. */
+    private long ramAllocated;
+    private final Set<File> ramDirectories = new HashSet<>();
+
+    /** Channels holding the lock of each allocated directory. */
+    private final Map<File, FileChannel> locks = new HashMap<>();
+
+    /** Whether {@link #dispose()} moves the directories to the trash and deletes them in the background. */
+    private boolean deferredCleanup;
+
     public TemporaryDirectoryAllocator(File base) {
         this.base = base;
     }
@@ -55,15 +135,82 @@ public class TemporaryDirectoryAllocator {
         base.mkdirs();
     }
 
+    /**
+     * Prefers a RAM-backed filesystem for the next allocations.
+     * @param dir Directory on a RAM-backed filesystem, {@code null} to detect {@code /dev/shm}
+     * @param budget Maximum of the expected sizes of the directories allocated there, negative for half of its free space
+     * @return Whether a RAM-backed filesystem is used
+     */
+    public synchronized boolean preferRam(@CheckForNull File dir, long budget) {
+        File candidate = dir != null ? dir : new File(RamStore.DEFAULT_DIR);
+        if (!RamStore.isRamBacked(candidate)) {
+            if (dir != null) {
+                LOGGER.log(Level.WARNING, "{0} is not on a RAM-backed filesystem, using {1}", new Object[] {dir, base});
+            }
+            return false;
+        }
+        File ram = new File(candidate, base.getName());
+        if (!ram.isDirectory() && !ram.mkdirs()) {
+            LOGGER.log(Level.WARNING, "Could not create {0}, using {1}", new Object[] {ram, base});
+            return false;
+        }
+        ramBase = ram;
+        ramBudget = RamStore.budget(ram, budget);
+        return true;
+    }
+
+    /**
+     * Budget of the RAM-backed filesystem, 0 if none is used.
+     */
+    public synchronized long getRamBudget() {
+        return ramBase == null ? 0 : ramBudget;
+    }
+
+    /**
+     * Makes {@link #dispose()} move the directories into a trash directory and delete them in the background,
+     * so that the process can exit right away.
+     * What is left when the process exits is deleted by the next one.
+     */
+    public synchronized void setDeferredCleanup(boolean deferredCleanup) {
+        this.deferredCleanup = deferredCleanup;
+    }
+
     /**
      * Allocates a new empty temporary directory and returns it.
      *
      * This directory will be wiped out when {@link TemporaryDirectoryAllocator} gets disposed.
      * When this method returns, the directory already exists. 
      */
-    public synchronized File allocate() throws IOException {
+    public File allocate() throws IOException {
+        return allocate(DEFAULT_EXPECTED_SIZE);
+    }
+
+    /**
+     * Allocates a new empty temporary directory, on the RAM-backed filesystem if the expected size fits in its budget.
+     * @param expectedSize Expected size of the content of the directory in bytes
+     */
+    public synchronized File allocate(long expectedSize) throws IOException {
+        if (ramBase != null && ramAllocated + expectedSize <= ramBudget && ramBase.getUsableSpace() >= expectedSize) {
+            try {
+                File f = createIn(ramBase);
+                ramAllocated += expectedSize;
+                ramDirectories.add(f);
+                return f;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to create a temporary directory in " + ramBase + ", using " + base, e);
+            }
+        }
+        return createIn(base);
+    }
+
+    private File createIn(File parent) throws IOException {
+        if (REAPED.add(parent.getAbsoluteFile())) {
+            reapInBackground(parent);
+        }
         try {
-            File f = File.createTempFile("jfr", ".run", base);
+            File f = File.createTempFile("jfr", ".run", parent);
+            // Locked before the directory exists, so that the reaper never sees it unlocked
+            lock(f);
             if (f.exists()) {
                 Files.delete(f.toPath());
             }
@@ -71,22 +218,170 @@ public class TemporaryDirectoryAllocator {
             tmpDirectories.add(f);
             return f;
         } catch (IOException e) {
-            throw new IOException("Failed to create a temporary directory in "+base,e);
+            throw new IOException("Failed to create a temporary directory in "+parent,e);
         }
     }
 
+    private static File lockFile(File dir) {
+        return new File(dir.getParentFile(), dir.getName() + ".lock");
+    }
+
+    private void lock(File dir) throws IOException {
+        File lock = lockFile(dir).getAbsoluteFile();
+        FileChannel channel;
+        // Not probed by a reaper of this process meanwhile
+        synchronized (HELD) {
+            channel = FileChannel.open(lock.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                // Released by the operating system if the process dies
+                if (channel.tryLock() == null) {
+                    throw new IOException("Lock of " + dir + " is held by another process");
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            HELD.add(lock);
+        }
+        locks.put(dir, channel);
+    }
+
+    private void unlock(File dir) {
+        FileChannel channel = locks.remove(dir);
+        if (channel != null) {
+            File lock = lockFile(dir).getAbsoluteFile();
+            try {
+                channel.close();
+                Files.deleteIfExists(lock.toPath());
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not delete the lock of " + dir, e);
+            } finally {
+                synchronized (HELD) {
+                    HELD.remove(lock);
+                }
+            }
+        }
+    }
+
+    private static void reapInBackground(File parent) {
+        Thread t = new Thread(() -> {
+            try {
+                reap(parent);
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Could not reap the orphaned directories in " + parent, e);
+            }
+        }, "Reaping " + parent);
+        t.setDaemon(true);
+        t.start();
+    }
+
     /**
-     * Deletes all allocated temporary directories.
+     * Deletes the directories left in the base directory by processes which are gone, and the trash.
      */
-    public synchronized void dispose() throws IOException, InterruptedException {
-        IOException x = null;
-        for (File dir : tmpDirectories)
-            try {
-                new FilePath(dir).deleteRecursive();
+    static void reap(File parent) throws IOException, InterruptedException {
+        List<File> orphans = new ArrayList<>();
+        File[] children = parent.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File f : children) {
+            String name = f.getName();
+            if (name.equals(TRASH)) {
+                orphans.add(f);
+            } else if (name.startsWith("jfr") && name.endsWith(".run")) {
+                File lock = lockFile(f);
+                long now = System.currentTimeMillis();
+                if (lock.exists()
+                        ? now - lock.lastModified() > LOCK_GRACE && !isLocked(lock)
+                        : now - f.lastModified() > UNLOCKED_ORPHAN_AGE) {
+                    orphans.add(f);
+                }
+            } else if (name.startsWith("jfr") && name.endsWith(".run.lock")
+                    && !new File(parent, name.substring(0, name.length() - ".lock".length())).exists()
+                    && System.currentTimeMillis() - f.lastModified() > LOCK_GRACE && !isLocked(f)) {
+                // Left by a process which died while deleting its directory
+                Files.deleteIfExists(f.toPath());
+            }
+        }
+        if (orphans.isEmpty()) {
+            return;
+        }
+        LOGGER.log(Level.FINE, "Deleting the orphaned directories {0}", orphans);
+        deleteAll(orphans);
+        for (File orphan : orphans) {
+            Files.deleteIfExists(lockFile(orphan).toPath());
+        }
+    }
+
+    /**
+     * Whether the lock file is held, by this process or another one.
+     * The locks of this process are looked up instead of probed, see {@link #HELD}.
+     */
+    private static boolean isLocked(File lock) {
+        synchronized (HELD) {
+            if (HELD.contains(lock.getAbsoluteFile())) {
+                return true;
+            }
+            try (FileChannel channel = FileChannel.open(lock.toPath(), StandardOpenOption.WRITE)) {
+                FileLock l = channel.tryLock();
+                if (l == null) {
+                    return true;
+                }
+                l.release();
+                return false;
+            } catch (OverlappingFileLockException e) {
+                // Held by another channel of this process, e.g. being unlocked
+                return true;
             } catch (IOException e) {
-                x = e;
+                // Deleted meanwhile, or not ours to check
+                return true;
             }
+        }
+    }
+
+    /**
+     * Backing store of an allocated directory, e.g. {@code RAM (/dev/shm)}.
+     */
+    public synchronized String describe(File dir) {
+        if (ramDirectories.contains(dir)) {
+            return "RAM (" + ramBase.getParent() + ")";
+        }
+        return tmpDirectories.contains(dir) ? "disk (" + base.getParent() + ")" : "disk (" + dir + ")";
+    }
+
+    /**
+     * Deletes all allocated temporary directories, or moves them to the trash if the cleanup is deferred.
+     */
+    public synchronized void dispose() throws IOException, InterruptedException {
+        List<File> dirs = new ArrayList<>(tmpDirectories);
         tmpDirectories.clear();
+        if (deferredCleanup) {
+            List<File> trashes = new ArrayList<>();
+            for (File dir : dirs) {
+                File trash = moveToTrash(dir);
+                if (trash != null) {
+                    trashes.add(trash);
+                    unlock(dir);
+                } else {
+                    // Deleted with the others below
+                    tmpDirectories.add(dir);
+                }
+            }
+            deleteInBackground(trashes);
+            dirs = new ArrayList<>(tmpDirectories);
+            tmpDirectories.clear();
+        }
+        IOException x = null;
+        try {
+            deleteAll(dirs);
+        } catch (IOException e) {
+            x = e;
+        }
+        for (File dir : dirs) {
+            if (!dir.exists()) {
+                unlock(dir);
+            }
+        }
         if (x!=null)    throw new IOException("Failed to clean up temp dirs",x);
     }
 
@@ -94,20 +389,154 @@ public class TemporaryDirectoryAllocator {
      * Deletes all allocated temporary directories asynchronously.
      */
     public synchronized void disposeAsync() {
-        final Set<File> tbr = new HashSet<File>(tmpDirectories);
+        final List<File> tbr = new ArrayList<File>(tmpDirectories);
         tmpDirectories.clear();
 
         new Thread("Disposing "+base) {
             public void run() {
-                for (File dir : tbr)
-                    try {
-                        new FilePath(dir).deleteRecursive();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                try {
+                    deleteAll(tbr);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                synchronized (TemporaryDirectoryAllocator.this) {
+                    for (File dir : tbr) {
+                        unlock(dir);
                     }
+                }
             }
         }.start();
     }
+
+    /**
+     * Moves the directory into the trash directory of its base directory.
+     * @return The moved directory, {@code null} if it could not be moved
+     */
+    @CheckForNull
+    private static File moveToTrash(File dir) {
+        File trash = new File(new File(dir.getParentFile(), TRASH), dir.getName());
+        try {
+            Files.createDirectories(trash.toPath().getParent());
+            // On the same filesystem, so a rename
+            Files.move(dir.toPath(), trash.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return trash;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not move " + dir + " to the trash", e);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the directories in a process which outlives this one, or in a thread on Windows.
+     */
+    private static void deleteInBackground(List<File> dirs) {
+        if (dirs.isEmpty()) {
+            return;
+        }
+        if (!Functions.isWindows()) {
+            List<String> command = new ArrayList<>(Arrays.asList("rm", "-rf", "--"));
+            for (File dir : dirs) {
+                command.add(dir.getAbsolutePath());
+            }
+            try {
+                new ProcessBuilder(command)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .redirectError(ProcessBuilder.Redirect.DISCARD)
+                        .start();
+                return;
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not start rm, deleting the trash in a thread", e);
+            }
+        }
+        // Stopped when the process exits, the next one reaps the rest
+        Thread t = new Thread(() -> {
+            try {
+                deleteAll(dirs);
+            } catch (IOException | InterruptedException e) {
+                LOGGER.log(Level.FINE, "Could not delete " + dirs, e);
+            }
+        }, "Deleting " + dirs);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Deletes the directories, walking their subdirectories in parallel.
+     * What cannot be deleted that way, e.g. read-only files on Windows, is left to {@link FilePath#deleteRecursive()}.
+     */
+    static void deleteAll(List<File> dirs) throws IOException, InterruptedException {
+        if (dirs.isEmpty()) {
+            return;
+        }
+        // Deleting is I/O bound, so more threads than processors
+        ForkJoinPool pool = new ForkJoinPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+        try {
+            List<ForkJoinTask<Void>> tasks = new ArrayList<>();
+            for (File dir : dirs) {
+                tasks.add(pool.submit(new Delete(dir.toPath())));
+            }
+            for (ForkJoinTask<Void> task : tasks) {
+                task.quietlyJoin();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        IOException x = null;
+        for (File dir : dirs) {
+            if (dir.exists()) {
+                try {
+                    new FilePath(dir).deleteRecursive();
+                } catch (IOException e) {
+                    x = e;
+                }
+            }
+        }
+        if (x != null) {
+            throw x;
+        }
+    }
+
+    /**
+     * Deletes a directory, forking a task for each subdirectory and deleting the files meanwhile.
+     * Symbolic links are deleted, not followed. Failures are ignored.
+     */
+    private static final class Delete extends RecursiveAction {
+        private final Path dir;
+
+        Delete(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            List<Delete> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                for (Path child : children) {
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        Delete task = new Delete(child);
+                        task.fork();
+                        subdirectories.add(task);
+                    } else {
+                        try {
+                            Files.delete(child);
+                        } catch (IOException e) {
+                            // Left to the fallback
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Left to the fallback
+            }
+            for (Delete task : subdirectories) {
+                task.join();
+            }
+            try {
+                Files.delete(dir);
+            } catch (IOException e) {
+                // Left to the fallback
+            }
+        }
+    }
 }
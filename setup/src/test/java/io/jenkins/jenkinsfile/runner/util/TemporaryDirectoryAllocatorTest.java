@@ -0,0 +1,194 @@
+package io.jenkins.jenkinsfile.runner.util;
+
+import io.jenkins.jenkinsfile.runner.bootstrap.util.RamStore;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class TemporaryDirectoryAllocatorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** Directory on the RAM-backed filesystem, if any. */
+    private File ram;
+
+    @After
+    public void deleteRam() throws IOException {
+        if (ram != null) {
+            FileUtils.deleteDirectory(ram);
+        }
+    }
+
+    private TemporaryDirectoryAllocator preferRam(long budget) throws IOException {
+        File shm = new File(RamStore.DEFAULT_DIR);
+        assumeTrue("Needs a tmpfs in " + shm, RamStore.isRamBacked(shm));
+        ram = Files.createTempDirectory(shm.toPath(), "jfr-test").toFile();
+        TemporaryDirectoryAllocator allocator = new TemporaryDirectoryAllocator(tmp.newFolder("jenkinsfileRunner.tmp"));
+        assertTrue(allocator.preferRam(ram, budget));
+        return allocator;
+    }
+
+    @Test
+    public void allocatesOnDiskWithoutRam() throws Exception {
+        assumeFalse(RamStore.isRamBacked(tmp.getRoot()));
+        File base = tmp.newFolder("jenkinsfileRunner.tmp");
+        TemporaryDirectoryAllocator allocator = new TemporaryDirectoryAllocator(base);
+        assertFalse("Not a RAM-backed filesystem", allocator.preferRam(tmp.getRoot(), -1));
+        File dir = allocator.allocate();
+        assertEquals(base, dir.getParentFile());
+        assertEquals("disk (" + tmp.getRoot() + ")", allocator.describe(dir));
+        allocator.dispose();
+        assertFalse(dir.exists());
+    }
+
+    @Test
+    public void fallsBackToDiskOverTheBudget() throws Exception {
+        TemporaryDirectoryAllocator allocator = preferRam(100);
+        File first = allocator.allocate(60);
+        assertEquals(new File(ram, "jenkinsfileRunner.tmp"), first.getParentFile());
+        assertEquals("RAM (" + ram + ")", allocator.describe(first));
+
+        File second = allocator.allocate(60);
+        assertEquals("The budget is exceeded", new File(tmp.getRoot(), "jenkinsfileRunner.tmp"), second.getParentFile());
+        File third = allocator.allocate(40);
+        assertEquals("What is left of the budget", new File(ram, "jenkinsfileRunner.tmp"), third.getParentFile());
+
+        allocator.dispose();
+        assertFalse(first.exists());
+        assertFalse(second.exists());
+    }
+
+    @Test
+    public void fallsBackToDiskWithoutFreeSpace() throws Exception {
+        TemporaryDirectoryAllocator allocator = preferRam(Long.MAX_VALUE);
+        // E.g. filled by other processes, whose allocations are not in the budget of this one
+        File dir = allocator.allocate(ram.getUsableSpace() + 1);
+        assertEquals(new File(tmp.getRoot(), "jenkinsfileRunner.tmp"), dir.getParentFile());
+        allocator.dispose();
+    }
+
+    @Test
+    public void reapsUnlockedOrphans() throws Exception {
+        File base = tmp.newFolder("jenkinsfileRunner.tmp");
+        File orphan = newRun(base, "jfr1.run", TimeUnit.MINUTES.toMillis(2));
+        File withoutLock = new File(base, "jfr2.run");
+        assertTrue(new File(withoutLock, "file").mkdirs());
+        assertTrue(withoutLock.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2)));
+        File staleLock = new File(base, "jfr3.run.lock");
+        assertTrue(staleLock.createNewFile());
+        assertTrue(staleLock.setLastModified(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(2)));
+
+        TemporaryDirectoryAllocator.reap(base);
+        assertFalse(orphan.exists());
+        assertFalse(new File(base, "jfr1.run.lock").exists());
+        assertFalse(withoutLock.exists());
+        assertFalse(staleLock.exists());
+    }
+
+    @Test
+    public void keepsRecentDirectories() throws Exception {
+        File base = tmp.newFolder("jenkinsfileRunner.tmp");
+        // Being allocated by another process, which has not locked it yet
+        File allocated = newRun(base, "jfr1.run", 0);
+        File withoutLock = new File(base, "jfr2.run");
+        assertTrue(withoutLock.mkdir());
+
+        TemporaryDirectoryAllocator.reap(base);
+        assertTrue(allocated.exists());
+        assertTrue(withoutLock.exists());
+    }
+
+    @Test
+    public void keepsLockedDirectories() throws Exception {
+        File base = tmp.newFolder("jenkinsfileRunner.tmp");
+        TemporaryDirectoryAllocator allocator = new TemporaryDirectoryAllocator(base);
+        File dir = allocator.allocate();
+        File lock = new File(base, dir.getName() + ".lock");
+        assertTrue(lock.setLastModified(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(2)));
+        assertTrue(isLockedByThisProcess(lock));
+
+        TemporaryDirectoryAllocator.reap(base);
+        assertTrue(dir.exists());
+        assertTrue("Reaping must not release the lock of this process", isLockedByThisProcess(lock));
+        TemporaryDirectoryAllocator.reap(base);
+        assertTrue(dir.exists());
+
+        allocator.dispose();
+        assertFalse(dir.exists());
+        assertFalse(lock.exists());
+    }
+
+    @Test
+    public void emptiesTheTrash() throws Exception {
+        File base = tmp.newFolder("jenkinsfileRunner.tmp");
+        File trash = new File(base, ".trash");
+        assertTrue(new File(trash, "jfr1.run/file").mkdirs());
+
+        TemporaryDirectoryAllocator.reap(base);
+        assertFalse(trash.exists());
+    }
+
+    @Test
+    public void defersCleanup() throws Exception {
+        File base = tmp.newFolder("jenkinsfileRunner.tmp");
+        TemporaryDirectoryAllocator allocator = new TemporaryDirectoryAllocator(base);
+        allocator.setDeferredCleanup(true);
+        File dir = allocator.allocate();
+        assertTrue(new File(dir, "sub/file").getParentFile().mkdirs());
+        assertTrue(new File(dir, "sub/file").createNewFile());
+
+        allocator.dispose();
+        assertFalse("Moved out of the base directory", dir.exists());
+        assertFalse(new File(base, dir.getName() + ".lock").exists());
+        File trashed = new File(new File(base, ".trash"), dir.getName());
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (trashed.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertFalse("Deleted in the background", trashed.exists());
+    }
+
+    /**
+     * Creates a directory as left by an allocator, with a lock file as old as given.
+     */
+    private static File newRun(File base, String name, long age) throws IOException {
+        File dir = new File(base, name);
+        assertTrue(new File(dir, "file").mkdirs());
+        File lock = new File(base, name + ".lock");
+        assertTrue(lock.createNewFile());
+        assertTrue(lock.setLastModified(System.currentTimeMillis() - age));
+        return dir;
+    }
+
+    /**
+     * Whether this process holds a lock on the file, looked up without opening it: that would release the lock.
+     */
+    private static boolean isLockedByThisProcess(File file) throws IOException {
+        File locks = new File("/proc/locks");
+        assumeTrue("Needs " + locks, locks.canRead());
+        long inode = (Long) Files.getAttribute(file.toPath(), "unix:ino");
+        String pid = Long.toString(ProcessHandle.current().pid());
+        for (String line : Files.readAllLines(locks.toPath())) {
+            // e.g. 1: POSIX  ADVISORY  WRITE 1234 00:2a:5678 0 EOF
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length > 5 && fields[4].equals(pid) && fields[5].endsWith(":" + inode)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
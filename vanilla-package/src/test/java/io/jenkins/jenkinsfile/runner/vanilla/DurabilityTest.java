@@ -0,0 +1,62 @@
+package io.jenkins.jenkinsfile.runner.vanilla;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the flow nodes kept in memory by {@code --durability=ephemeral}
+ */
+public class DurabilityTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public final SystemOutRule systemOut = new SystemOutRule().enableLog();
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(120);
+
+    @Test
+    public void ephemeralParallelStages() throws Throwable {
+        File jenkinsfile = tmp.newFile("Jenkinsfile");
+        FileUtils.writeStringToFile(jenkinsfile, TimingReportTest.NESTED_PARALLEL, Charset.defaultCharset());
+        File home = tmp.newFolder("home");
+        File json = new File(tmp.getRoot(), "timings.json");
+        File junit = new File(tmp.getRoot(), "timings.xml");
+
+        int result = new JFRTestUtil().runAsCLI(jenkinsfile, Arrays.asList("--durability=ephemeral", "--runHome", home.getAbsolutePath(),
+                "--timing-report", json.getAbsolutePath(), "--timing-report", junit.getAbsolutePath()));
+        assertThat("JFR should be executed successfully", result, equalTo(0));
+        assertThat(systemOut.getLog(), containsString("Finished: SUCCESS"));
+        // The whole graph, including the nodes created before the storage was swapped, is read from memory
+        TimingReportTest.assertTimings(json, junit);
+
+        File build = new File(home, "jobs/job/builds/1");
+        assertTrue("The build directory exists", build.isDirectory());
+        try (Stream<Path> files = Files.walk(build.toPath())) {
+            List<Path> nodes = files.filter(Files::isRegularFile)
+                    .filter(f -> f.getParent().getFileName().toString().startsWith("workflow"))
+                    .collect(Collectors.toList());
+            assertTrue("No flow node written: " + nodes, nodes.isEmpty());
+        }
+    }
+}
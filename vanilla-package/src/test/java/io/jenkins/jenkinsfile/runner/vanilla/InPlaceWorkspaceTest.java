@@ -0,0 +1,49 @@
+package io.jenkins.jenkinsfile.runner.vanilla;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Verifies the directory of the Jenkinsfile used as workspace by {@code --workspace-mode=in-place}
+ */
+public class InPlaceWorkspaceTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public final SystemOutRule systemOut = new SystemOutRule().enableLog();
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(120);
+
+    @Test
+    public void usesTheSourceDirectory() throws Throwable {
+        File sourceDir = tmp.newFolder("source");
+        FileUtils.writeStringToFile(new File(sourceDir, "marker.txt"), "not copied", Charset.defaultCharset());
+        File jenkinsfile = new File(sourceDir, "Jenkinsfile");
+        FileUtils.writeStringToFile(jenkinsfile, "node {\n" +
+                "    sh 'pwd'\n" +
+                "    sh 'cat marker.txt'\n" +
+                "}\n", Charset.defaultCharset());
+
+        int result = new JFRTestUtil().runAsCLI(jenkinsfile, Collections.singletonList("--workspace-mode=in-place"));
+        assertThat("JFR should be executed successfully", result, equalTo(0));
+        assertThat(systemOut.getLog(), containsString(sourceDir.getCanonicalPath()));
+        assertThat(systemOut.getLog(), containsString("not copied"));
+        assertFalse("Temporary directory of the steps is deleted", new File(tmp.getRoot(), "source@tmp").exists());
+    }
+}
@@ -0,0 +1,81 @@
+package io.jenkins.jenkinsfile.runner.vanilla;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Verifies the NDJSON build log of {@code --log-format=ndjson}
+ */
+public class LogFormatTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public final SystemOutRule systemOut = new SystemOutRule().enableLog();
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(120);
+
+    @Test
+    public void ndjson() throws Throwable {
+        File jenkinsfile = tmp.newFile("Jenkinsfile");
+        FileUtils.writeStringToFile(jenkinsfile, "stage('Build') {\n" +
+                "    parallel linux: {\n" +
+                "        echo 'Hello \"linux\"'\n" +
+                "    }\n" +
+                "}\n", Charset.defaultCharset());
+
+        int result = new JFRTestUtil().runAsCLI(jenkinsfile, Arrays.asList("--log-format=ndjson"));
+        assertThat("JFR should be executed successfully", result, equalTo(0));
+        List<String> records = getRecords();
+        assertThat(records.stream().anyMatch(r -> r.matches(
+                "\\{\"ts\":\\d+,\"node\":\"\\d+\",\"stage\":\"Build\",\"branch\":\"linux\",\"step\":\"echo\",\"line\":\"Hello \\\\\"linux\\\\\"\"}")), equalTo(true));
+        assertThat(records.stream().anyMatch(r -> r.endsWith("\"line\":\"Finished: SUCCESS\"}")), equalTo(true));
+        assertThat("Console notes are skipped", systemOut.getLog(), not(containsString("ha:")));
+    }
+
+    @Test
+    public void ndjsonLinesSplitAcrossReads() throws Throwable {
+        File jenkinsfile = tmp.newFile("Jenkinsfile");
+        // Longer than a read, and written in two parts by the shell step
+        FileUtils.writeStringToFile(jenkinsfile, "node {\n" +
+                "    echo 'x' * 100000\n" +
+                "    sh 'printf foo; sleep 3; echo bar'\n" +
+                "    echo 'after'\n" +
+                "}\n", Charset.defaultCharset());
+
+        int result = new JFRTestUtil().runAsCLI(jenkinsfile, Arrays.asList("--log-format=ndjson", "-ns"));
+        assertThat("JFR should be executed successfully", result, equalTo(0));
+        List<String> lines = getRecords().stream()
+                .map(r -> r.substring(r.indexOf(",\"line\":\"") + 9, r.length() - 2))
+                .collect(Collectors.toList());
+        assertThat(lines, hasItem("x".repeat(100000)));
+        assertThat(lines, hasItem("foobar"));
+        assertThat(lines, hasItem("after"));
+        assertThat(lines, not(hasItem("foo")));
+        assertThat(lines, not(hasItem("bar")));
+    }
+
+    private List<String> getRecords() {
+        return Arrays.stream(systemOut.getLog().split("\n"))
+                .filter(l -> l.startsWith("{\"ts\":"))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,75 @@
+package io.jenkins.jenkinsfile.runner.vanilla;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Verifies the build log kept in memory by {@code --log-storage=memory}
+ */
+public class LogStorageTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public final SystemOutRule systemOut = new SystemOutRule().enableLog();
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(120);
+
+    @Test
+    public void memory() throws Throwable {
+        File jenkinsfile = tmp.newFile("Jenkinsfile");
+        FileUtils.writeStringToFile(jenkinsfile, "stage('Build') {\n" +
+                "    echo 'Hello, world!'\n" +
+                "}\n", Charset.defaultCharset());
+
+        int result = new JFRTestUtil().runAsCLI(jenkinsfile, Arrays.asList("--log-storage=memory"));
+        assertThat("JFR should be executed successfully", result, equalTo(0));
+        assertThat(systemOut.getLog(), containsString("[Pipeline] stage"));
+        assertThat(systemOut.getLog(), containsString("Hello, world!"));
+        assertThat(systemOut.getLog(), containsString("Finished: SUCCESS"));
+    }
+
+    @Test
+    public void memoryLogLargerThanTheBuffer() throws Throwable {
+        File jenkinsfile = tmp.newFile("Jenkinsfile");
+        // About 21 MB, the writers wait for stdout once the buffer is full
+        FileUtils.writeStringToFile(jenkinsfile, "node {\n" +
+                "    sh 'seq 1 3000000'\n" +
+                "}\n", Charset.defaultCharset());
+
+        int result = new JFRTestUtil().runAsCLI(jenkinsfile, Arrays.asList("--log-storage=memory"));
+        assertThat("JFR should be executed successfully", result, equalTo(0));
+        String log = systemOut.getLog();
+        assertThat(log, containsString("\n1\n2\n3\n"));
+        assertThat(log, containsString("\n1499999\n1500000\n1500001\n"));
+        assertThat(log, containsString("\n2999999\n3000000\n"));
+        assertThat(log, containsString("Finished: SUCCESS"));
+    }
+
+    @Test
+    public void memoryAsNdjson() throws Throwable {
+        File jenkinsfile = tmp.newFile("Jenkinsfile");
+        FileUtils.writeStringToFile(jenkinsfile, "stage('Build') {\n" +
+                "    echo 'Hello, world!'\n" +
+                "}\n", Charset.defaultCharset());
+
+        int result = new JFRTestUtil().runAsCLI(jenkinsfile, Arrays.asList("--log-storage=memory", "--log-format=ndjson"));
+        assertThat("JFR should be executed successfully", result, equalTo(0));
+        // The flow nodes of the lines come from the storage instead of the log index
+        assertThat(systemOut.getLog(), containsString("\"stage\":\"Build\",\"step\":\"echo\",\"line\":\"Hello, world!\"}"));
+    }
+}
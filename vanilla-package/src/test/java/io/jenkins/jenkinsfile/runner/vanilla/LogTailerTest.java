@@ -0,0 +1,81 @@
+package io.jenkins.jenkinsfile.runner.vanilla;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Verifies the build log forwarded while it is written
+ */
+public class LogTailerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public final SystemOutRule systemOut = new SystemOutRule().enableLog();
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(120);
+
+    @Test
+    public void parallelBranches() throws Throwable {
+        File jenkinsfile = tmp.newFile("Jenkinsfile");
+        FileUtils.writeStringToFile(jenkinsfile, "parallel a: {\n" +
+                "    for (int i = 0; i < 200; i++) {\n" +
+                "        echo \"a${i}\"\n" +
+                "    }\n" +
+                "}, b: {\n" +
+                "    for (int i = 0; i < 200; i++) {\n" +
+                "        echo \"b${i}\"\n" +
+                "    }\n" +
+                "}\n", Charset.defaultCharset());
+
+        int result = new JFRTestUtil().runAsCLI(jenkinsfile, Collections.emptyList());
+        assertThat("JFR should be executed successfully", result, equalTo(0));
+        String log = systemOut.getLog();
+        for (int i = 0; i < 200; i++) {
+            assertThat(log, containsString("a" + i + "\n"));
+            assertThat(log, containsString("b" + i + "\n"));
+        }
+        assertThat(log, containsString("Finished: SUCCESS"));
+    }
+
+    @Test
+    public void endsWithTheBuild() throws Throwable {
+        File jenkinsfile = tmp.newFile("Jenkinsfile");
+        // Nothing is written by the steps once the sleep started, the end of the run wakes the tailer up
+        FileUtils.writeStringToFile(jenkinsfile, "echo 'before'\n" +
+                "sleep 3\n", Charset.defaultCharset());
+
+        int result = new JFRTestUtil().runAsCLI(jenkinsfile, Collections.emptyList());
+        assertThat("JFR should be executed successfully", result, equalTo(0));
+        String log = systemOut.getLog();
+        assertThat(log, containsString("before"));
+        // Written once the steps are done, the tailer reads it before it stops
+        assertThat(log, containsString("Finished: SUCCESS"));
+    }
+
+    @Test
+    public void jobInFolder() throws Throwable {
+        File jenkinsfile = tmp.newFile("Jenkinsfile");
+        FileUtils.writeStringToFile(jenkinsfile, "echo 'in a folder'\n", Charset.defaultCharset());
+
+        int result = new JFRTestUtil().runAsCLI(jenkinsfile, Arrays.asList("--job-name=folder/job"));
+        assertThat("JFR should be executed successfully", result, equalTo(0));
+        assertThat(systemOut.getLog(), containsString("in a folder"));
+        assertThat(systemOut.getLog(), containsString("Finished: SUCCESS"));
+    }
+}
@@ -0,0 +1,73 @@
+package io.jenkins.jenkinsfile.runner.vanilla;
+
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the configuration kept in memory by {@code --noPersist}
+ */
+public class NoPersistTest {
+
+    /**
+     * Tells whether the configuration of the job was written into the temporary Jenkins home, which is deleted on exit.
+     */
+    private static final String CHECK_JOB_CONFIG = "node {\n" +
+            "    sh 'if [ -e \"$JENKINS_HOME/jobs/job/config.xml\" ]; then echo \"config.xml: written\"; else echo \"config.xml: not written\"; fi'\n" +
+            "}\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public final SystemOutRule systemOut = new SystemOutRule().enableLog();
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(180);
+
+    @Test
+    public void keepsTheJobInMemory() throws Throwable {
+        long persisted = run(false);
+        assertThat(systemOut.getLog(), containsString("config.xml: written"));
+        systemOut.clearLog();
+
+        long notPersisted = run(true);
+        assertThat(systemOut.getLog(), containsString("config.xml: not written"));
+        assertTrue("Fewer files written: " + notPersisted + " < " + persisted, notPersisted < persisted);
+    }
+
+    /**
+     * @return the {@code persistence.saves} counter of the startup report
+     */
+    private long run(boolean noPersist) throws Throwable {
+        File jenkinsfile = tmp.newFile();
+        FileUtils.writeStringToFile(jenkinsfile, CHECK_JOB_CONFIG, Charset.defaultCharset());
+        File report = new File(tmp.newFolder(), "startup.json");
+        List<String> args = new ArrayList<>(Arrays.asList("--startup-report", report.getAbsolutePath()));
+        if (noPersist) {
+            args.add("--noPersist");
+        }
+
+        int result = new JFRTestUtil().runAsCLI(jenkinsfile, args);
+        assertThat("JFR should be executed successfully", result, equalTo(0));
+        JSONObject counters = JSONObject.fromObject(FileUtils.readFileToString(report, StandardCharsets.UTF_8)).getJSONObject("counters");
+        assertTrue("Counter reported: " + counters, counters.has("persistence.saves"));
+        return counters.getLong("persistence.saves");
+    }
+}
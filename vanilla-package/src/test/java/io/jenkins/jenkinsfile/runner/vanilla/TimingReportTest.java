@@ -0,0 +1,103 @@
+package io.jenkins.jenkinsfile.runner.vanilla;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the report of {@code --timing-report}
+ */
+public class TimingReportTest {
+
+    /**
+     * Scripted Pipeline whose slowest path is Build, Test, slow and inner2.
+     */
+    static final String NESTED_PARALLEL = "stage('Build') {\n" +
+            "    echo 'build'\n" +
+            "}\n" +
+            "stage('Test') {\n" +
+            "    parallel fast: {\n" +
+            "        echo 'fast'\n" +
+            "    }, slow: {\n" +
+            "        parallel inner1: {\n" +
+            "            sleep 1\n" +
+            "        }, inner2: {\n" +
+            "            sleep 4\n" +
+            "        }\n" +
+            "    }\n" +
+            "}\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Rule
+    public final SystemOutRule systemOut = new SystemOutRule().enableLog();
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(120);
+
+    @Test
+    public void nestedParallel() throws Throwable {
+        File jenkinsfile = tmp.newFile("Jenkinsfile");
+        FileUtils.writeStringToFile(jenkinsfile, NESTED_PARALLEL, Charset.defaultCharset());
+        File json = new File(tmp.getRoot(), "reports/timings.json");
+        File junit = new File(tmp.getRoot(), "reports/timings.xml");
+
+        int result = new JFRTestUtil().runAsCLI(jenkinsfile,
+                Arrays.asList("--timing-report", json.getAbsolutePath(), "--timing-report", junit.getAbsolutePath()));
+        assertThat("JFR should be executed successfully", result, equalTo(0));
+        assertTimings(json, junit);
+    }
+
+    static void assertTimings(File json, File junit) throws Exception {
+        JSONObject report = JSONObject.fromObject(FileUtils.readFileToString(json, StandardCharsets.UTF_8));
+        assertThat(report.getString("result"), equalTo("SUCCESS"));
+        List<String> criticalPath = new ArrayList<>();
+        for (Object e : report.getJSONArray("criticalPath")) {
+            criticalPath.add(((JSONObject) e).getString("name"));
+        }
+        assertThat(criticalPath, equalTo(Arrays.asList("Build", "Test", "slow", "inner2")));
+
+        JSONObject test = find(report.getJSONArray("children"), "stage", "Test");
+        JSONObject outer = find(test.getJSONArray("children"), "parallel", "parallel");
+        assertThat(find(outer.getJSONArray("children"), "branch", "slow").getLong("slackMs"), equalTo(0L));
+        assertTrue("fast finishes long before slow", find(outer.getJSONArray("children"), "branch", "fast").getLong("slackMs") > 2000);
+        JSONObject inner = find(find(outer.getJSONArray("children"), "branch", "slow").getJSONArray("children"), "parallel", "parallel");
+        assertThat(find(inner.getJSONArray("children"), "branch", "inner2").getLong("slackMs"), equalTo(0L));
+        assertTrue("inner2 sleeps", find(inner.getJSONArray("children"), "branch", "inner2").getLong("durationMs") >= 4000);
+        assertTrue("inner1 finishes long before inner2", find(inner.getJSONArray("children"), "branch", "inner1").getLong("slackMs") > 2000);
+
+        String xml = FileUtils.readFileToString(junit, StandardCharsets.UTF_8);
+        assertThat(xml, containsString("tests=\"6\" failures=\"0\" errors=\"0\" skipped=\"0\""));
+        assertThat(xml, containsString("<testcase classname=\"pipeline\" name=\"Build\""));
+        assertThat(xml, containsString("<testcase classname=\"Test\" name=\"fast\""));
+        assertThat(xml, containsString("<testcase classname=\"Test.slow\" name=\"inner2\" time=\"4."));
+    }
+
+    private static JSONObject find(JSONArray elements, String type, String name) {
+        for (Object o : elements) {
+            JSONObject e = (JSONObject) o;
+            if (e.getString("type").equals(type) && e.getString("name").equals(name)) {
+                return e;
+            }
+        }
+        throw new AssertionError("No " + type + " " + name + " in " + elements);
+    }
+}